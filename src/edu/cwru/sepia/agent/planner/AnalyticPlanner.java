@@ -0,0 +1,161 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.ResourceAllocator.Allocation;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * A planner for the Midas resource collection maps that needs no search at all.
+ *
+ * On these maps the best strategy follows a simple rule: decide the number of peasants
+ * from the total amount of resources needed (the same rule the A* goal uses), build them
+ * as soon as there is enough gold, and send every peasant on rounds to the nearest gold
+ * mine and then the nearest trees until the goal is met. The number of peasants comes
+ * from a closed form, so the plan is produced in time proportional to its length.
+ *
+ * The rule only holds when every peasant starts at the town hall without cargo and there
+ * are enough gold mines and trees to cover the goal. For anything else the planner agent
+ * falls back to A* search.
+ *
+ * Since the rule is not proven optimal, the verify option compares the make span of the
+ * analytic plan with the A* plan on small goals of the same map before the game starts.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class AnalyticPlanner {
+
+	//small goals for the verification, as gold and wood pairs
+	private static final int[][] VERIFY_GOALS = {
+		{100, 100}, {200, 200}, {400, 100}, {300, 300}, {500, 200}, {600, 400}
+	};
+
+	private final boolean buildPeasants;
+
+	private final ActionTable table;
+
+	private final ResourceAllocator allocator = new ResourceAllocator();
+
+	private final PlanScheduler scheduler;
+
+	/**
+	 * @param buildPeasants - whether the plan may build peasants
+	 * @param table - the grounded actions the plans are made of
+	 */
+	public AnalyticPlanner(boolean buildPeasants, ActionTable table) {
+		this.buildPeasants = buildPeasants;
+		this.table = table;
+		this.scheduler = new PlanScheduler(table);
+	}
+
+	/**
+	 * Determines whether the analytic rule applies to the given initial state and goal.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the state with the required gold and wood
+	 * @return true if the analytic plan can be used instead of search
+	 */
+	public boolean covers(GameState initial, GameState goal) {
+		//every peasant must be idle at the town hall
+		for (Peasant peasant : initial.peasants) {
+			if (peasant.getAdjacentResource() != null || peasant.getCargoAmount() > 0) {
+				return false;
+			}
+		}
+
+		//there must be enough of each resource for the goal and any peasants built
+		int builds = peasantsToBuild(initial, goal);
+		return initial.peasants.size() > 0
+				&& totalAmount(initial, ResourceNode.Type.GOLD_MINE) >= goal.gold + initial.getCosts().getPeasantGold() * builds - initial.gold
+				&& totalAmount(initial, ResourceNode.Type.TREE) >= goal.wood - initial.wood;
+	}
+
+	/**
+	 * Produces the analytic plan. If the chosen number of peasants cannot be built without
+	 * breaking a precondition, fewer peasants are tried.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the state with the required gold and wood
+	 * @return the plan with the first action on top, or null if none could be made
+	 */
+	public Stack<GameState> plan(GameState initial, GameState goal) {
+		int limit = ResourceAllocator.peasantLimit(initial, buildPeasants);
+		for (int builds = peasantsToBuild(initial, goal); builds >= 0; builds--) {
+			Allocation allocation = allocator.allocate(initial, goal, builds, limit);
+			if (allocation != null) {
+				return scheduler.schedule(initial, goal, allocation);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares the make span of analytic plans and A* plans for small goals on the same map.
+	 * Each comparison is printed and the number of goals where A* found a shorter plan is returned.
+	 *
+	 * @param initial - the state to plan from
+	 * @param maxDepth - the depth limit of the A* search
+	 * @return the number of goals where the analytic plan was worse than the A* plan
+	 */
+	public int verify(GameState initial, int maxDepth) {
+		int worse = 0;
+		for (GameState goal : verificationGoals()) {
+			Stack<GameState> analytic = covers(initial, goal) ? plan(initial, goal) : null;
+			Stack<GameState> searched = PlannerAgent.AstarSearch(initial, goal, maxDepth,
+					new SearchSettings(table));
+			if (analytic == null || searched == null) {
+				System.out.println("Verify gold=" + goal.gold + " wood=" + goal.wood + ": analytic "
+						+ (analytic == null ? "none" : "found") + ", A* " + (searched == null ? "none" : "found"));
+				continue;
+			}
+
+			int analyticSpan = PlannerAgent.getMakeSpan(analytic, table);
+			int searchedSpan = PlannerAgent.getMakeSpan(searched, table);
+			if (analyticSpan > searchedSpan) {
+				worse++;
+			}
+			System.out.println("Verify gold=" + goal.gold + " wood=" + goal.wood + ": analytic make span "
+					+ analyticSpan + ", A* make span " + searchedSpan
+					+ (analyticSpan > searchedSpan ? " (A* is better)" : ""));
+		}
+		return worse;
+	}
+
+	/**
+	 * @return the goals used to verify the analytic rule, with the peasants the rule would use
+	 */
+	private List<GameState> verificationGoals() {
+		List<GameState> goals = new ArrayList<>();
+		for (int[] amounts : VERIFY_GOALS) {
+			goals.add(PlannerAgent.makeGoal(amounts[0], amounts[1], buildPeasants));
+		}
+		return goals;
+	}
+
+	/**
+	 * The closed form number of peasants to build, from the peasants the goal asks for.
+	 */
+	private int peasantsToBuild(GameState initial, GameState goal) {
+		if (!buildPeasants) {
+			return 0;
+		}
+		int wanted = PlannerAgent.getMaxPeasants(goal.gold, goal.wood, true);
+		return Math.max(0, wanted - initial.getPeasantCount());
+	}
+
+	/**
+	 * @return the total amount left in all resources of the given type
+	 */
+	private static int totalAmount(GameState state, ResourceNode.Type type) {
+		int total = 0;
+		for (Resource resource : state.resources) {
+			if (resource.getType().equals(type)) {
+				total += resource.getAmount();
+			}
+		}
+		return total;
+	}
+}
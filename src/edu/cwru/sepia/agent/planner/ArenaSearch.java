@@ -0,0 +1,267 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * The A* search of the planner agent with its nodes stored off the Java heap.
+ *
+ * Instead of keeping a game state object with a parent pointer for every generated node,
+ * each node is packed by the state codec into a record of the node arena. The open list
+ * holds only node indices and the plan is rebuilt by walking parent indices back from the
+ * goal, so the heap holds a few longs per node no matter how large the states are. The closed
+ * set holds the fingerprints of the packed states in a packed state set, also off the heap.
+ * Only the state being expanded and its children are ever game state objects.
+ *
+ * The search tries the same actions in the same order as the A* search in the planner agent
+ * and uses the same heuristic. States are compared by their packed words, which hold the
+ * whole game situation, and ties in total cost go to the deepest node, so where the heuristic
+ * leaves a choice the plan can differ slightly from the one the planner agent's search finds.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class ArenaSearch {
+
+	private final ActionTable table;
+
+	private final int pageRecords;
+
+	private long expanded = 0;
+
+	private long generated = 0;
+
+	private long reservedBytes = 0;
+
+	//whether states dominated by a state generated before are pruned
+	private boolean dominance = false;
+
+	private long pruned = 0;
+
+	//whether only one order of every two independent actions is tried
+	private boolean reduce = false;
+
+	//the heuristic values of the goal, or null to work them out every time
+	private HeuristicCache cache = null;
+
+	/**
+	 * @param table - every grounded action of the game
+	 */
+	public ArenaSearch(ActionTable table) {
+		this(table, NodeArena.DEFAULT_PAGE_RECORDS);
+	}
+
+	/**
+	 * @param table - every grounded action of the game
+	 * @param pageRecords - the number of nodes in every page of the arena
+	 */
+	public ArenaSearch(ActionTable table, int pageRecords) {
+		this.table = table;
+		this.pageRecords = pageRecords;
+	}
+
+	/**
+	 * @param dominance - whether states dominated by a state generated before are pruned
+	 */
+	public void setDominance(boolean dominance) {
+		this.dominance = dominance;
+	}
+
+	/**
+	 * Leaving out orders of independent actions depends on the action that made a state,
+	 * so with it the closed set tells states apart by that action as well.
+	 *
+	 * @param reduce - whether only one order of every two independent actions is tried
+	 */
+	public void setReduce(boolean reduce) {
+		this.reduce = reduce;
+	}
+
+	/**
+	 * @param cache - the cache of the heuristic values for the goal, or null to work out every one
+	 */
+	public void setHeuristicCache(HeuristicCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Searches for the least make span plan from the initial state to the goal.
+	 *
+	 * @param initial - the state to initialize search on
+	 * @param goal - the goal state with the required amount of gold and wood
+	 * @param maxDepth - the maximum depth to in the game state generation tree
+	 * @return the plan with the first action on top, or null if there is none or the
+	 *         thread was interrupted
+	 */
+	public Stack<GameState> search(GameState initial, GameState goal, int maxDepth) {
+		StateCodec codec = new StateCodec(initial,
+				Math.max(table.getMaxPeasants(), initial.getPeasantCount()));
+		NodeArena arena = new NodeArena(codec.getWords(), pageRecords);
+		NodeHeap open = new NodeHeap();
+		PackedStateSet closed = new PackedStateSet(1024);
+		long[] words = new long[codec.getWords()];
+
+		//the packed children of a state, looked up in the closed set together
+		long[][] children = new long[table.size()][codec.getWords()];
+		long[] highs = new long[table.size()];
+		long[] lows = new long[table.size()];
+		boolean[] expandedChild = new boolean[table.size()];
+
+		short[] actions = table.baseCodes(goal.peasants.size());
+		DominanceIndex dominated = dominance ? new DominanceIndex(initial) : null;
+		if (dominated != null) {
+			dominated.add(initial, 0);
+		}
+
+		codec.encode(initial, words);
+		int rootCost = estimate(initial, goal);
+		open.push(arena.add(words, 0, rootCost, NodeArena.NO_PARENT, ActionTable.NONE, 0), rootCost);
+		generated = 1;
+		expanded = 0;
+
+		try {
+			while (!open.isEmpty()) {
+				//give up when the thread planning is interrupted
+				if (Thread.currentThread().isInterrupted()) {
+					return null;
+				}
+				long node = open.pop();
+				arena.readState(node, words);
+
+				//check to skip this state if it has been expanded
+				short made = arena.getAction(node);
+				long high = high(words, made);
+				long low = low(words, made);
+				if (closed.contains(high, low)) {
+					continue;
+				}
+				GameState current = codec.decode(words);
+				current.setParentActionCode(made);
+				int depth = arena.getDepth(node);
+
+				//Remove actions that are no longer useful to the state space search
+				if (current.peasants.size() >= goal.peasants.size() && actions.length != 5 * current.peasants.size()) {
+					actions = table.withoutCostlyCodes(actions, current.peasants.size());
+				}
+
+				//Build the least cost path when the goal or depth is met
+				if (current.isGoal(goal) || depth >= maxDepth) {
+					return buildPath(arena, codec, node);
+				}
+
+				closed.add(high, low);
+				expanded++;
+
+				List<GameState> neighbors = current.generateChildren(goal, table, actions, reduce);
+				for (int i = 0; i < neighbors.size(); i++) {
+					codec.encode(neighbors.get(i), children[i]);
+					highs[i] = high(children[i], neighbors.get(i).getParentActionCode());
+					lows[i] = low(children[i], neighbors.get(i).getParentActionCode());
+				}
+				closed.containsAll(highs, lows, neighbors.size(), expandedChild);
+
+				int g = arena.getG(node);
+				for (int i = 0; i < neighbors.size(); i++) {
+					if (expandedChild[i]) {
+						continue;
+					}
+					GameState neighbor = neighbors.get(i);
+					short code = neighbor.getParentActionCode();
+					int cost = g + table.get(code).getMakeSpan();
+					if (dominated != null) {
+						if (dominated.isDominated(neighbor, cost)) {
+							continue;
+						}
+						dominated.add(neighbor, cost);
+					}
+					int total = cost + estimate(neighbor, goal);
+					open.push(arena.add(children[i], cost, total, node, code, depth + 1), total);
+					generated++;
+				}
+			}
+
+			System.err.print("No available path");
+			return null;
+		} finally {
+			reservedBytes = arena.getReservedBytes();
+			pruned = dominated == null ? 0 : dominated.getPruned();
+			arena.release();
+		}
+	}
+
+	/**
+	 * @return the heuristic of the state, from the cache if there is one
+	 */
+	private int estimate(GameState state, GameState goal) {
+		return cache == null ? state.heuristic(goal) : cache.estimate(state, goal);
+	}
+
+	/**
+	 * The high word of the closed set fingerprint of a packed state, which also
+	 * covers the action that made it when orders are being left out.
+	 */
+	private long high(long[] words, short made) {
+		long high = PackedStateSet.high(words);
+		return reduce ? PackedStateSet.finish(PackedStateSet.mix(high, made)) : high;
+	}
+
+	private long low(long[] words, short made) {
+		long low = PackedStateSet.low(words);
+		return reduce ? PackedStateSet.nonZero(PackedStateSet.finish(PackedStateSet.mix(low, made))) : low;
+	}
+
+	/**
+	 * Unpacks the states from the given node back to the root and links them into a plan.
+	 */
+	static Stack<GameState> buildPath(NodeArena arena, StateCodec codec, long node) {
+		List<Long> chain = new ArrayList<>();
+		for (long i = node; i != NodeArena.NO_PARENT; i = arena.getParent(i)) {
+			chain.add(i);
+		}
+
+		long[] words = new long[codec.getWords()];
+		GameState parent = null;
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			long index = chain.get(i);
+			arena.readState(index, words);
+			GameState state = codec.decode(words);
+			state.setParent(parent);
+			state.setParentActionCode(arena.getAction(index));
+			state.setDepth(arena.getDepth(index));
+			state.setCost(arena.getG(index));
+			state.setTotalCost(arena.getF(index));
+			parent = state;
+		}
+		return PlannerAgent.buildPath(parent);
+	}
+
+	/**
+	 * @return the number of states expanded by the last search
+	 */
+	public long getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @return the number of nodes stored in the arena by the last search
+	 */
+	public long getGenerated() {
+		return generated;
+	}
+
+	/**
+	 * @return the number of states dominance pruning removed in the last search
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+
+	/**
+	 * @return the bytes of direct memory the arena of the last search held
+	 */
+	public long getReservedBytes() {
+		return reservedBytes;
+	}
+}
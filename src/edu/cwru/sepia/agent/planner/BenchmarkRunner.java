@@ -0,0 +1,380 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.ScenarioGenerator.Scenario;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the planners on generated scenarios without SEPIA and writes a CSV line per
+ * scenario and planner with the search time, the states expanded, the memory used and
+ * the make span of the plan, so changes to the planners can be compared on scaling curves.
+ *
+ * Arguments are of the form key=value:
+ *
+ * sweep - quick (default) or full, the scenarios of the ScenarioGenerator to run
+ * seed - the seed of the generated maps, 1 by default
+ * depots - the number of depots of every map, the town hall included, 1 by default
+ * modes - a comma separated list of astar, reduce, arena, lazy, external, hierarchical and analytic
+ * threads - the number of scenarios planned at once, the number of processors by default
+ * timeout - the seconds a single plan may take before its search is interrupted, 60 by default
+ * out - the CSV file, "saves/benchmark.csv" by default
+ * cache - the entries of a heuristic cache for the searches, 0 (no cache) by default
+ * cacheKey - the abstraction the cache is keyed by, basic (default) or places
+ *
+ * The memory columns are the bytes the planning thread allocated and, when the runner uses
+ * a single thread, the peak heap use during the plan and the peak use of direct and mapped
+ * buffers above what was in use before it. The arena, external and lazy searches keep their
+ * nodes and closed sets in such buffers, off the heap. The JVM keeps no peak for buffers, so
+ * it is sampled every few milliseconds while the plan runs. With more threads both peaks are
+ * shared by every plan running at that time, so they are left out as -1.
+ *
+ * The status of a run is ok, depth for a plan cut off by the depth limit short of the goal,
+ * invalid for any other plan the PlanValidator rejects, none or timeout. Every plan is also
+ * cross checked, so the validator's copy of the rules of the actions cannot drift from the
+ * actions: a plan along which the two disagree has the status mismatch, and the difference
+ * is printed.
+ *
+ * Every plan is also run in the Midas simulator, which gives the game cycles it really
+ * takes and the cycles its peasants stand idle, or -1 for both if the plan fails there.
+ * The last column is the hit rate of the heuristic cache, or -1 without one.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class BenchmarkRunner {
+
+	//how often the use of direct and mapped buffers is sampled during a plan, in milliseconds
+	private static final long BUFFER_SAMPLE_MILLIS = 5;
+
+	private static final String HEADER = "scenario,mapSize,goldMines,trees,peasants,buildPeasants,gold,wood,"
+			+ "mode,status,millis,expanded,allocatedBytes,peakHeapBytes,peakOffHeapBytes,actions,makeSpan,simulatedCycles,idleCycles,"
+			+ "heuristicHitRate";
+
+	private final List<String> modes;
+
+	private final int threads;
+
+	private final long timeoutSeconds;
+
+	//where the external searches spill, one folder per run
+	private final File spillDir;
+
+	//the entries of the heuristic cache of every search, 0 for none
+	private int cacheEntries = 0;
+
+	private HeuristicCache.Abstraction cacheKey = HeuristicCache.BASIC;
+
+	/**
+	 * @param modes - the planners to run on every scenario
+	 * @param threads - the number of scenarios planned at once
+	 * @param timeoutSeconds - the seconds a single plan may take
+	 * @param spillDir - the folder the external searches spill to
+	 */
+	public BenchmarkRunner(List<String> modes, int threads, long timeoutSeconds, File spillDir) {
+		this.modes = modes;
+		this.threads = threads;
+		this.timeoutSeconds = timeoutSeconds;
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * @param entries - the entries of the heuristic cache of every search, 0 for none
+	 * @param abstraction - the abstraction the cache is keyed by
+	 */
+	public void setHeuristicCache(int entries, HeuristicCache.Abstraction abstraction) {
+		this.cacheEntries = entries;
+		this.cacheKey = abstraction;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String sweep = "quick";
+		long seed = 1;
+		int depots = 1;
+		List<String> modes = Arrays.asList("astar", "reduce", "arena", "hierarchical", "analytic");
+		int cache = 0;
+		String cacheKey = "basic";
+		int threads = Runtime.getRuntime().availableProcessors();
+		long timeout = 60;
+		File out = new File("saves", "benchmark.csv");
+
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			String key = split < 0 ? arg : arg.substring(0, split);
+			String value = split < 0 ? "" : arg.substring(split + 1);
+			if (key.equals("sweep")) {
+				sweep = value;
+			} else if (key.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else if (key.equals("depots")) {
+				depots = Math.max(1, Integer.parseInt(value));
+			} else if (key.equals("modes")) {
+				modes = Arrays.asList(value.split(","));
+			} else if (key.equals("threads")) {
+				threads = Math.max(1, Integer.parseInt(value));
+			} else if (key.equals("timeout")) {
+				timeout = Math.max(1, Long.parseLong(value));
+			} else if (key.equals("cache")) {
+				cache = Math.max(0, Integer.parseInt(value));
+			} else if (key.equals("cacheKey")) {
+				cacheKey = value;
+			} else if (key.equals("out")) {
+				out = new File(value);
+			} else {
+				System.err.println("Ignoring unknown benchmark argument: " + arg);
+			}
+		}
+
+		List<Scenario> scenarios = new ScenarioGenerator(seed, depots).sweep(sweep.equals("full"));
+		System.out.println("Running " + scenarios.size() + " scenarios with " + modes + " on "
+				+ threads + " threads");
+		BenchmarkRunner runner = new BenchmarkRunner(modes, threads, timeout, new File("saves", "benchmark"));
+		runner.setHeuristicCache(cache, HeuristicCache.abstraction(cacheKey));
+		List<String> lines = runner.run(scenarios);
+
+		if (out.getParentFile() != null) {
+			out.getParentFile().mkdirs();
+		}
+		try (PrintWriter writer = new PrintWriter(out, "UTF-8")) {
+			writer.println(HEADER);
+			for (String line : lines) {
+				writer.println(line);
+			}
+		}
+		System.out.println("Wrote " + lines.size() + " results to " + out);
+	}
+
+	/**
+	 * Plans every scenario with every mode.
+	 *
+	 * @param scenarios - the scenarios to plan
+	 * @return a CSV line per scenario and mode, in the order of the scenarios and modes
+	 * @throws InterruptedException if the runner is interrupted while waiting for the plans
+	 */
+	public List<String> run(List<Scenario> scenarios) throws InterruptedException {
+		//every run has a platform thread of its own for its timeout and memory counters
+		PlanningService service = new PlanningService(threads, spillDir, false);
+		ScheduledExecutorService alarms = Executors.newSingleThreadScheduledExecutor();
+		List<Future<String>> results = new ArrayList<>();
+		for (Scenario scenario : scenarios) {
+			for (String mode : modes) {
+				results.add(service.submit(scenario.getInitial(),
+						(table, runIndex) -> timed(scenario, mode, table, runIndex, alarms)));
+			}
+		}
+
+		List<String> lines = new ArrayList<>();
+		try {
+			for (Future<String> result : results) {
+				try {
+					String line = result.get();
+					System.out.println(line);
+					lines.add(line);
+				} catch (ExecutionException e) {
+					System.err.println("A benchmark run failed: " + e.getCause());
+				}
+			}
+		} finally {
+			service.close();
+			alarms.shutdownNow();
+		}
+		return lines;
+	}
+
+	/**
+	 * Runs one plan with an alarm that interrupts it once it takes longer than the timeout.
+	 */
+	private String timed(Scenario scenario, String mode, ActionTable table, int runIndex,
+			ScheduledExecutorService alarms) {
+		Thread worker = Thread.currentThread();
+		Object guard = new Object();
+		boolean[] finished = {false};
+		ScheduledFuture<?> alarm = alarms.schedule(() -> {
+			synchronized (guard) {
+				if (!finished[0]) {
+					worker.interrupt();
+				}
+			}
+		}, timeoutSeconds, TimeUnit.SECONDS);
+		try {
+			return runOne(scenario, mode, table, runIndex, alarms);
+		} finally {
+			alarm.cancel(false);
+			synchronized (guard) {
+				finished[0] = true;
+			}
+			//clear an interrupt that came in time, so it does not stop the next run
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Plans a scenario with one mode and measures it.
+	 *
+	 * @param table - the action table of the scenario's map, shared by all its runs
+	 * @param alarms - the scheduler to sample the use of buffers with
+	 * @return the CSV line of the run
+	 */
+	private String runOne(Scenario scenario, String mode, ActionTable table, int runIndex,
+			ScheduledExecutorService alarms) {
+		GameState initial = scenario.getInitial();
+		GameState goal = scenario.getGoal();
+
+		boolean measurePeak = threads == 1;
+		if (measurePeak) {
+			resetPeakHeap();
+		}
+		long buffersBefore = measurePeak ? bufferBytes() : 0;
+		AtomicLong buffersPeak = new AtomicLong(buffersBefore);
+		ScheduledFuture<?> sampler = !measurePeak ? null : alarms.scheduleAtFixedRate(
+				() -> buffersPeak.accumulateAndGet(bufferBytes(), Math::max),
+				0, BUFFER_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+
+		long expanded = 0;
+		Stack<GameState> plan;
+		HeuristicCache cache = cacheEntries > 0 ? new HeuristicCache(goal, cacheEntries, cacheKey) : null;
+		if (mode.equals("astar") || mode.equals("reduce")) {
+			SearchTrace counter = new SearchTrace(table);
+			SearchSettings settings = new SearchSettings(table);
+			settings.setTrace(counter);
+			settings.setReduce(mode.equals("reduce"));
+			settings.setCache(cache);
+			plan = PlannerAgent.AstarSearch(initial, goal, PlannerAgent.MAX_DEPTH, settings);
+			expanded = counter.getExpansions();
+		} else if (mode.equals("arena")) {
+			ArenaSearch search = new ArenaSearch(table);
+			search.setHeuristicCache(cache);
+			plan = search.search(initial, goal, PlannerAgent.MAX_DEPTH);
+			expanded = search.getExpanded();
+		} else if (mode.equals("lazy")) {
+			LazySearch search = new LazySearch(table);
+			search.setHeuristicCache(cache);
+			plan = search.search(initial, goal, PlannerAgent.MAX_DEPTH);
+			expanded = search.getExpanded();
+		} else if (mode.equals("external")) {
+			File dir = new File(spillDir, "external-" + runIndex);
+			ExternalSearch search = new ExternalSearch(table, dir, ExternalSearch.DEFAULT_BUFFER_ENTRIES);
+			search.setHeuristicCache(cache);
+			plan = search.search(initial, goal, PlannerAgent.MAX_DEPTH);
+			expanded = search.getExpanded();
+
+			//the search deletes its files, which leaves the folder empty
+			dir.delete();
+		} else if (mode.equals("hierarchical")) {
+			ResourceAllocator.Allocation allocation = new ResourceAllocator().allocate(initial, goal,
+					ResourceAllocator.peasantLimit(initial, scenario.isBuildPeasants()));
+			plan = allocation == null ? null : new PlanScheduler(table).schedule(initial, goal, allocation);
+		} else if (mode.equals("analytic")) {
+			AnalyticPlanner analytic = new AnalyticPlanner(scenario.isBuildPeasants(), table);
+			plan = analytic.covers(initial, goal) ? analytic.plan(initial, goal) : null;
+		} else {
+			throw new IllegalArgumentException("Unknown benchmark mode: " + mode);
+		}
+
+		long millis = (System.nanoTime() - start) / 1000000;
+		long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+		long peak = measurePeak ? peakHeap() : -1;
+		long offHeap = -1;
+		if (measurePeak) {
+			sampler.cancel(false);
+			offHeap = buffersPeak.accumulateAndGet(bufferBytes(), Math::max) - buffersBefore;
+		}
+		String status = plan != null ? "ok" : Thread.currentThread().isInterrupted() ? "timeout" : "none";
+		if (plan != null) {
+			PlanValidator.Result validation = new PlanValidator(initial, goal, table).validate(plan);
+			if (validation.isShortOfGoal() && plan.size() >= PlannerAgent.MAX_DEPTH) {
+				status = "depth";
+			} else if (!validation.isValid()) {
+				status = "invalid";
+			}
+			String difference = new PlanValidator(initial, goal, table).crossCheck(LoopPlan.codesOf(plan));
+			if (difference != null && !status.equals("invalid")) {
+				System.err.println(scenario.getName() + " " + mode + ": the validator and the actions disagree "
+						+ difference);
+				status = "mismatch";
+			}
+		}
+
+		long cycles = 0, idle = 0;
+		if (plan != null) {
+			MidasSimulator.Result simulated = new MidasSimulator(scenario.getInitial(), table, scenario.getMapSize(),
+					scenario.getMapSize(), scenario.getDepotX(), scenario.getDepotY()).run(plan);
+			cycles = simulated.isValid() ? simulated.getCycles() : -1;
+			idle = simulated.isValid() ? simulated.getTotalIdle() : -1;
+		}
+
+		return scenario.getName() + "," + scenario.getMapSize() + "," + scenario.getGoldMines() + ","
+				+ scenario.getTrees() + "," + scenario.getPeasants() + "," + scenario.isBuildPeasants() + ","
+				+ goal.gold + "," + goal.wood + "," + mode + "," + status + "," + millis + "," + expanded + ","
+				+ allocated + "," + peak + "," + offHeap + "," + (plan == null ? 0 : plan.size()) + ","
+				+ (plan == null ? 0 : PlannerAgent.getMakeSpan(plan, table)) + "," + cycles + "," + idle + ","
+				+ (cache == null || cache.getHits() + cache.getMisses() == 0 ? "-1"
+						: String.format("%.4f", cache.getHitRate()));
+	}
+
+	/**
+	 * @return the bytes the current thread allocated so far, or -1 if the JVM does not tell
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Collects the garbage of the runs before and starts the peak heap use over from what is left.
+	 */
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return the peak use of all heap memory pools since they were last reset
+	 */
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * @return the bytes of the direct and mapped buffers now in use
+	 */
+	private static long bufferBytes() {
+		long used = 0;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			used += pool.getMemoryUsed();
+		}
+		return used;
+	}
+}
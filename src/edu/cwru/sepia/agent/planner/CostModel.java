@@ -0,0 +1,193 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Template;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+/**
+ * The costs and capacities of the resource collection game that the actions, the
+ * heuristic and the planners work with.
+ *
+ * The planner was written for a unit model where a move costs one per cell of distance,
+ * every other action costs 1, a peasant carries 100 of a resource and a new peasant costs
+ * 400 gold. The real numbers are in the unit templates of the map, so a model can also be
+ * read from the Peasant template of a game: the durations are the cycles of every action
+ * and the gold and time cost are what a new peasant takes. The template view of SEPIA does
+ * not show the gather rates, so the cargo stays at the 100 of the Midas templates.
+ * Plans made with that model minimize game cycles rather than the unit make span.
+ *
+ * A model is immutable and shared by every state, action and planner of a game.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class CostModel {
+
+	//the steps the heuristic assumes a resource is from a depot, which with the harvest
+	//and deposit make the 60 units per trip of the unit model
+	private static final int ASSUMED_DISTANCE = 29;
+
+	//the classic unit model of the planner
+	public static final CostModel UNIT = new CostModel(100, 100, 1, 1, 1, 1, 400, 1);
+
+	//the Peasant template of the Midas maps, for games without a state view
+	public static final CostModel MIDAS = new CostModel(100, 100, 16, 200, 1000, 25, 400, 225);
+
+	private final int goldCapacity;
+
+	private final int woodCapacity;
+
+	private final int moveCycles;
+
+	private final int gatherGoldCycles;
+
+	private final int gatherWoodCycles;
+
+	private final int depositCycles;
+
+	private final int peasantGold;
+
+	private final int peasantCycles;
+
+	/**
+	 * @param goldCapacity - the gold a peasant carries from one harvest
+	 * @param woodCapacity - the wood a peasant carries from one harvest
+	 * @param moveCycles - the cycles a peasant takes to walk one cell
+	 * @param gatherGoldCycles - the cycles of harvesting gold
+	 * @param gatherWoodCycles - the cycles of harvesting wood
+	 * @param depositCycles - the cycles of depositing cargo
+	 * @param peasantGold - the gold a new peasant costs
+	 * @param peasantCycles - the cycles it takes to produce a peasant
+	 */
+	public CostModel(int goldCapacity, int woodCapacity, int moveCycles, int gatherGoldCycles,
+			int gatherWoodCycles, int depositCycles, int peasantGold, int peasantCycles) {
+		if (goldCapacity <= 0 || woodCapacity <= 0) {
+			throw new IllegalArgumentException("A peasant must carry something");
+		}
+		this.goldCapacity = goldCapacity;
+		this.woodCapacity = woodCapacity;
+		this.moveCycles = Math.max(1, moveCycles);
+		this.gatherGoldCycles = Math.max(1, gatherGoldCycles);
+		this.gatherWoodCycles = Math.max(1, gatherWoodCycles);
+		this.depositCycles = Math.max(1, depositCycles);
+		this.peasantGold = peasantGold;
+		this.peasantCycles = Math.max(1, peasantCycles);
+	}
+
+	/**
+	 * Reads the model from the Peasant template of a player.
+	 *
+	 * @param stateView - the view of the game at the start
+	 * @param playernum - the player whose templates to read
+	 * @return the model of the templates, or the unit model if the player has no Peasant template
+	 */
+	public static CostModel fromTemplates(State.StateView stateView, int playernum) {
+		Template.TemplateView template = stateView.getTemplate(playernum, "Peasant");
+		if (!(template instanceof UnitTemplate.UnitTemplateView)) {
+			System.err.println("No Peasant template to read costs from, using unit costs");
+			return UNIT;
+		}
+		UnitTemplate.UnitTemplateView peasant = (UnitTemplate.UnitTemplateView) template;
+		return new CostModel(UNIT.goldCapacity, UNIT.woodCapacity, peasant.getDurationMove(),
+				peasant.getDurationGatherGold(), peasant.getDurationGatherWood(), peasant.getDurationDeposit(),
+				peasant.getGoldCost(), peasant.getTimeCost());
+	}
+
+	/**
+	 * @param type - the type of a resource
+	 * @return the amount of it a peasant carries from one harvest
+	 */
+	public int getCapacity(ResourceNode.Type type) {
+		return ResourceNode.Type.GOLD_MINE.equals(type) ? goldCapacity : woodCapacity;
+	}
+
+	/**
+	 * @param type - the type of a resource
+	 * @return the cycles of harvesting it
+	 */
+	public int getGatherCycles(ResourceNode.Type type) {
+		return ResourceNode.Type.GOLD_MINE.equals(type) ? gatherGoldCycles : gatherWoodCycles;
+	}
+
+	/**
+	 * @param distance - a distance in cells
+	 * @return the cycles of walking it
+	 */
+	public int getMoveCycles(int distance) {
+		return distance * moveCycles;
+	}
+
+	/**
+	 * The estimate of one trip to a resource and back that the heuristic uses: a walk of
+	 * the assumed distance each way plus the harvest and the deposit.
+	 *
+	 * @param type - the type of the resource
+	 * @return the estimated cycles of the trip
+	 */
+	public int getTripEstimate(ResourceNode.Type type) {
+		return 2 * getMoveCycles(ASSUMED_DISTANCE) + getGatherCycles(type) + depositCycles;
+	}
+
+	/**
+	 * Makes a model whose cycles are scaled, e.g. to the durations observed in the game.
+	 * The capacities and the gold of a peasant stay the same.
+	 *
+	 * @param move - the scale of the move cycles
+	 * @param gather - the scale of the gather cycles
+	 * @param deposit - the scale of the deposit cycles
+	 * @param peasant - the scale of the cycles of producing a peasant
+	 * @return the scaled model, rounded down but at least 1 cycle each
+	 */
+	public CostModel scaled(double move, double gather, double deposit, double peasant) {
+		return new CostModel(goldCapacity, woodCapacity, (int) (moveCycles * move), (int) (gatherGoldCycles * gather),
+				(int) (gatherWoodCycles * gather), (int) (depositCycles * deposit), peasantGold,
+				(int) (peasantCycles * peasant));
+	}
+
+	public int getGoldCapacity() { return goldCapacity; }
+
+	public int getWoodCapacity() { return woodCapacity; }
+
+	public int getMoveCycles() { return moveCycles; }
+
+	public int getGatherGoldCycles() { return gatherGoldCycles; }
+
+	public int getGatherWoodCycles() { return gatherWoodCycles; }
+
+	public int getDepositCycles() { return depositCycles; }
+
+	public int getPeasantGold() { return peasantGold; }
+
+	public int getPeasantCycles() { return peasantCycles; }
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CostModel)) {
+			return false;
+		}
+		CostModel other = (CostModel) o;
+		return goldCapacity == other.goldCapacity && woodCapacity == other.woodCapacity
+				&& moveCycles == other.moveCycles && gatherGoldCycles == other.gatherGoldCycles
+				&& gatherWoodCycles == other.gatherWoodCycles && depositCycles == other.depositCycles
+				&& peasantGold == other.peasantGold && peasantCycles == other.peasantCycles;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = goldCapacity;
+		hash = 31 * hash + woodCapacity;
+		hash = 31 * hash + moveCycles;
+		hash = 31 * hash + gatherGoldCycles;
+		hash = 31 * hash + gatherWoodCycles;
+		hash = 31 * hash + depositCycles;
+		hash = 31 * hash + peasantGold;
+		return 31 * hash + peasantCycles;
+	}
+
+	@Override
+	public String toString() {
+		return "CostModel(cargo " + goldCapacity + "/" + woodCapacity + ", move " + moveCycles + ", gather "
+				+ gatherGoldCycles + "/" + gatherWoodCycles + ", deposit " + depositCycles + ", peasant "
+				+ peasantGold + " gold in " + peasantCycles + ")";
+	}
+}
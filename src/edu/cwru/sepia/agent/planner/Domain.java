@@ -0,0 +1,368 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.SchemaAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Template;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Actions and numeric fluents of a game declared in a text file instead of written as
+ * classes, loaded when planning starts. A domain adds its fluents to every game state
+ * and its actions to the ActionTable, and the planners, the plan validator, the simulator
+ * and the execution agent handle every SchemaAction the same way, so a new unit needs no
+ * code of its own.
+ *
+ * A domain file has one statement per line and # starts a comment:
+ *
+ * fluent name initial [goal value] declares a fluent. The initial value is a number or
+ * supply, the food the units of the player provide at the start of the game. A goal is
+ * the least value the fluent must have when the plan is done.
+ *
+ * action Name starts an action, which these statements describe up to end:
+ * unit Template, the unit the action makes in the game;
+ * by peasant or by townhall, who makes the unit, a peasant by default;
+ * cycles n, the game cycles the unit takes, which the unit's template overrides;
+ * duration n, the make span of the action with unit costs, 1 by default;
+ * require fluent op n, a condition with op one of &lt; &lt;= == != &gt;= &gt;;
+ * effect fluent op n, an effect with op one of += -= =.
+ *
+ * Every action and condition may use gold, wood, peasants and the declared fluents, and
+ * the effects any of them but the peasants.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class Domain {
+
+	//the initial value of a fluent that is the supply of the player
+	private static final int SUPPLY = Integer.MIN_VALUE;
+
+	//the goal of a fluent without one
+	public static final int NO_GOAL = Integer.MIN_VALUE;
+
+	private static final String[] CONDITION_OPERATORS = {"<", "<=", "==", "!=", ">=", ">"};
+
+	private static final String[] EFFECT_OPERATORS = {"+=", "=", "-="};
+
+	//the declared fluents with their initial values and goals
+	private final List<String> names;
+	private final int[] initials;
+	private final int[] goals;
+
+	private final List<SchemaAction> actions;
+
+	private Domain(List<String> names, int[] initials, int[] goals, List<SchemaAction> actions) {
+		this.names = names;
+		this.initials = initials;
+		this.goals = goals;
+		this.actions = actions;
+	}
+
+	/**
+	 * Reads a domain file.
+	 *
+	 * @param file - the file to read
+	 * @return the domain in the file
+	 * @throws IOException if the file cannot be read or has a mistake, which the message names with its line
+	 */
+	public static Domain load(File file) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				lines.add(line);
+			}
+		}
+		return parse(lines, file.getName());
+	}
+
+	/**
+	 * Parses the lines of a domain file.
+	 *
+	 * @param lines - the lines of the file
+	 * @param source - the name of the file for the messages
+	 * @return the domain
+	 * @throws IOException if a line has a mistake
+	 */
+	public static Domain parse(List<String> lines, String source) throws IOException {
+		List<String> names = new ArrayList<>();
+		List<Integer> initials = new ArrayList<>();
+		List<Integer> goals = new ArrayList<>();
+		List<SchemaAction> actions = new ArrayList<>();
+
+		//the action being read
+		String action = null, unit = null;
+		boolean built = true;
+		int cycles = 1, duration = 1;
+		List<int[]> conditions = new ArrayList<>(), effects = new ArrayList<>();
+
+		for (int n = 0; n < lines.size(); n++) {
+			String line = lines.get(n);
+			int comment = line.indexOf('#');
+			String[] words = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			String where = source + ":" + (n + 1) + ": ";
+			try {
+				if (action == null) {
+					if (words[0].equals("fluent") && (words.length == 3 || words.length == 5 && words[3].equals("goal"))) {
+						if (names.contains(words[1]) || fluentOf(words[1], Collections.<String>emptyList()) >= 0) {
+							throw new IOException("the fluent " + words[1] + " already exists");
+						}
+						names.add(words[1]);
+						initials.add(words[2].equals("supply") ? SUPPLY : Integer.parseInt(words[2]));
+						goals.add(words.length == 5 ? Integer.parseInt(words[4]) : NO_GOAL);
+					} else if (words[0].equals("action") && words.length == 2) {
+						action = words[1];
+						unit = null;
+						built = true;
+						cycles = 1;
+						duration = 1;
+						conditions.clear();
+						effects.clear();
+					} else {
+						throw new IOException("expected a fluent or an action");
+					}
+				} else if (words[0].equals("end") && words.length == 1) {
+					actions.add(new SchemaAction(actions.size(), action, unit, built,
+							conditions.toArray(new int[conditions.size()][]),
+							effects.toArray(new int[effects.size()][]), cycles, duration));
+					action = null;
+				} else if (words[0].equals("unit") && words.length == 2) {
+					unit = words[1];
+				} else if (words[0].equals("by") && words.length == 2
+						&& (words[1].equals("peasant") || words[1].equals("townhall"))) {
+					built = words[1].equals("peasant");
+				} else if (words[0].equals("cycles") && words.length == 2) {
+					cycles = Math.max(1, Integer.parseInt(words[1]));
+				} else if (words[0].equals("duration") && words.length == 2) {
+					duration = Math.max(1, Integer.parseInt(words[1]));
+				} else if (words[0].equals("require") && words.length == 4) {
+					int operator = indexOf(CONDITION_OPERATORS, words[2]);
+					if (operator < 0) {
+						throw new IOException("unknown condition " + words[2]);
+					}
+					conditions.add(new int[] {fluent(words[1], names), operator, Integer.parseInt(words[3])});
+				} else if (words[0].equals("effect") && words.length == 4) {
+					int operator = indexOf(EFFECT_OPERATORS, words[2]);
+					if (operator < 0) {
+						throw new IOException("unknown effect " + words[2]);
+					}
+					int value = Integer.parseInt(words[3]);
+					effects.add(new int[] {fluent(words[1], names),
+							operator == 1 ? SchemaAction.SET : SchemaAction.ADD, operator == 2 ? -value : value});
+				} else {
+					throw new IOException("expected unit, by, cycles, duration, require, effect or end");
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException(where + "not a number: " + e.getMessage());
+			} catch (IOException | IllegalArgumentException e) {
+				throw new IOException(where + e.getMessage());
+			}
+		}
+		if (action != null) {
+			throw new IOException(source + ": the action " + action + " has no end");
+		}
+		return new Domain(names, toArray(initials), toArray(goals), actions);
+	}
+
+	private static int indexOf(String[] words, String word) {
+		for (int i = 0; i < words.length; i++) {
+			if (words[i].equals(word)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of a fluent by its name, or -1 if there is no such fluent
+	 */
+	private static int fluentOf(String name, List<String> names) {
+		switch (name) {
+		case "gold": return SchemaAction.GOLD;
+		case "wood": return SchemaAction.WOOD;
+		case "peasants": return SchemaAction.PEASANTS;
+		default:
+			int declared = names.indexOf(name);
+			return declared < 0 ? -1 : SchemaAction.FIRST_DECLARED + declared;
+		}
+	}
+
+	private static int fluent(String name, List<String> names) throws IOException {
+		int fluent = fluentOf(name, names);
+		if (fluent < 0) {
+			throw new IOException("unknown fluent " + name);
+		}
+		return fluent;
+	}
+
+	private static int[] toArray(List<Integer> values) {
+		int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Binds the domain to a game: fluents that start at the supply get the food the units
+	 * of the player provide, actions that make a unit with a template in the game take the
+	 * template's time in cycles, and with template costs the make span of an action is its
+	 * cycles rather than its duration.
+	 *
+	 * @param stateView - the view of the game at the start
+	 * @param playernum - the player who plans
+	 * @param templateCosts - whether the planner plans with the durations of the templates
+	 * @return the domain for the game
+	 */
+	public Domain bind(State.StateView stateView, int playernum, boolean templateCosts) {
+		int[] bound = initials.clone();
+		for (int i = 0; i < bound.length; i++) {
+			if (bound[i] == SUPPLY) {
+				Integer supply = stateView.getSupplyCap(playernum);
+				bound[i] = supply == null ? 0 : supply;
+			}
+		}
+		List<SchemaAction> timed = new ArrayList<>();
+		for (SchemaAction action : actions) {
+			int cycles = action.getCycles();
+			Template.TemplateView template = action.getUnit() == null ? null
+					: stateView.getTemplate(playernum, action.getUnit());
+			if (template != null) {
+				cycles = template.getTimeCost();
+			} else if (action.getUnit() != null) {
+				System.err.println("No template of " + action.getUnit() + " for " + action.getName());
+			}
+			SchemaAction retimed = action.withCycles(cycles);
+			timed.add(templateCosts ? (SchemaAction) retimed.withMakeSpan(cycles) : retimed);
+		}
+		return new Domain(names, bound, goals, timed);
+	}
+
+	/**
+	 * Gives the initial state the fluents of the domain and the goal their goals.
+	 *
+	 * @param initial - the initial state of the game
+	 * @param goal - the goal of the game
+	 */
+	public void setUp(GameState initial, GameState goal) {
+		for (int value : initials) {
+			if (value == SUPPLY) {
+				throw new IllegalStateException("The domain must be bound to a game to know the supply");
+			}
+		}
+		initial.fluents = initials.clone();
+		initial.setDomain(this);
+		goal.fluents = goals.clone();
+		goal.setDomain(this);
+	}
+
+	/**
+	 * Estimates the cost of the actions still needed to bring every fluent up to its goal:
+	 * for each fluent short of its goal, the action that adds the most to it is repeated
+	 * until it is there, costing the action's make span plus the trips for its gold and wood.
+	 * The game heuristic takes off all the wood there is, so wood past what the goal and
+	 * those actions still need is given back, or the search would keep cutting trees.
+	 *
+	 * @param state - the state to estimate from
+	 * @param goal - the goal of the game
+	 * @return the estimated cost
+	 */
+	public int estimate(GameState state, GameState goal) {
+		int estimate = 0;
+		int wood = 0;
+		CostModel costs = state.getCosts();
+		for (int i = 0; i < goal.fluents.length; i++) {
+			int missing = goal.fluents[i] == NO_GOAL ? 0 : goal.fluents[i] - state.fluents[i];
+			if (missing <= 0) {
+				continue;
+			}
+			SchemaAction best = null;
+			for (SchemaAction action : actions) {
+				int change = action.getChange(SchemaAction.FIRST_DECLARED + i);
+				if (change > 0 && (best == null || change > best.getChange(SchemaAction.FIRST_DECLARED + i))) {
+					best = action;
+				}
+			}
+			if (best == null) {
+				continue;
+			}
+			int repeats = (missing + best.getChange(SchemaAction.FIRST_DECLARED + i) - 1)
+					/ best.getChange(SchemaAction.FIRST_DECLARED + i);
+			int peasants = Math.max(1, state.peasants.size());
+			estimate += repeats * (best.getMakeSpan()
+					+ best.getGoldCost() / (costs.getGoldCapacity() * peasants)
+							* costs.getTripEstimate(ResourceNode.Type.GOLD_MINE)
+					+ best.getWoodCost() / (costs.getWoodCapacity() * peasants)
+							* costs.getTripEstimate(ResourceNode.Type.TREE));
+			wood += repeats * best.getWoodCost();
+		}
+		return estimate + Math.max(0, state.wood - goal.wood - wood);
+	}
+
+	/**
+	 * @param name - the name of a fluent
+	 * @return the number of the fluent, or -1 if there is no such fluent
+	 */
+	public int fluent(String name) {
+		return fluentOf(name, names);
+	}
+
+	/**
+	 * @param fluent - the number of a fluent
+	 * @return the name of the fluent
+	 */
+	public String getName(int fluent) {
+		switch (fluent) {
+		case SchemaAction.GOLD: return "gold";
+		case SchemaAction.WOOD: return "wood";
+		case SchemaAction.PEASANTS: return "peasants";
+		default: return names.get(fluent - SchemaAction.FIRST_DECLARED);
+		}
+	}
+
+	/**
+	 * @return the number of fluents the domain declares
+	 */
+	public int getDeclaredCount() {
+		return names.size();
+	}
+
+	/**
+	 * @return the actions of the domain, in the order of the file
+	 */
+	public List<SchemaAction> getActions() {
+		return Collections.unmodifiableList(actions);
+	}
+
+	/**
+	 * @return whether any fluent has a goal
+	 */
+	public boolean hasGoals() {
+		for (int goal : goals) {
+			if (goal != NO_GOAL) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder("Domain(");
+		for (int i = 0; i < names.size(); i++) {
+			text.append(names.get(i)).append(' ').append(initials[i] == SUPPLY ? "supply" : initials[i])
+					.append(goals[i] == NO_GOAL ? "" : " goal " + goals[i]).append(", ");
+		}
+		text.append("actions ").append(actions).append(")");
+		return text.toString();
+	}
+}
@@ -0,0 +1,189 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prunes search states that are no better than a state the search has already generated.
+ *
+ * A state dominates another if it has at least as much gold and wood, the same amounts
+ * left at every resource, at least as many peasants at every place with every kind of
+ * cargo, and cost no more to reach. Anything the dominated state can still do, the
+ * dominating state can do as well for no more cost, so the dominated state need not
+ * be searched.
+ *
+ * States are indexed by their resource amounts and the fluents of a domain, so a check
+ * only looks at states with the same amounts left and the same fluents. Within each of those buckets only the states not dominated by
+ * another state of the bucket are kept, which is a small set in practice.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class DominanceIndex {
+
+	//the kinds of cargo a peasant can carry, for counting peasants by place and cargo
+	private static final int CARGO_KINDS = 3;
+
+	//the index of every resource by its id, in the order of the states of the search
+	private final Map<Integer, Integer> indexes = new HashMap<>();
+
+	//the number of depots, which are places of their own
+	private final int depots;
+
+	private final Map<ResourceKey, List<Entry>> buckets = new HashMap<>();
+
+	private long pruned = 0;
+
+	/**
+	 * @param initial - the initial state of the search, whose resources every state has
+	 */
+	public DominanceIndex(GameState initial) {
+		for (int i = 0; i < initial.resources.size(); i++) {
+			indexes.put(initial.resources.get(i).getId(), i);
+		}
+		depots = initial.resources.isEmpty() ? 1 : initial.resources.get(0).getDepotCount();
+	}
+
+	/**
+	 * Determines if the given state is dominated by a state in the index, without
+	 * changing the index.
+	 *
+	 * @param state - the state the search generated
+	 * @param cost - the cost of reaching the state
+	 * @return true if the state is dominated and should not be searched
+	 */
+	public boolean isDominated(GameState state, int cost) {
+		List<Entry> bucket = buckets.get(new ResourceKey(state));
+		if (bucket == null) {
+			return false;
+		}
+		Entry entry = new Entry(state.gold, state.wood, cost, countPeasants(state));
+		for (Entry other : bucket) {
+			if (other.dominates(entry)) {
+				pruned++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a state the search is going to search to the index, removing any state it
+	 * dominates. Only states that were put on the open list may be added, since an entry
+	 * prunes every later state it dominates.
+	 *
+	 * @param state - the state the search queued
+	 * @param cost - the cost of reaching the state
+	 */
+	public void add(GameState state, int cost) {
+		ResourceKey key = new ResourceKey(state);
+		List<Entry> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<>();
+			buckets.put(key, bucket);
+		}
+		Entry entry = new Entry(state.gold, state.wood, cost, countPeasants(state));
+
+		//the new state replaces the states it dominates
+		Iterator<Entry> it = bucket.iterator();
+		while (it.hasNext()) {
+			if (entry.dominates(it.next())) {
+				it.remove();
+			}
+		}
+		bucket.add(entry);
+	}
+
+	/**
+	 * @return the number of states pruned so far
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+
+	/**
+	 * Counts the peasants at every place, a depot or a resource, with every kind of cargo.
+	 */
+	private int[] countPeasants(GameState state) {
+		int[] counts = new int[(indexes.size() + depots) * CARGO_KINDS];
+		for (Peasant peasant : state.peasants) {
+			int place = peasant.getDepot();
+			if (peasant.getAdjacentResource() != null) {
+				place = indexes.get(peasant.getAdjacentResource().getId()) + depots;
+			}
+			int cargo = 0;
+			if (peasant.getCargoAmount() > 0) {
+				cargo = ResourceNode.Type.GOLD_MINE.equals(peasant.getCargo()) ? 1 : 2;
+			}
+			counts[place * CARGO_KINDS + cargo]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * A state in the index.
+	 */
+	private static class Entry {
+
+		final int gold;
+		final int wood;
+		final int cost;
+		final int[] peasants;
+
+		Entry(int gold, int wood, int cost, int[] peasants) {
+			this.gold = gold;
+			this.wood = wood;
+			this.cost = cost;
+			this.peasants = peasants;
+		}
+
+		boolean dominates(Entry other) {
+			if (gold < other.gold || wood < other.wood || cost > other.cost) {
+				return false;
+			}
+			for (int i = 0; i < peasants.length; i++) {
+				if (peasants[i] < other.peasants[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The amounts left at every resource and the fluents, the key of a bucket.
+	 */
+	private static class ResourceKey {
+
+		private final int[] amounts;
+
+		private final int hash;
+
+		ResourceKey(GameState state) {
+			int fluents = state.fluents == null ? 0 : state.fluents.length;
+			amounts = new int[state.resources.size() + fluents];
+			for (int i = 0; i < state.resources.size(); i++) {
+				amounts[i] = state.resources.get(i).getAmount();
+			}
+			for (int i = 0; i < fluents; i++) {
+				amounts[state.resources.size() + i] = state.fluents[i];
+			}
+			hash = Arrays.hashCode(amounts);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof ResourceKey && Arrays.equals(amounts, ((ResourceKey) o).amounts);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
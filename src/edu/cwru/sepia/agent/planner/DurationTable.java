@@ -0,0 +1,164 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The game cycles every grounded action really took when the plan execution agent
+ * executed it, kept across episodes so the planner can plan with them.
+ *
+ * Durations are keyed by the key of the action in the ActionTable, which is made of the
+ * kind of the action, its peasant count, its resource and its depot, so they stay valid for
+ * every table grounded on the same map. Each key keeps the mean of its latest samples: once
+ * a key has MAX_SAMPLES samples, the oldest weigh less with every new one, so a duration
+ * follows the game when congestion changes. A table belongs to one map, and recording on a
+ * different map starts it over.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class DurationTable {
+
+	private static final int MAGIC = 0x44555231;
+
+	//the number of samples a mean is taken over before old samples start to fade
+	private static final int MAX_SAMPLES = 8;
+
+	//the signature of the map the durations were observed on
+	private long map = 0;
+
+	//the sum and number of samples of every action key
+	private final Map<Long, long[]> samples = new HashMap<>();
+
+	//the number of samples recorded since the table was made or read
+	private int recorded = 0;
+
+	/**
+	 * Starts using the table on the map of the given state, forgetting the durations
+	 * observed on any other map.
+	 *
+	 * @param initial - the initial state of the game
+	 */
+	public void begin(GameState initial) {
+		long signature = mapOf(initial);
+		if (signature != map) {
+			samples.clear();
+			map = signature;
+		}
+	}
+
+	/**
+	 * Records how long an action took.
+	 *
+	 * @param key - the key of the action in the action table
+	 * @param cycles - the game cycles from issuing the action to seeing it done
+	 */
+	public void record(long key, int cycles) {
+		if (cycles <= 0) {
+			return;
+		}
+		long[] sample = samples.get(key);
+		if (sample == null) {
+			sample = new long[2];
+			samples.put(key, sample);
+		}
+		if (sample[1] == MAX_SAMPLES) {
+			sample[0] -= sample[0] / MAX_SAMPLES;
+			sample[1]--;
+		}
+		sample[0] += cycles;
+		sample[1]++;
+		recorded++;
+	}
+
+	/**
+	 * @param key - the key of an action in the action table
+	 * @return the mean duration observed for the action, or -1 if it was never observed
+	 */
+	public int get(long key) {
+		long[] sample = samples.get(key);
+		if (sample == null) {
+			return -1;
+		}
+		return (int) ((sample[0] + sample[1] / 2) / sample[1]);
+	}
+
+	/**
+	 * @return the number of actions with an observed duration
+	 */
+	public int size() {
+		return samples.size();
+	}
+
+	/**
+	 * @return the number of samples recorded since the table was made or read
+	 */
+	public int getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * Writes the table to a stream.
+	 *
+	 * @param out - the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeLong(map);
+		data.writeInt(samples.size());
+		for (Map.Entry<Long, long[]> entry : samples.entrySet()) {
+			data.writeLong(entry.getKey());
+			data.writeLong(entry.getValue()[0]);
+			data.writeInt((int) entry.getValue()[1]);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads a table written by write, replacing the durations in this one.
+	 *
+	 * @param in - the stream to read from
+	 * @throws IOException if the stream cannot be read or does not hold a table
+	 */
+	public void read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a duration table");
+		}
+		samples.clear();
+		map = data.readLong();
+		int size = data.readInt();
+		for (int i = 0; i < size; i++) {
+			long key = data.readLong();
+			long total = data.readLong();
+			int count = data.readInt();
+			if (count <= 0 || count > MAX_SAMPLES) {
+				throw new IOException("Bad sample count " + count);
+			}
+			samples.put(key, new long[] {total, count});
+		}
+		recorded = 0;
+	}
+
+	/**
+	 * Hashes the resources of the initial state and their distances to the depots into
+	 * the signature of a map.
+	 */
+	static long mapOf(GameState initial) {
+		long hash = PackedStateSet.LOW_SEED;
+		for (Resource resource : initial.resources) {
+			hash = PackedStateSet.mix(hash, ((long) resource.getId() << 32) | resource.getDepotCount());
+			hash = PackedStateSet.mix(hash, ((long) resource.getX() << 32) | (resource.getY() & 0xFFFFFFFFL));
+			for (int d = 0; d < resource.getDepotCount(); d++) {
+				hash = PackedStateSet.mix(hash, resource.getDistance(d));
+			}
+		}
+		return PackedStateSet.finish(hash);
+	}
+}
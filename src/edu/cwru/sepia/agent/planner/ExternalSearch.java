@@ -0,0 +1,450 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
+
+/**
+ * An external memory A* search for goals whose search does not fit in memory.
+ *
+ * The nodes are kept in a node arena mapped from a file. The open list is split into
+ * layers by total cost and every layer is a spill file, so a layer that outgrows its
+ * buffer goes to disk. Duplicates are not detected when a child is generated but when its
+ * layer is expanded: the layer is sorted by state fingerprint in runs that fit in memory,
+ * the runs are merged, and the merged sequence is scanned side by side with the sorted
+ * runs of the closed set. Of all the copies of a state in a layer only the cheapest one is
+ * expanded, and a state found in a closed run is dropped. The states expanded from a layer
+ * form a new sorted closed run. Whenever the newest closed run is at least half as large as
+ * the one before it the two are merged, so there are only logarithmically many closed runs
+ * and every closed state is rewritten only logarithmically often. Every one of these passes reads its files from start to end, so the disk is only
+ * ever read sequentially apart from the node arena.
+ *
+ * Layers are expanded lowest total cost first. The heuristic of the game state may lower
+ * the total cost of a child below that of its parent, in which case the child simply goes
+ * to a lower layer that is expanded next.
+ *
+ * All files go to the given folder and are deleted when the search is over.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class ExternalSearch {
+
+	//the default number of entries of a layer or run kept in memory
+	public static final int DEFAULT_BUFFER_ENTRIES = 1 << 20;
+
+	//the number of nodes in a mapped page of the node arena
+	private static final int NODE_PAGE_RECORDS = 1 << 16;
+
+	//the longs in an open entry (fingerprint high, fingerprint low, cost and node)
+	//and in a closed entry (fingerprint high, fingerprint low). The cost has a long
+	//of its own, so no cost or node index is too large for its entry
+	private static final int OPEN_WIDTH = 4;
+	private static final int CLOSED_WIDTH = 2;
+
+	private final ActionTable table;
+
+	private final File dir;
+
+	private final int bufferEntries;
+
+	//the number of file names handed out and of files that were actually written
+	private int files = 0;
+	private int spillFiles = 0;
+
+	private long expanded = 0;
+
+	private long generated = 0;
+
+	private long spilled = 0;
+
+	//the heuristic values of the goal, or null to work them out every time
+	private HeuristicCache cache = null;
+
+	/**
+	 * @param table - every grounded action of the game
+	 * @param dir - the folder to write the search files to
+	 * @param bufferEntries - the number of entries of a layer or run kept in memory
+	 */
+	public ExternalSearch(ActionTable table, File dir, int bufferEntries) {
+		this.table = table;
+		this.dir = dir;
+		this.bufferEntries = bufferEntries;
+	}
+
+	/**
+	 * @param cache - the cache of the heuristic values for the goal, or null to work out every one
+	 */
+	public void setHeuristicCache(HeuristicCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Searches for the least make span plan from the initial state to the goal.
+	 *
+	 * @param initial - the state to initialize search on
+	 * @param goal - the goal state with the required amount of gold and wood
+	 * @param maxDepth - the maximum depth to in the game state generation tree
+	 * @return the plan with the first action on top, or null if there is none or the
+	 *         thread was interrupted
+	 */
+	public Stack<GameState> search(GameState initial, GameState goal, int maxDepth) {
+		dir.mkdirs();
+		files = 0;
+		spillFiles = 0;
+		expanded = 0;
+		generated = 0;
+		spilled = 0;
+
+		StateCodec codec = new StateCodec(initial,
+				Math.max(table.getMaxPeasants(), initial.getPeasantCount()));
+		NodeArena arena = new NodeArena(codec.getWords(), NODE_PAGE_RECORDS, newFile("nodes"));
+		TreeMap<Integer, SpillFile> layers = new TreeMap<>();
+		List<SpillFile> closed = new ArrayList<>();
+		long[] words = new long[codec.getWords()];
+		long[] entry = new long[OPEN_WIDTH];
+
+		short[] actions = table.baseCodes(goal.peasants.size());
+
+		codec.encode(initial, words);
+		int rootCost = estimate(initial, goal);
+		addToLayer(layers, rootCost, words, 0,
+				arena.add(words, 0, rootCost, NodeArena.NO_PARENT, ActionTable.NONE, 0), entry);
+		generated = 1;
+
+		try {
+			while (!layers.isEmpty()) {
+				//give up when the thread planning is interrupted
+				if (Thread.currentThread().isInterrupted()) {
+					return null;
+				}
+				Map.Entry<Integer, SpillFile> layer = layers.pollFirstEntry();
+				List<SpillFile> runs = sortRuns(layer.getValue());
+				SpillFile expandedRun = new SpillFile(newFile("closed"), CLOSED_WIDTH, bufferEntries);
+
+				RunMerge open = new RunMerge(runs, OPEN_WIDTH);
+				RunMerge seen = new RunMerge(closed, CLOSED_WIDTH);
+				long best = NodeArena.NO_PARENT;
+				boolean first = true;
+				long lastHigh = 0;
+				long lastLow = 0;
+
+				while (open.next(entry)) {
+					//only the cheapest copy of a state in the layer is expanded,
+					//and none if the state was expanded before
+					if (!first && entry[0] == lastHigh && entry[1] == lastLow) {
+						continue;
+					}
+					first = false;
+					lastHigh = entry[0];
+					lastLow = entry[1];
+					if (seen.contains(entry[0], entry[1])) {
+						continue;
+					}
+					expandedRun.add(entry, 0);
+
+					long node = entry[3];
+					arena.readState(node, words);
+					GameState current = codec.decode(words);
+					int depth = arena.getDepth(node);
+
+					//Keep the cheapest goal of the layer, which is the plan
+					if (current.isGoal(goal) || depth >= maxDepth) {
+						if (best == NodeArena.NO_PARENT || arena.getG(node) < arena.getG(best)) {
+							best = node;
+						}
+						continue;
+					}
+
+					//Remove actions that are no longer useful to the state space search
+					if (current.peasants.size() >= goal.peasants.size() && actions.length != 5 * current.peasants.size()) {
+						actions = table.withoutCostlyCodes(actions, current.peasants.size());
+					}
+
+					expanded++;
+					int g = arena.getG(node);
+					for (GameState neighbor : current.generateChildren(goal, table, actions)) {
+						codec.encode(neighbor, words);
+						short code = neighbor.getParentActionCode();
+						int cost = g + table.get(code).getMakeSpan();
+						int total = cost + estimate(neighbor, goal);
+						addToLayer(layers, total, words, cost,
+								arena.add(words, cost, total, node, code, depth + 1), entry);
+						generated++;
+					}
+				}
+
+				open.delete();
+				closed.add(expandedRun);
+				mergeClosed(closed);
+
+				if (best != NodeArena.NO_PARENT) {
+					return ArenaSearch.buildPath(arena, codec, best);
+				}
+			}
+
+			System.err.print("No available path");
+			return null;
+		} finally {
+			for (SpillFile layer : layers.values()) {
+				delete(layer);
+			}
+			for (SpillFile run : closed) {
+				delete(run);
+			}
+			arena.release();
+		}
+	}
+
+	/**
+	 * Adds a node to the layer of its total cost, creating the layer if needed.
+	 */
+	private void addToLayer(TreeMap<Integer, SpillFile> layers, int total, long[] words, int cost, long node,
+			long[] entry) {
+		SpillFile layer = layers.get(total);
+		if (layer == null) {
+			layer = new SpillFile(newFile("layer"), OPEN_WIDTH, bufferEntries);
+			layers.put(total, layer);
+		}
+		entry[0] = PackedStateSet.high(words);
+		entry[1] = PackedStateSet.low(words);
+		entry[2] = cost;
+		entry[3] = node;
+		layer.add(entry, 0);
+	}
+
+	/**
+	 * Reads a layer in blocks that fit in memory and writes every block sorted as a run.
+	 * The layer is deleted afterwards.
+	 */
+	private List<SpillFile> sortRuns(SpillFile layer) {
+		List<SpillFile> runs = new ArrayList<>();
+		int blockEntries = (int) Math.min(layer.size(), bufferEntries);
+		long[] block = new long[blockEntries * OPEN_WIDTH];
+		int count = 0;
+		layer.rewind();
+		while (true) {
+			boolean more = layer.next(block, count * OPEN_WIDTH);
+			if (more) {
+				count++;
+			}
+			if (count > 0 && (!more || count == blockEntries)) {
+				sort(block, 0, count - 1);
+				SpillFile run = new SpillFile(newFile("run"), OPEN_WIDTH, bufferEntries);
+				for (int i = 0; i < count; i++) {
+					run.add(block, i * OPEN_WIDTH);
+				}
+				runs.add(run);
+				count = 0;
+			}
+			if (!more) {
+				break;
+			}
+		}
+		delete(layer);
+		return runs;
+	}
+
+	/**
+	 * Merges the newest closed runs while the newest is at least half as large as the one before.
+	 */
+	private void mergeClosed(List<SpillFile> closed) {
+		long[] entry = new long[CLOSED_WIDTH];
+		while (closed.size() > 1
+				&& closed.get(closed.size() - 1).size() * 2 >= closed.get(closed.size() - 2).size()) {
+			List<SpillFile> pair = new ArrayList<>(closed.subList(closed.size() - 2, closed.size()));
+			SpillFile merged = new SpillFile(newFile("closed"), CLOSED_WIDTH, bufferEntries);
+			RunMerge runs = new RunMerge(pair, CLOSED_WIDTH);
+			while (runs.next(entry)) {
+				merged.add(entry, 0);
+			}
+			runs.delete();
+			closed.remove(closed.size() - 1);
+			closed.set(closed.size() - 1, merged);
+		}
+	}
+
+	/**
+	 * Sorts the open entries between the given entry indices by fingerprint, then cost and
+	 * then node.
+	 */
+	private static void sort(long[] a, int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			long pivotHigh = a[mid * OPEN_WIDTH];
+			long pivotLow = a[mid * OPEN_WIDTH + 1];
+			long pivotCost = a[mid * OPEN_WIDTH + 2];
+			long pivotNode = a[mid * OPEN_WIDTH + 3];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (compare(a, i, pivotHigh, pivotLow, pivotCost, pivotNode) < 0) {
+					i++;
+				}
+				while (compare(a, j, pivotHigh, pivotLow, pivotCost, pivotNode) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(a, i++, j--);
+				}
+			}
+			//recurse into the smaller part so the stack stays shallow
+			if (j - lo < hi - i) {
+				sort(a, lo, j);
+				lo = i;
+			} else {
+				sort(a, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	private static int compare(long[] a, int i, long high, long low, long cost, long node) {
+		int c = Long.compare(a[i * OPEN_WIDTH], high);
+		if (c == 0) {
+			c = Long.compare(a[i * OPEN_WIDTH + 1], low);
+		}
+		if (c == 0) {
+			c = Long.compare(a[i * OPEN_WIDTH + 2], cost);
+		}
+		if (c == 0) {
+			c = Long.compare(a[i * OPEN_WIDTH + 3], node);
+		}
+		return c;
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		for (int k = 0; k < OPEN_WIDTH; k++) {
+			long t = a[i * OPEN_WIDTH + k];
+			a[i * OPEN_WIDTH + k] = a[j * OPEN_WIDTH + k];
+			a[j * OPEN_WIDTH + k] = t;
+		}
+	}
+
+	private File newFile(String kind) {
+		return new File(dir, kind + "-" + (files++) + ".bin");
+	}
+
+	private void delete(SpillFile file) {
+		if (file.getSpilled() > 0) {
+			spilled += file.getSpilled();
+			spillFiles++;
+		}
+		file.delete();
+	}
+
+	/**
+	 * @return the heuristic of the state, from the cache if there is one
+	 */
+	private int estimate(GameState state, GameState goal) {
+		return cache == null ? state.heuristic(goal) : cache.estimate(state, goal);
+	}
+
+	/**
+	 * @return the number of states expanded by the last search
+	 */
+	public long getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @return the number of nodes stored by the last search
+	 */
+	public long getGenerated() {
+		return generated;
+	}
+
+	/**
+	 * @return the number of layer and run entries the last search wrote to disk
+	 */
+	public long getSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * @return the number of layers and runs the last search wrote to disk
+	 */
+	public int getSpillFiles() {
+		return spillFiles;
+	}
+
+	/**
+	 * A merge of sorted runs, read in order of their entries.
+	 */
+	private class RunMerge {
+
+		private final List<SpillFile> runs;
+
+		private final int width;
+
+		//the next entry of every run and whether the run has one
+		private final long[][] heads;
+		private final boolean[] hasHead;
+
+		RunMerge(List<SpillFile> runs, int width) {
+			this.runs = runs;
+			this.width = width;
+			heads = new long[runs.size()][width];
+			hasHead = new boolean[runs.size()];
+			for (int i = 0; i < runs.size(); i++) {
+				runs.get(i).rewind();
+				hasHead[i] = runs.get(i).next(heads[i], 0);
+			}
+		}
+
+		/**
+		 * Reads the least entry of all runs.
+		 *
+		 * @return false if every run was read
+		 */
+		boolean next(long[] dst) {
+			int least = -1;
+			for (int i = 0; i < heads.length; i++) {
+				if (hasHead[i] && (least < 0 || less(heads[i], heads[least]))) {
+					least = i;
+				}
+			}
+			if (least < 0) {
+				return false;
+			}
+			System.arraycopy(heads[least], 0, dst, 0, width);
+			hasHead[least] = runs.get(least).next(heads[least], 0);
+			return true;
+		}
+
+		/**
+		 * Determines if the runs hold the given fingerprint. The fingerprints asked for
+		 * must not decrease, since the runs are only read forward.
+		 */
+		boolean contains(long high, long low) {
+			for (int i = 0; i < heads.length; i++) {
+				while (hasHead[i] && (heads[i][0] < high || (heads[i][0] == high && heads[i][1] < low))) {
+					hasHead[i] = runs.get(i).next(heads[i], 0);
+				}
+				if (hasHead[i] && heads[i][0] == high && heads[i][1] == low) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void delete() {
+			for (SpillFile run : runs) {
+				ExternalSearch.this.delete(run);
+			}
+		}
+
+		private boolean less(long[] a, long[] b) {
+			for (int k = 0; k < width; k++) {
+				if (a[k] != b[k]) {
+					return a[k] < b[k];
+				}
+			}
+			return false;
+		}
+	}
+}
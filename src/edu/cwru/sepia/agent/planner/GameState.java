@@ -1,8 +1,11 @@
 package edu.cwru.sepia.agent.planner;
 
-import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.SchemaAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -33,17 +36,30 @@ public class GameState implements Comparable<GameState> {
 	public List<Resource> resources;
 	public List<Peasant> peasants;
 	
-	//the parent action that created this action
-	public StripsAction parentAction;
+	//the code of the parent action that created this state in the action table
+	private short parentActionCode = ActionTable.NONE;
 	
 	//values set during A* search
 	private int depth = 0;
 	private int cost = 0;
 	private int totalCost = 0;
+
+	//the id of this state in the binary trace of the search, -1 when not recorded
+	private int traceNode = -1;
 	
 	//the parent state to this state
 	private GameState parent = null;
 
+	//the costs and capacities of the game, shared by every state of it
+	private CostModel costs = CostModel.UNIT;
+
+	//the values of the fluents a domain declares, or their goals in a goal state,
+	//null without a domain
+	public int[] fluents = null;
+
+	//the domain of the game, or null
+	private Domain domain = null;
+
 	/**
 	 * Creates a brand new game state from the given amount of gold and wood, empty
 	 * of peasants or resources.
@@ -68,6 +84,9 @@ public class GameState implements Comparable<GameState> {
 	 */
 	public GameState(GameState parent) {
 		this(parent.gold, parent.wood);
+		this.costs = parent.costs;
+		this.domain = parent.domain;
+		this.fluents = parent.fluents == null ? null : parent.fluents.clone();
 		
 		//Copy each resource to the new state
 		for (Resource resource : parent.resources) {
@@ -78,6 +97,7 @@ public class GameState implements Comparable<GameState> {
 		for (Peasant peasant : parent.peasants) {
 			Peasant newPeasant = new Peasant(peasant.getCargoAmount(), peasant.x, peasant.y, peasant.id);
 			newPeasant.setCargo(peasant.getCargo());
+			newPeasant.setDepot(peasant.getDepot());
 			
 			//If we are next to something, it's a resource
 			Resource nextTo = peasant.getAdjacentResource();
@@ -96,40 +116,104 @@ public class GameState implements Comparable<GameState> {
 	 * Goal states are determined by the amount of resources the peasants have 
 	 * gathered at that amount of time. As long as the wood and gold requirements
 	 * are met the peasants can be at any location and the capacities of the resource
-	 * locations can be anything.
+	 * locations can be anything. The fluents of a domain must also reach their goals.
 	 *
 	 * @return true if the goal conditions are met in this instance of game
 	 *         state.
 	 */
 	public boolean isGoal(GameState goal) {
-		return gold >= goal.gold && wood >= goal.wood;
+		if (gold < goal.gold || wood < goal.wood) {
+			return false;
+		}
+		if (goal.fluents != null) {
+			for (int i = 0; i < goal.fluents.length; i++) {
+				if (goal.fluents[i] != Domain.NO_GOAL && fluents[i] < goal.fluents[i]) {
+					return false;
+				}
+			}
+		}
+		return true;
 	}
 
 	/**
 	 * Generates all of the possible successor states and their
 	 * associated actions in this method (via GameState object).
+	 * Only the actions with the given codes in the table are tried.
 	 *
 	 * @return A list of the possible successor states and their associated
 	 *         actions
 	 */
 	public List<GameState> generateChildren(GameState goal,
-			List<StripsAction> actions) {
+			ActionTable table, short[] codes) {
+		return generateChildren(goal, table, codes, false);
+	}
+
+	/**
+	 * Generates the successor states like above, optionally leaving out the
+	 * actions that are independent of the action that made this state and
+	 * come after it in the table. The other order of those two actions
+	 * reaches the same situation, so only one order is searched.
+	 *
+	 * @param reduce - whether to leave out the redundant orders
+	 * @return A list of the possible successor states and their associated
+	 *         actions
+	 */
+	public List<GameState> generateChildren(GameState goal,
+			ActionTable table, short[] codes, boolean reduce) {
 		ArrayList<GameState> result = new ArrayList<GameState>();
-		
+		if (isOver(goal)) {
+			return result;
+		}
+
 		//check if each possible action meets the preconditions
 		//to reach the goal state
-		for (StripsAction a : actions) {
-			if (a.preconditionsMet(this, goal)) {
+		for (short code : codes) {
+			if (reduce && table.redundantAfter(parentActionCode, code)) {
+				continue;
+			}
+			if (table.get(code).preconditionsMet(this, goal)) {
 				
 				//apply the action to this state in order to
 				//get one action closer to the goal state
-				result.add(a.apply(this));
+				result.add(table.apply(code, this));
 			}
 		}
 		
 		return result;
 	}
 
+	/**
+	 * Finds the actions generateChildren would apply, without applying them, for
+	 * searches that only make a child once they need it.
+	 *
+	 * @param reduce - whether to leave out the redundant orders
+	 * @param into - filled with the codes of the applicable actions, as long as codes at least
+	 * @return the number of applicable actions
+	 */
+	public int applicableCodes(GameState goal, ActionTable table, short[] codes, boolean reduce, short[] into) {
+		if (isOver(goal)) {
+			return 0;
+		}
+		int count = 0;
+		for (short code : codes) {
+			if (reduce && table.redundantAfter(parentActionCode, code)) {
+				continue;
+			}
+			if (table.get(code).preconditionsMet(this, goal)) {
+				into[count++] = code;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A Midas game ends as soon as the gold and wood are in, even if the fluents
+	 * of a domain are short of their goals, so nothing can follow.
+	 */
+	private boolean isOver(GameState goal) {
+		return goal.fluents != null && gold >= goal.gold && wood >= goal.wood;
+	}
+
 	/**
 	 * A heuristic function for A* search in the resource collection game.
 	 * This should be admissible so the properties of A* hold.
@@ -157,24 +241,30 @@ public class GameState implements Comparable<GameState> {
 	public int heuristic(GameState destination) {
 		int heuristic = 0;
 
-		//Make peasants a priority
-		heuristic += (destination.peasants.size() - peasants.size()) * 100;
+		//Make peasants a priority, worth a walk of 100 steps each
+		heuristic += (destination.peasants.size() - peasants.size()) * costs.getMoveCycles(100);
 
 		//Determine the # of cycles needed to gather gold
 		int goldCycles = Math.max(0,destination.gold - gold)
-				/ (100 * peasants.size());
+				/ (costs.getGoldCapacity() * peasants.size());
 		
 		//Determine the # of cycles needed to gather wood
 		int woodCycles = Math.max(0, destination.wood - wood)
-				/ (100 * peasants.size());
+				/ (costs.getWoodCapacity() * peasants.size());
 
-		//Choose 30 steps to be the distance from a resource
-		heuristic += 60 * (goldCycles + woodCycles);
+		//Every trip is estimated at a fixed distance from a resource
+		heuristic += goldCycles * costs.getTripEstimate(ResourceNode.Type.GOLD_MINE)
+				+ woodCycles * costs.getTripEstimate(ResourceNode.Type.TREE);
 		
 		//Factor in the amount of wood in order to find the goal state
 		//faster.
 		heuristic -= wood;
 
+		//Count the actions of the domain still needed for its fluents
+		if (domain != null) {
+			heuristic += domain.estimate(this, destination);
+		}
+
 		return heuristic;
 	}
 
@@ -199,19 +289,79 @@ public class GameState implements Comparable<GameState> {
 	public GameState getParent() {
 		return this.parent;
 	}
+
+	/**
+	 * @return the costs and capacities of the game this state is in
+	 */
+	public CostModel getCosts() {
+		return costs;
+	}
+
+	/**
+	 * Sets the costs of the game, which every state made from this one shares.
+	 *
+	 * @param costs - the costs and capacities of the game
+	 */
+	public void setCosts(CostModel costs) {
+		this.costs = costs;
+	}
+
+	/**
+	 * @return the domain of the game, or null if it has none
+	 */
+	public Domain getDomain() {
+		return domain;
+	}
+
+	/**
+	 * Sets the domain of the game, which every state made from this one shares.
+	 *
+	 * @param domain - the domain whose fluents the state has
+	 */
+	public void setDomain(Domain domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * @param fluent - the number of a fluent, as a SchemaAction numbers them
+	 * @return the value of the fluent in this state
+	 */
+	public int getFluent(int fluent) {
+		switch (fluent) {
+		case SchemaAction.GOLD: return gold;
+		case SchemaAction.WOOD: return wood;
+		case SchemaAction.PEASANTS: return peasants.size();
+		default: return fluents[fluent - SchemaAction.FIRST_DECLARED];
+		}
+	}
 	
 	public void setDepth(int depth){
 		this.depth = depth;
 	}
 
-	public StripsAction getParentAction() {
-		return this.parentAction;
+	/**
+	 * @return the code of the action that made this state, or ActionTable.NONE for the initial state
+	 */
+	public short getParentActionCode() {
+		return this.parentActionCode;
+	}
+
+	public void setParentActionCode(short code) {
+		this.parentActionCode = code;
 	}
 
 	public int getDepth() {
 		return this.depth;
 	}
 
+	public int getTraceNode() {
+		return traceNode;
+	}
+
+	public void setTraceNode(int traceNode) {
+		this.traceNode = traceNode;
+	}
+
 	/**
 	 * Fetches the necessary plan resource with the given id
 	 * from the list of resources currently present in the state.
@@ -254,6 +404,11 @@ public class GameState implements Comparable<GameState> {
 	@Override
 	public String toString() {
 		String output = "Gold:" + gold + ", Wood:" + wood;
+		if (fluents != null && domain != null) {
+			for (int i = 0; i < fluents.length; i++) {
+				output += ", " + domain.getName(SchemaAction.FIRST_DECLARED + i) + ":" + fluents[i];
+			}
+		}
 		if (peasants.size() > 0)
 			output += " Peas:" + peasants;
 		if (resources.size() > 0)
@@ -280,8 +435,8 @@ public class GameState implements Comparable<GameState> {
 
 	/**
 	 * Determine if two game states are equal based on their
-	 * desired gold value, wood value, parent actions, and the
-	 * equality of their peasants.
+	 * desired gold value, wood value, parent actions, the
+	 * equality of their peasants and the amounts left at their resources.
 	 *
 	 * @param o - The game state to compare
 	 * @return True if this state equals the other state, false otherwise.
@@ -296,10 +451,12 @@ public class GameState implements Comparable<GameState> {
 		GameState s = (GameState) o;
 	
 		//Determine if the states are equal
-		if (this.parentAction != null && s.parentAction != null){
+		if (this.parentActionCode != ActionTable.NONE && s.parentActionCode != ActionTable.NONE){
 			if (s.gold == this.gold && s.wood == this.wood &&
-					s.parentAction.equals(this.parentAction) &&
-					this.peasants.size() == s.peasants.size()){
+					s.parentActionCode == this.parentActionCode &&
+					this.peasants.size() == s.peasants.size() &&
+					this.resources.size() == s.resources.size() &&
+					Arrays.equals(this.fluents, s.fluents)){
 				
 				//make sure each peasant is equal between states
 				//the peasants should also be in the same order in both lists
@@ -310,6 +467,13 @@ public class GameState implements Comparable<GameState> {
 						return false;
 					}
 				}
+
+				//the same places with less left at a resource are not the same state
+				for (int i = 0; i < resources.size(); i++){
+					if (this.resources.get(i).getAmount() != s.resources.get(i).getAmount()){
+						return false;
+					}
+				}
 				return true;
 			}	
 		}
@@ -318,9 +482,36 @@ public class GameState implements Comparable<GameState> {
 		return false;
 	}
 
+	/**
+	 * Hashes exactly the values equals compares into one half of a 128 bit fingerprint
+	 * for the closed set of the A* search, so equal states always have equal fingerprints.
+	 *
+	 * @param seed - the seed of the fingerprint half, PackedStateSet.HIGH_SEED or LOW_SEED
+	 * @return the fingerprint half of this state
+	 */
+	public long fingerprint(long seed) {
+		long hash = PackedStateSet.mix(seed, ((long) gold << 32) | (wood & 0xFFFFFFFFL));
+		hash = PackedStateSet.mix(hash, ((long) parentActionCode << 32) | peasants.size());
+		for (Peasant peasant : peasants) {
+			hash = PackedStateSet.mix(hash, ((long) peasant.x << 32) | (peasant.y & 0xFFFFFFFFL));
+			hash = PackedStateSet.mix(hash, ((long) peasant.getCargoAmount() << 32)
+					| (peasant.getCargo() == null ? 0xFFFFFFFFL : peasant.getCargo().ordinal()));
+			hash = PackedStateSet.mix(hash, peasant.getDepot());
+		}
+		for (Resource resource : resources) {
+			hash = PackedStateSet.mix(hash, resource.getAmount());
+		}
+		if (fluents != null) {
+			for (int value : fluents) {
+				hash = PackedStateSet.mix(hash, value);
+			}
+		}
+		return PackedStateSet.finish(hash);
+	}
+
 	/**
 	 * A hash code function based on the amount of gold and wood in this state
-	 * as well as the number of peasants and the number of resources.
+	 * as well as the number of peasants and the amounts left at the resources.
 	 *
 	 * @return An integer hash code that is equal for equal states.
 	 */
@@ -330,6 +521,9 @@ public class GameState implements Comparable<GameState> {
 		hash = hash * (53 * wood);
 		hash = hash * peasants.size();
 		hash += hash * resources.size();
+		for (Resource resource : resources) {
+			hash = 31 * hash + resource.getAmount();
+		}
 		return hash;
 	}
 
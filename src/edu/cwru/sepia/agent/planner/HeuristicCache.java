@@ -0,0 +1,219 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of heuristic values for one goal, keyed by an abstraction of the states.
+ *
+ * The heuristic of a state only reads a small part of it. The BASIC abstraction holds what
+ * GameState.heuristic reads: the gold, the wood, the number of peasants and the fluents. The
+ * PLACES abstraction also holds where every peasant is with what cargo and how much is left
+ * at every resource, for heuristics such as relaxed plans that look at those. Every state
+ * with the same abstraction gets the value the first of them was given.
+ *
+ * The cache is an array of sets of four entries. Each entry is two words of an atomic long
+ * array: the value with a valid bit and a reference bit, and the key xor that word. A reader
+ * takes an entry only when the two words give back its key, so an entry that another thread
+ * is writing reads as a miss and no lock is needed. A hit sets the reference bit of its entry,
+ * and a miss replaces an entry of its set chosen by CLOCK: a hand per set passes over the
+ * entries, clearing reference bits, and takes the first one that was not referenced since the
+ * hand last passed. The cache is only valid for one goal, costs and domain, and any number of
+ * searches for them may share it.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class HeuristicCache {
+
+	/**
+	 * Maps a state to the 64 bit key of its abstract state.
+	 */
+	public interface Abstraction {
+		long key(GameState state);
+	}
+
+	//the gold, wood, peasants and fluents, all that GameState.heuristic reads
+	public static final Abstraction BASIC = state -> {
+		long hash = PackedStateSet.mix(PackedStateSet.HIGH_SEED, ((long) state.gold << 32) | (state.wood & 0xFFFFFFFFL));
+		hash = PackedStateSet.mix(hash, state.peasants.size());
+		if (state.fluents != null) {
+			for (int value : state.fluents) {
+				hash = PackedStateSet.mix(hash, value);
+			}
+		}
+		return PackedStateSet.finish(hash);
+	};
+
+	//the basic abstraction with the place and cargo of every peasant and every resource amount
+	public static final Abstraction PLACES = state -> {
+		long hash = BASIC.key(state);
+		for (Peasant peasant : state.peasants) {
+			hash = PackedStateSet.mix(hash, ((long) peasant.x << 32) | (peasant.y & 0xFFFFFFFFL));
+			hash = PackedStateSet.mix(hash, ((long) peasant.getCargoAmount() << 32)
+					| (peasant.getCargo() == null ? 0xFFFFFFFFL : peasant.getCargo().ordinal()));
+			hash = PackedStateSet.mix(hash, ((long) peasant.getDepot() << 32)
+					| (peasant.getAdjacentResource() == null ? 0xFFFFFFFFL : peasant.getAdjacentResource().getId()));
+		}
+		for (Resource resource : state.resources) {
+			hash = PackedStateSet.mix(hash, resource.getAmount());
+		}
+		return PackedStateSet.finish(hash);
+	};
+
+	private static final int WAYS = 4;
+
+	//the bits of the value word of an entry, with the value in the high half
+	private static final long VALID = 2L;
+	private static final long REFERENCED = 1L;
+
+	private final GameState goal;
+
+	private final Abstraction abstraction;
+
+	//two words per entry: the key xor the value word, then the value word
+	private final AtomicLongArray entries;
+
+	//the entry the CLOCK hand of every set points at
+	private final AtomicIntegerArray hands;
+
+	private final int setMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param goal - the goal the heuristic estimates the distance to
+	 * @param capacity - the most values kept, rounded up to a power of two
+	 * @param abstraction - what the heuristic reads of a state
+	 */
+	public HeuristicCache(GameState goal, int capacity, Abstraction abstraction) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("A heuristic cache needs room, not " + capacity);
+		}
+		int sets = 1;
+		while (sets * WAYS < capacity) {
+			sets <<= 1;
+		}
+		this.goal = goal;
+		this.abstraction = abstraction;
+		entries = new AtomicLongArray(2 * sets * WAYS);
+		hands = new AtomicIntegerArray(sets);
+		setMask = sets - 1;
+	}
+
+	/**
+	 * @param name - basic or places
+	 * @return the abstraction of that name
+	 */
+	public static Abstraction abstraction(String name) {
+		if (name.equals("basic")) {
+			return BASIC;
+		}
+		if (name.equals("places")) {
+			return PLACES;
+		}
+		throw new IllegalArgumentException("Unknown heuristic abstraction: " + name);
+	}
+
+	/**
+	 * Gets the heuristic of a state from the cache, working it out on a miss.
+	 *
+	 * @param state - the state to estimate
+	 * @param goal - the goal of the search, which must be the goal of the cache
+	 * @return the heuristic of the state
+	 */
+	public int estimate(GameState state, GameState goal) {
+		if (goal != this.goal) {
+			throw new IllegalArgumentException("The heuristic cache is for another goal");
+		}
+		long key = abstraction.key(state);
+		int set = (int) (key >>> 32) & setMask;
+		int first = set * WAYS;
+		for (int i = first; i < first + WAYS; i++) {
+			long value = entries.get(2 * i + 1);
+			if ((value & VALID) != 0 && (entries.get(2 * i) ^ value) == key) {
+				hits.increment();
+				if ((value & REFERENCED) == 0) {
+					write(i, key, value | REFERENCED);
+				}
+				return (int) (value >> 32);
+			}
+		}
+		misses.increment();
+		int heuristic = state.heuristic(goal);
+		replace(set, key, ((long) heuristic << 32) | VALID);
+		return heuristic;
+	}
+
+	/**
+	 * Puts a value in the entry of the set the CLOCK hand stops at.
+	 */
+	private void replace(int set, long key, long value) {
+		int hand = hands.get(set);
+		int first = set * WAYS;
+		for (int step = 0; step < 2 * WAYS; step++) {
+			int way = (hand + step) & (WAYS - 1);
+			int i = first + way;
+			long old = entries.get(2 * i + 1);
+			if ((old & REFERENCED) == 0) {
+				if ((old & VALID) != 0) {
+					evictions.increment();
+				}
+				write(i, key, value);
+				hands.lazySet(set, (way + 1) & (WAYS - 1));
+				return;
+			}
+
+			//a second chance: the entry keeps its value until the hand comes round again
+			long check = entries.get(2 * i);
+			if (entries.compareAndSet(2 * i + 1, old, old & ~REFERENCED)) {
+				entries.set(2 * i, check ^ old ^ (old & ~REFERENCED));
+			}
+		}
+
+		//other threads kept referencing the set, so take the entry at the hand
+		write(first + hand, key, value);
+		evictions.increment();
+	}
+
+	private void write(int i, long key, long value) {
+		entries.set(2 * i + 1, value);
+		entries.set(2 * i, key ^ value);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the part of the lookups that were hits, 0 before any lookup
+	 */
+	public double getHitRate() {
+		long hit = hits.sum();
+		long lookups = hit + misses.sum();
+		return lookups == 0 ? 0 : (double) hit / lookups;
+	}
+
+	/**
+	 * @return the most values the cache keeps
+	 */
+	public int getCapacity() {
+		return entries.length() / 2;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f%% hits of %d lookups, %d evictions from %d entries", 100 * getHitRate(),
+				getHits() + getMisses(), getEvictions(), getCapacity());
+	}
+}
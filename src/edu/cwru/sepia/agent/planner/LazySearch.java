@@ -0,0 +1,246 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * The A* search of the planner agent with lazy successors and deferred heuristic evaluation.
+ *
+ * Expanding a state only finds the actions whose preconditions hold in it. Each of them goes
+ * on the open list as a pending entry of the expanded state and the action code, ordered by
+ * the total cost of the expanded state, which is a lower bound on the total cost of the child
+ * when the heuristic is consistent. A child is only made, checked against the closed set and
+ * scored once its entry reaches the top of the open list. If its real total cost is then more
+ * than the next entry on the list it goes back on with that cost, otherwise it is expanded
+ * right away. The children behind a goal that is found early are never cloned or scored.
+ *
+ * The open list is the node heap of the arena search over the indices of the entries, so ties
+ * in total cost go to the entry added last. Every child of a state waits behind the same bound,
+ * so where the heuristic leaves a choice the plan can differ slightly from the one the planner
+ * agent's search finds.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class LazySearch {
+
+	/**
+	 * An entry of the open list: an action to apply to an expanded state, or the
+	 * child it made once it was scored.
+	 */
+	private static final class Entry {
+
+		private final GameState parent;
+
+		private final short code;
+
+		//the child, once it was made and scored
+		private GameState state;
+
+		Entry(GameState parent, short code) {
+			this.parent = parent;
+			this.code = code;
+		}
+
+		Entry(GameState state) {
+			this(state.getParent(), state.getParentActionCode());
+			this.state = state;
+		}
+	}
+
+	private final ActionTable table;
+
+	private long expanded = 0;
+
+	private long generated = 0;
+
+	private long evaluated = 0;
+
+	private long requeued = 0;
+
+	//whether states dominated by a state generated before are pruned
+	private boolean dominance = false;
+
+	private long pruned = 0;
+
+	//whether only one order of every two independent actions is tried
+	private boolean reduce = false;
+
+	//the heuristic values of the goal, or null to work them out every time
+	private HeuristicCache cache = null;
+
+	/**
+	 * @param table - every grounded action of the game
+	 */
+	public LazySearch(ActionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param dominance - whether states dominated by a state generated before are pruned
+	 */
+	public void setDominance(boolean dominance) {
+		this.dominance = dominance;
+	}
+
+	/**
+	 * @param reduce - whether only one order of every two independent actions is tried
+	 */
+	public void setReduce(boolean reduce) {
+		this.reduce = reduce;
+	}
+
+	/**
+	 * @param cache - the cache of the heuristic values for the goal, or null to work out every one
+	 */
+	public void setHeuristicCache(HeuristicCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Searches for the least make span plan from the initial state to the goal.
+	 *
+	 * @param initial - the state to initialize search on
+	 * @param goal - the goal state with the required amount of gold and wood
+	 * @param maxDepth - the maximum depth to in the game state generation tree
+	 * @return the plan with the first action on top, or null if there is none or the
+	 *         thread was interrupted
+	 */
+	public Stack<GameState> search(GameState initial, GameState goal, int maxDepth) {
+		List<Entry> entries = new ArrayList<>();
+		NodeHeap open = new NodeHeap();
+		PackedStateSet closed = new PackedStateSet(1024);
+		short[] actions = table.baseCodes(goal.peasants.size());
+		short[] applicable = new short[table.size()];
+		DominanceIndex dominated = dominance ? new DominanceIndex(initial) : null;
+		if (dominated != null) {
+			dominated.add(initial, 0);
+		}
+
+		initial.setCost(0);
+		initial.setDepth(0);
+		initial.setTotalCost(estimate(initial, goal));
+		entries.add(new Entry(initial));
+		open.push(0, initial.getTotalCost());
+		expanded = 0;
+		generated = 1;
+		evaluated = 1;
+		requeued = 0;
+
+		try {
+			while (!open.isEmpty()) {
+				//give up when the thread planning is interrupted
+				if (Thread.currentThread().isInterrupted()) {
+					return null;
+				}
+				int index = (int) open.pop();
+				Entry entry = entries.set(index, null);
+
+				//make the child of a pending entry only now that it is on top
+				GameState current = entry.state;
+				boolean made = current == null;
+				if (made) {
+					current = table.apply(entry.code, entry.parent);
+					current.setParent(entry.parent);
+					current.setDepth(entry.parent.getDepth() + 1);
+					current.setCost(entry.parent.getCost() + table.get(entry.code).getMakeSpan());
+				}
+
+				//check to skip this state if it has been expanded
+				long high = current.fingerprint(PackedStateSet.HIGH_SEED);
+				long low = PackedStateSet.nonZero(current.fingerprint(PackedStateSet.LOW_SEED));
+				if (closed.contains(high, low)) {
+					continue;
+				}
+
+				//score the new child and put it back if a cheaper entry is waiting
+				if (made) {
+					if (dominated != null) {
+						if (dominated.isDominated(current, current.getCost())) {
+							continue;
+						}
+						dominated.add(current, current.getCost());
+					}
+					current.setTotalCost(current.getCost() + estimate(current, goal));
+					evaluated++;
+					if (!open.isEmpty() && current.getTotalCost() > open.peekCost()) {
+						entries.add(new Entry(current));
+						open.push(entries.size() - 1, current.getTotalCost());
+						requeued++;
+						continue;
+					}
+				}
+
+				//Remove actions that are no longer useful to the state space search
+				if (current.peasants.size() >= goal.peasants.size() && actions.length != 5 * current.peasants.size()) {
+					actions = table.withoutCostlyCodes(actions, current.peasants.size());
+				}
+
+				//Build the least cost path when the goal or depth is met
+				if (current.isGoal(goal) || current.getDepth() >= maxDepth) {
+					return PlannerAgent.buildPath(current);
+				}
+
+				closed.add(high, low);
+				expanded++;
+
+				//queue the actions behind the total cost of this state without applying them
+				int count = current.applicableCodes(goal, table, actions, reduce, applicable);
+				for (int i = 0; i < count; i++) {
+					entries.add(new Entry(current, applicable[i]));
+					open.push(entries.size() - 1, current.getTotalCost());
+				}
+				generated += count;
+			}
+
+			System.err.print("No available path");
+			return null;
+		} finally {
+			pruned = dominated == null ? 0 : dominated.getPruned();
+		}
+	}
+
+	/**
+	 * @return the heuristic of the state, from the cache if there is one
+	 */
+	private int estimate(GameState state, GameState goal) {
+		return cache == null ? state.heuristic(goal) : cache.estimate(state, goal);
+	}
+
+	/**
+	 * @return the number of states expanded by the last search
+	 */
+	public long getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @return the number of open list entries the last search made, one for every applicable action
+	 */
+	public long getGenerated() {
+		return generated;
+	}
+
+	/**
+	 * @return the number of children the last search made and scored
+	 */
+	public long getEvaluated() {
+		return evaluated;
+	}
+
+	/**
+	 * @return the number of scored children that went back on the open list
+	 */
+	public long getRequeued() {
+		return requeued;
+	}
+
+	/**
+	 * @return the number of states dominance pruning removed in the last search
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+}
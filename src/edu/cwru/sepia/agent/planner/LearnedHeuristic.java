@@ -0,0 +1,306 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Heuristic values learned from earlier searches on the same map and goal.
+ *
+ * After every search the costs to go of the states it expanded are backed up over the
+ * part of the search graph it saw, like the learning step of LRTA* with a local search
+ * space: every state the search generated but did not expand, the goal included, keeps
+ * its plain heuristic, and every expanded state gets the cheapest cost through its
+ * children to one of those. A learned value only ever raises the heuristic of a state, so
+ * the next search on the same problem knows the states that led nowhere and expands fewer
+ * of them.
+ *
+ * The leaves start from the plain heuristic rather than zero for the goal because the plain
+ * heuristic is not a cost to go: it is negative at a goal with wood. Backed up this way the
+ * states on the plan get the total cost the goal was found at, while the states off the plan
+ * get a higher one, and learning again from the same leaves cannot ratchet the values up.
+ *
+ * Values are keyed by an abstract state: the gold, the wood, the amounts left at every
+ * resource and the number of peasants at every place with every kind of cargo. States
+ * that differ only in which peasant is where or in the action that made them share a key,
+ * since they have the same cost to go. The table is written to and read from streams so
+ * the planner agent can keep it between runs.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class LearnedHeuristic {
+
+	//"LRNH" in ASCII
+	private static final int MAGIC = 0x4C524E48;
+
+	//the kinds of cargo a peasant can carry, for counting peasants by place and cargo
+	private static final int CARGO_KINDS = 3;
+
+	//the problem the table was learned on, so a table of another map or goal is not used
+	private long problem = 0;
+
+	private final Map<Long, Integer> learned = new HashMap<>();
+
+	//the index of every resource by its id, for counting peasants by place
+	private final Map<Integer, Integer> indexes = new HashMap<>();
+
+	//the search graph of the current search, by abstract key
+	private final Map<Long, Node> nodes = new HashMap<>();
+
+	private int expanded = 0;
+
+	/**
+	 * Starts learning from a search on the given problem. The table is cleared if it
+	 * was learned on another problem.
+	 *
+	 * @param initial - the initial state of the search
+	 * @param goal - the goal state of the search
+	 */
+	public void begin(GameState initial, GameState goal) {
+		indexes.clear();
+		for (int i = 0; i < initial.resources.size(); i++) {
+			indexes.put(initial.resources.get(i).getId(), i);
+		}
+		long signature = problemOf(initial, goal);
+		if (signature != problem) {
+			learned.clear();
+			problem = signature;
+		}
+		nodes.clear();
+		expanded = 0;
+	}
+
+	/**
+	 * @param state - the state to estimate
+	 * @param goal - the goal state of the search
+	 * @return the heuristic of the state, raised to its learned value if that is higher
+	 */
+	public int estimate(GameState state, GameState goal) {
+		int heuristic = state.heuristic(goal);
+		Integer value = learned.get(keyOf(state));
+		return value == null ? heuristic : Math.max(heuristic, value);
+	}
+
+	/**
+	 * Records that the search expanded a state and generated its children.
+	 *
+	 * @param state - the expanded state
+	 * @param children - the children the search generated from it
+	 * @param costs - the cost of the action to every child
+	 * @param goal - the goal state of the search
+	 */
+	public void expanded(GameState state, List<GameState> children, int[] costs, GameState goal) {
+		Node node = nodeOf(state, goal);
+		node.expanded = true;
+		for (int i = 0; i < children.size(); i++) {
+			Node child = nodeOf(children.get(i), goal);
+			child.parents.add(node);
+			child.parentCosts.add(costs[i]);
+		}
+		expanded++;
+	}
+
+	/**
+	 * Backs the costs to go up from the frontier to every expanded state of the search and
+	 * raises their learned values. The frontier states, goals included, start at their
+	 * plain heuristic.
+	 */
+	public void learn() {
+		PriorityQueue<Visit> queue = new PriorityQueue<>();
+		for (Node node : nodes.values()) {
+			if (!node.expanded) {
+				node.value = node.base;
+				queue.add(new Visit(node, node.base));
+			}
+		}
+
+		//a Dijkstra search backwards from the frontier
+		while (!queue.isEmpty()) {
+			Node node = queue.poll().node;
+			if (node.done) {
+				continue;
+			}
+			node.done = true;
+			for (int i = 0; i < node.parents.size(); i++) {
+				Node parent = node.parents.get(i);
+				long value = (long) node.value + node.parentCosts.get(i);
+				if (parent.expanded && !parent.done && value < parent.value) {
+					parent.value = (int) value;
+					queue.add(new Visit(parent, parent.value));
+				}
+			}
+		}
+
+		for (Map.Entry<Long, Node> entry : nodes.entrySet()) {
+			Node node = entry.getValue();
+			if (node.expanded && node.done && node.value > node.estimate) {
+				learned.put(entry.getKey(), node.value);
+			}
+		}
+		nodes.clear();
+	}
+
+	/**
+	 * @return the number of states the last search expanded
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @return the number of abstract states with a learned value
+	 */
+	public int size() {
+		return learned.size();
+	}
+
+	/**
+	 * Writes the problem and the learned values to a stream.
+	 *
+	 * @param stream - the stream to write to, which is left open
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeLong(problem);
+		out.writeInt(learned.size());
+		for (Map.Entry<Long, Integer> entry : learned.entrySet()) {
+			out.writeLong(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the problem and the learned values from a stream written by write,
+	 * replacing the current table.
+	 *
+	 * @param stream - the stream to read from, which is left open
+	 * @throws IOException if the stream cannot be read or does not hold a table
+	 */
+	public void read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a learned heuristic table");
+		}
+		long readProblem = in.readLong();
+		int size = in.readInt();
+		Map<Long, Integer> values = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			values.put(in.readLong(), in.readInt());
+		}
+		problem = readProblem;
+		learned.clear();
+		learned.putAll(values);
+	}
+
+	private Node nodeOf(GameState state, GameState goal) {
+		long key = keyOf(state);
+		Node node = nodes.get(key);
+		if (node == null) {
+			node = new Node(state.heuristic(goal), estimate(state, goal));
+			nodes.put(key, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Hashes the abstract state of a game state into its key.
+	 */
+	private long keyOf(GameState state) {
+		long hash = PackedStateSet.mix(PackedStateSet.HIGH_SEED, ((long) state.gold << 32) | (state.wood & 0xFFFFFFFFL));
+		for (Resource resource : state.resources) {
+			hash = PackedStateSet.mix(hash, resource.getAmount());
+		}
+		int depots = state.resources.isEmpty() ? 1 : state.resources.get(0).getDepotCount();
+		int[] counts = new int[(state.resources.size() + depots) * CARGO_KINDS];
+		for (Peasant peasant : state.peasants) {
+			int place = peasant.getDepot();
+			if (peasant.getAdjacentResource() != null) {
+				place = indexes.get(peasant.getAdjacentResource().getId()) + depots;
+			}
+			int cargo = 0;
+			if (peasant.getCargoAmount() > 0) {
+				cargo = ResourceNode.Type.GOLD_MINE.equals(peasant.getCargo()) ? 1 : 2;
+			}
+			counts[place * CARGO_KINDS + cargo]++;
+		}
+		for (int count : counts) {
+			hash = PackedStateSet.mix(hash, count);
+		}
+		return PackedStateSet.finish(hash);
+	}
+
+	/**
+	 * Hashes the resources of the initial state, its costs and the goal into the signature of a problem.
+	 */
+	private static long problemOf(GameState initial, GameState goal) {
+		CostModel costs = initial.getCosts();
+		long hash = PackedStateSet.mix(PackedStateSet.LOW_SEED, ((long) goal.gold << 32) | (goal.wood & 0xFFFFFFFFL));
+		hash = PackedStateSet.mix(hash, ((long) goal.peasants.size() << 32) | initial.peasants.size());
+		hash = PackedStateSet.mix(hash, ((long) costs.getMoveCycles() << 32) | costs.getPeasantCycles());
+		hash = PackedStateSet.mix(hash, ((long) costs.getTripEstimate(ResourceNode.Type.GOLD_MINE) << 32)
+				| costs.getTripEstimate(ResourceNode.Type.TREE));
+		for (Resource resource : initial.resources) {
+			hash = PackedStateSet.mix(hash, ((long) resource.getId() << 32) | resource.getAmount());
+			hash = PackedStateSet.mix(hash, ((long) resource.getX() << 32) | (resource.getY() & 0xFFFFFFFFL));
+		}
+		return PackedStateSet.finish(hash);
+	}
+
+	/**
+	 * An abstract state the search saw, with the edges from the states it was generated from.
+	 */
+	private static class Node {
+
+		//the plain heuristic of the state and the one the search ranked it by
+		final int base;
+
+		final int estimate;
+
+		final List<Node> parents = new ArrayList<>();
+
+		final List<Integer> parentCosts = new ArrayList<>();
+
+		boolean expanded = false;
+
+		boolean done = false;
+
+		int value = Integer.MAX_VALUE;
+
+		Node(int base, int estimate) {
+			this.base = base;
+			this.estimate = estimate;
+		}
+	}
+
+	/**
+	 * A node queued with the cost to go it had when it was queued.
+	 */
+	private static class Visit implements Comparable<Visit> {
+
+		final Node node;
+
+		final int value;
+
+		Visit(Node node, int value) {
+			this.node = node;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Visit o) {
+			return Integer.compare(value, o.value);
+		}
+	}
+}
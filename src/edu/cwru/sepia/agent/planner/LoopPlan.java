@@ -0,0 +1,317 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * A plan stored as blocks of action codes, where a block that repeats is kept once
+ * with its number of iterations.
+ *
+ * Plans for big goals are mostly the same move, harvest, move back and deposit cycle
+ * over and over, so a plan of game states holds a full copy of the game for every step
+ * of every cycle. A loop plan instead keeps the initial state and the codes of every
+ * block, and its cursor makes the states one at a time by applying the actions again.
+ * The memory of a plan made of a steady cycle does not grow with the required gold and
+ * wood, only its iteration counts do.
+ *
+ * A loop also ends early once the goal is met or its next iteration cannot be applied
+ * any more, such as when the resource it harvests has run out, and execution goes on with
+ * the next block. A loop only ends between iterations, so an iteration that started is
+ * always finished and no peasant is left holding cargo it was about to deposit.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class LoopPlan {
+
+	//the longest cycle looked for, in actions
+	private static final int MAX_PERIOD = 24;
+
+	private final GameState initial;
+
+	private final GameState goal;
+
+	private final ActionTable table;
+
+	private final List<Block> blocks = new ArrayList<>();
+
+	//the number of actions the plan was made from
+	private final int length;
+
+	private LoopPlan(GameState initial, GameState goal, ActionTable table, int length) {
+		this.initial = initial;
+		this.goal = goal;
+		this.table = table;
+		this.length = length;
+	}
+
+	/**
+	 * Compresses a plan of game states into blocks. At every action the cycle of up to
+	 * MAX_PERIOD actions that repeats over the most actions from there is made a loop,
+	 * and actions that do not start a repeating cycle are gathered into straight blocks.
+	 *
+	 * @param initial - the state the plan starts from
+	 * @param goal - the goal state the plan reaches
+	 * @param plan - the plan with the first action on top, which is left unchanged
+	 * @param table - the table the plan's action codes refer to
+	 * @return the compressed plan
+	 */
+	public static LoopPlan compress(GameState initial, GameState goal, Stack<GameState> plan, ActionTable table) {
+		return compress(initial, goal, codesOf(plan), table);
+	}
+
+	/**
+	 * Compresses a plan given by the codes of its actions into blocks.
+	 *
+	 * @param initial - the state the plan starts from
+	 * @param goal - the goal state the plan reaches
+	 * @param codes - the codes of the plan, first action first
+	 * @param table - the table the plan's action codes refer to
+	 * @return the compressed plan
+	 */
+	public static LoopPlan compress(GameState initial, GameState goal, short[] codes, ActionTable table) {
+		LoopPlan compressed = new LoopPlan(copyOf(initial), goal, table, codes.length);
+		int straightStart = 0;
+		int i = 0;
+		while (i < codes.length) {
+			int bestPeriod = 0;
+			int bestRepeats = 1;
+			for (int period = 1; period <= MAX_PERIOD && i + 2 * period <= codes.length; period++) {
+				int repeats = repeatsAt(codes, i, period);
+				if (repeats > 1 && period * repeats > bestPeriod * bestRepeats) {
+					bestPeriod = period;
+					bestRepeats = repeats;
+				}
+			}
+
+			if (bestPeriod == 0) {
+				i++;
+				continue;
+			}
+
+			//close the straight block before the loop
+			if (straightStart < i) {
+				compressed.blocks.add(new Block(slice(codes, straightStart, i), 1));
+			}
+			compressed.blocks.add(new Block(slice(codes, i, i + bestPeriod), bestRepeats));
+			i += bestPeriod * bestRepeats;
+			straightStart = i;
+		}
+		if (straightStart < codes.length) {
+			compressed.blocks.add(new Block(slice(codes, straightStart, codes.length), 1));
+		}
+		return compressed;
+	}
+
+	/**
+	 * @param plan - a plan with the first action on top, which is left unchanged
+	 * @return the codes of the actions of the plan, first action first
+	 */
+	public static short[] codesOf(Stack<GameState> plan) {
+		short[] codes = new short[plan.size()];
+		for (int i = 0; i < codes.length; i++) {
+			//the top of the stack is the end of its list
+			codes[i] = plan.get(plan.size() - 1 - i).getParentActionCode();
+		}
+		return codes;
+	}
+
+	/**
+	 * @return a new cursor at the first action of the plan
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @return the number of actions in the plan the loop plan was made from
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of blocks, loops and straight blocks together
+	 */
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * @return the number of blocks that repeat
+	 */
+	public int getLoopCount() {
+		int loops = 0;
+		for (Block block : blocks) {
+			if (block.iterations > 1) {
+				loops++;
+			}
+		}
+		return loops;
+	}
+
+	/**
+	 * @return the number of action codes stored over all the blocks
+	 */
+	public int getStoredCodes() {
+		int stored = 0;
+		for (Block block : blocks) {
+			stored += block.codes.length;
+		}
+		return stored;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (Block block : blocks) {
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(block.iterations).append('x').append(block.codes.length);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Counts how many times the cycle of the given period starting at the given index
+	 * repeats back to back.
+	 */
+	private static int repeatsAt(short[] codes, int start, int period) {
+		int repeats = 1;
+		int next = start + period;
+		while (next + period <= codes.length) {
+			for (int j = 0; j < period; j++) {
+				if (codes[next + j] != codes[start + j]) {
+					return repeats;
+				}
+			}
+			repeats++;
+			next += period;
+		}
+		return repeats;
+	}
+
+	private static short[] slice(short[] codes, int from, int to) {
+		short[] slice = new short[to - from];
+		System.arraycopy(codes, from, slice, 0, slice.length);
+		return slice;
+	}
+
+	/**
+	 * Copies a state without its parents, so the plan does not hold on to the search.
+	 */
+	private static GameState copyOf(GameState state) {
+		GameState copy = new GameState(state);
+		copy.setParent(null);
+		copy.setParentActionCode(state.getParentActionCode());
+		return copy;
+	}
+
+	/**
+	 * A run of action codes and how many times it is executed.
+	 */
+	private static class Block {
+
+		final short[] codes;
+
+		final int iterations;
+
+		Block(short[] codes, int iterations) {
+			this.codes = codes;
+			this.iterations = iterations;
+		}
+	}
+
+	/**
+	 * Walks through a loop plan one action at a time. Only the state before the next
+	 * action and the state after it are kept, so executing the plan takes the same
+	 * memory however many times its loops repeat.
+	 */
+	public class Cursor {
+
+		private int block = 0;
+
+		private int iteration = 0;
+
+		private int action = 0;
+
+		private GameState current = copyOf(initial);
+
+		//the state after the next action, made when first asked for
+		private GameState next = null;
+
+		/**
+		 * @return true if every action of the plan was executed
+		 */
+		public boolean isEmpty() {
+			return peek() == null;
+		}
+
+		/**
+		 * @return the state after the next action, whose parent action is the next action,
+		 *         or null if the plan is done
+		 */
+		public GameState peek() {
+			while (next == null && block < blocks.size()) {
+				Block at = blocks.get(block);
+				short code = at.codes[action];
+
+				//a loop ends before an iteration when the goal is met or the iteration does not apply
+				if (at.iterations > 1 && action == 0 && (current.isGoal(goal) || !applies(at))) {
+					nextBlock();
+					continue;
+				}
+				next = table.apply(code, current);
+			}
+			return next;
+		}
+
+		/**
+		 * Moves past the next action, which was executed.
+		 */
+		public void pop() {
+			if (peek() == null) {
+				throw new IllegalStateException("The plan has no more actions");
+			}
+
+			//drop the link to the previous state so the states do not pile up
+			next.setParent(null);
+			current = next;
+			next = null;
+
+			Block at = blocks.get(block);
+			if (++action == at.codes.length) {
+				action = 0;
+				if (++iteration == at.iterations) {
+					nextBlock();
+				}
+			}
+		}
+
+		/**
+		 * Checks that every action of an iteration of a loop applies in turn from the
+		 * current state, and warns when it does not, since the plan did not expect it.
+		 */
+		private boolean applies(Block at) {
+			GameState state = current;
+			for (short code : at.codes) {
+				if (!table.get(code).preconditionsMet(state, goal)) {
+					System.err.println("Leaving a loop after " + iteration + " of " + at.iterations
+							+ " iterations, since " + table.get(code) + " does not apply any more");
+					return false;
+				}
+				state = table.apply(code, state);
+			}
+			return true;
+		}
+
+		private void nextBlock() {
+			block++;
+			iteration = 0;
+			action = 0;
+		}
+	}
+}
@@ -0,0 +1,604 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionSteps;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.SchemaAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.Arrays;
+import java.util.Stack;
+
+/**
+ * A deterministic simulator of the resource collection rules of the Midas maps, used to
+ * find out what a plan really costs in game cycles without running SEPIA.
+ *
+ * The map is a flat grid where the depots and every resource block one cell. A peasant
+ * walks one cell at a time, straight or diagonally, along the shortest path to a cell next
+ * to its target and takes the move duration for every cell. Gathering, depositing and
+ * producing a peasant take the durations of a cost model, by default the one of the unit
+ * templates of the Midas maps. The actions of a domain take the cycles of their unit, a
+ * peasant at the town hall building it or the town hall producing it, and change the
+ * fluents as soon as they start. Peasants do not block each other, which is the only rule
+ * of SEPIA the simulator leaves out.
+ *
+ * Plans are executed the way the plan execution agent executes them: one action at a time,
+ * with the peasants of the next action starting the cycle after the last peasant of the
+ * action before is done, and the first peasants that fit an action doing it. The simulator
+ * checks every action against its own copy of the game, so a plan that asks for peasants
+ * that are not there or for a resource that ran out fails with a message.
+ *
+ * The distances from every cell to every target are found once per map, and the clock
+ * jumps from one finished step to the next instead of ticking every cycle, so a plan of
+ * thousands of game cycles is simulated in microseconds.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class MidasSimulator {
+
+	//the cycles the execution agent takes to see an action is done and issue the next one
+	public static final int DISPATCH_CYCLES = 1;
+
+	//what a peasant is doing
+	private static final int IDLE = 0;
+	private static final int WALK = 1;
+	private static final int GATHER = 2;
+	private static final int DEPOSIT = 3;
+	private static final int BUILD = 4;
+
+	//the place of a peasant at the town hall, depot 0. A peasant at depot d is at place
+	//-1 - d, otherwise its place is the index of a resource
+	private static final int TOWN_HALL = -1;
+
+	//the neighbours of a cell, straight and diagonal
+	private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+	private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+	private final int width;
+
+	private final int height;
+
+	private final GameState initial;
+
+	private final ActionTable table;
+
+	private final int depots;
+
+	//the durations and capacities of the game
+	private final CostModel costs;
+
+	//the steps from every cell to a cell next to every depot, then to every resource
+	private final int[][] distances;
+
+	/**
+	 * @param initial - the state the plans start from, with the resources of the map
+	 * @param table - the table the plans' action codes refer to
+	 * @param width - the width of the map
+	 * @param height - the height of the map
+	 * @param townHallX - the x position of the town hall
+	 * @param townHallY - the y position of the town hall
+	 */
+	public MidasSimulator(GameState initial, ActionTable table, int width, int height, int townHallX, int townHallY) {
+		this(initial, table, width, height, new int[] {townHallX}, new int[] {townHallY});
+	}
+
+	/**
+	 * @param initial - the state the plans start from, with the resources of the map
+	 * @param table - the table the plans' action codes refer to
+	 * @param width - the width of the map
+	 * @param height - the height of the map
+	 * @param depotX - the x position of every depot, the town hall first
+	 * @param depotY - the y position of every depot, the town hall first
+	 */
+	public MidasSimulator(GameState initial, ActionTable table, int width, int height, int[] depotX, int[] depotY) {
+		this(initial, table, width, height, depotX, depotY, CostModel.MIDAS);
+	}
+
+	/**
+	 * @param initial - the state the plans start from, with the resources of the map
+	 * @param table - the table the plans' action codes refer to
+	 * @param width - the width of the map
+	 * @param height - the height of the map
+	 * @param depotX - the x position of every depot, the town hall first
+	 * @param depotY - the y position of every depot, the town hall first
+	 * @param costs - the durations and capacities of the game
+	 */
+	public MidasSimulator(GameState initial, ActionTable table, int width, int height, int[] depotX, int[] depotY,
+			CostModel costs) {
+		this.initial = initial;
+		this.costs = costs;
+		this.table = table;
+		this.width = width;
+		this.height = height;
+		this.depots = depotX.length;
+
+		boolean[] blocked = new boolean[width * height];
+		for (int d = 0; d < depots; d++) {
+			blocked[depotY[d] * width + depotX[d]] = true;
+		}
+		for (Resource resource : initial.resources) {
+			blocked[resource.getY() * width + resource.getX()] = true;
+		}
+
+		distances = new int[depots + initial.resources.size()][];
+		for (int d = 0; d < depots; d++) {
+			distances[d] = distancesTo(depotX[d], depotY[d], blocked);
+		}
+		for (int i = 0; i < initial.resources.size(); i++) {
+			Resource resource = initial.resources.get(i);
+			distances[depots + i] = distancesTo(resource.getX(), resource.getY(), blocked);
+		}
+	}
+
+	/**
+	 * @return the steps from every cell to the given place
+	 */
+	private int[] distancesOf(int place) {
+		return distances[place < 0 ? -1 - place : depots + place];
+	}
+
+	/**
+	 * Simulates a plan of game states.
+	 *
+	 * @param plan - the plan with the first action on top, which is left unchanged
+	 * @return the outcome of the plan
+	 */
+	public Result run(Stack<GameState> plan) {
+		short[] codes = new short[plan.size()];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = plan.get(plan.size() - 1 - i).getParentActionCode();
+		}
+		return run(codes);
+	}
+
+	/**
+	 * Simulates a loop plan, repeating its loops as its cursor does.
+	 *
+	 * @param plan - the loop plan
+	 * @return the outcome of the plan
+	 */
+	public Result run(LoopPlan plan) {
+		short[] codes = new short[plan.getLength()];
+		int length = 0;
+		LoopPlan.Cursor cursor = plan.cursor();
+		for (GameState next = cursor.peek(); next != null; next = cursor.peek()) {
+			if (length == codes.length) {
+				codes = Arrays.copyOf(codes, codes.length * 2 + 1);
+			}
+			codes[length++] = next.getParentActionCode();
+			cursor.pop();
+		}
+		return run(Arrays.copyOf(codes, length));
+	}
+
+	/**
+	 * Simulates a plan of action codes.
+	 *
+	 * @param codes - the codes of the actions in the order they are executed
+	 * @return the outcome of the plan
+	 */
+	public Result run(short[] codes) {
+		long start = System.nanoTime();
+		Game game = new Game();
+		Result result = new Result();
+
+		for (short code : codes) {
+			StripsAction action = table.get(code);
+			result.predicted += action.getMakeSpan();
+			String failure = game.dispatch(action);
+			if (failure != null) {
+				result.failure = "Action " + result.executed + " " + action + ": " + failure;
+				break;
+			}
+			game.finish();
+			result.executed++;
+		}
+
+		result.cycles = game.clock;
+		result.gold = game.gold;
+		result.wood = game.wood;
+		result.idle = Arrays.copyOf(game.idle, game.peasants);
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Finds the steps from every cell to a cell next to the given target with a breadth
+	 * first search out from the cells next to it. Cells that cannot reach it stay -1.
+	 */
+	private int[] distancesTo(int targetX, int targetY, boolean[] blocked) {
+		int[] distance = new int[width * height];
+		Arrays.fill(distance, -1);
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		for (int d = 0; d < DX.length; d++) {
+			int x = targetX + DX[d], y = targetY + DY[d];
+			if (free(x, y, blocked)) {
+				distance[y * width + x] = 0;
+				queue[tail++] = y * width + x;
+			}
+		}
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % width, y = cell / width;
+			for (int d = 0; d < DX.length; d++) {
+				int nx = x + DX[d], ny = y + DY[d];
+				if (free(nx, ny, blocked) && distance[ny * width + nx] < 0) {
+					distance[ny * width + nx] = distance[cell] + 1;
+					queue[tail++] = ny * width + nx;
+				}
+			}
+		}
+		return distance;
+	}
+
+	private boolean free(int x, int y, boolean[] blocked) {
+		return x >= 0 && y >= 0 && x < width && y < height && !blocked[y * width + x];
+	}
+
+	/**
+	 * The simulated game: the peasants in flat arrays, the resources left and the clock.
+	 */
+	private class Game implements ActionSteps<String> {
+
+		long clock = 0;
+
+		int gold;
+
+		int wood;
+
+		int[] amounts;
+
+		int peasants = 0;
+
+		//the cell, place, cargo and task of every peasant
+		int[] cell;
+		int[] place;
+		ResourceNode.Type[] cargo;
+		int[] task;
+		int[] target;
+		long[] remaining;
+		long[] idle;
+
+		//the cycles until the town hall is done producing, 0 if it is not, and whether it makes a peasant
+		long producing = 0;
+		boolean producingPeasant = false;
+
+		//the values of the fluents of the domain, numbered like a SchemaAction numbers them
+		int[] fluents;
+
+		Game() {
+			gold = initial.gold;
+			wood = initial.wood;
+			amounts = new int[initial.resources.size()];
+			for (int i = 0; i < amounts.length; i++) {
+				amounts[i] = initial.resources.get(i).getAmount();
+			}
+
+			int capacity = Math.max(table.getMaxPeasants(), initial.peasants.size());
+			cell = new int[capacity];
+			place = new int[capacity];
+			cargo = new ResourceNode.Type[capacity];
+			task = new int[capacity];
+			target = new int[capacity];
+			remaining = new long[capacity];
+			idle = new long[capacity];
+			for (Peasant peasant : initial.peasants) {
+				int at = peasant.getAdjacentResource() == null ? -1 - peasant.getDepot()
+						: indexOf(peasant.getAdjacentResource().getId());
+				int i = addPeasant(at);
+				cargo[i] = peasant.getCargoAmount() > 0 ? peasant.getCargo() : null;
+			}
+			fluents = new int[SchemaAction.FIRST_DECLARED + (initial.fluents == null ? 0 : initial.fluents.length)];
+			for (int f = SchemaAction.FIRST_DECLARED; f < fluents.length; f++) {
+				fluents[f] = initial.getFluent(f);
+			}
+		}
+
+		/**
+		 * Gives the first peasants that fit an action their tasks, or the town hall its production.
+		 *
+		 * @return null, or why the action cannot be executed
+		 */
+		String dispatch(StripsAction action) {
+			return action.carryOut(this);
+		}
+
+		@Override
+		public String walk(int peasantCount, int resourceId, int depot, boolean toDepot) {
+			int resource = indexOf(resourceId);
+			return toDepot ? assign(peasantCount, WALK, resource, -1 - depot, true)
+					: assign(peasantCount, WALK, -1 - depot, resource, false);
+		}
+
+		@Override
+		public String gather(int peasantCount, int resourceId) {
+			int resource = indexOf(resourceId);
+			if (amounts[resource] < peasantCount * costs.getCapacity(initial.resources.get(resource).getType())) {
+				return "only " + amounts[resource] + " left at the resource";
+			}
+			return assign(peasantCount, GATHER, resource, resource, false);
+		}
+
+		@Override
+		public String deposit(int peasantCount, int depot) {
+			return assign(peasantCount, DEPOSIT, -1 - depot, -1 - depot, true);
+		}
+
+		/**
+		 * The town hall produces the peasant for the gold of the cost model of the game.
+		 */
+		@Override
+		public String producePeasant(int goldCost) {
+			if (gold < costs.getPeasantGold()) {
+				return "only " + gold + " gold to build a peasant";
+			}
+			if (peasants == cell.length) {
+				return "no room for another peasant";
+			}
+			gold -= costs.getPeasantGold();
+			producing = costs.getPeasantCycles();
+			producingPeasant = true;
+			return null;
+		}
+
+		/**
+		 * Gives the first peasants at a place with or without cargo a task.
+		 *
+		 * @param kind - the task, a walk, gather or deposit
+		 * @param from - the place the peasants are at
+		 * @param to - the place the task leads to
+		 * @return null, or why the peasants cannot do it
+		 */
+		private String assign(int count, int kind, int from, int to, boolean loaded) {
+			int chosen = 0;
+			for (int i = 0; i < peasants && chosen < count; i++) {
+				if (place[i] == from && (cargo[i] != null) == loaded) {
+					if (kind == WALK && distancesOf(to)[cell[i]] < 0) {
+						return "the peasant cannot reach its destination";
+					}
+					task[i] = kind;
+					target[i] = to;
+					remaining[i] = kind == WALK ? stepCycles(i)
+							: kind == DEPOSIT ? costs.getDepositCycles()
+							: costs.getGatherCycles(initial.resources.get(from).getType());
+					chosen++;
+				}
+			}
+			if (chosen < count) {
+				for (int i = 0; i < peasants; i++) {
+					task[i] = IDLE;
+				}
+				return "only " + chosen + " of " + count + " peasants can do it";
+			}
+			return null;
+		}
+
+		/**
+		 * Starts an action of the domain: a peasant idle at the town hall without cargo
+		 * builds its unit, or the town hall produces it.
+		 *
+		 * @return null, or why the action cannot be executed
+		 */
+		@Override
+		public String make(SchemaAction action) {
+			fluents[SchemaAction.GOLD] = gold;
+			fluents[SchemaAction.WOOD] = wood;
+			fluents[SchemaAction.PEASANTS] = peasants;
+			if (!action.conditionsMet(fluents)) {
+				return "the conditions do not hold";
+			}
+			if (action.isBuilt()) {
+				int builder = 0;
+				while (builder < peasants && (place[builder] != TOWN_HALL || cargo[builder] != null)) {
+					builder++;
+				}
+				if (builder == peasants) {
+					return "no peasant at the town hall can build it";
+				}
+				task[builder] = BUILD;
+				remaining[builder] = action.getCycles();
+			} else {
+				producing = action.getCycles();
+				producingPeasant = false;
+			}
+			action.applyEffects(fluents);
+			gold = fluents[SchemaAction.GOLD];
+			wood = fluents[SchemaAction.WOOD];
+			return null;
+		}
+
+		/**
+		 * Runs the clock until every task is done, then takes the cycles to dispatch the next action.
+		 */
+		void finish() {
+			while (true) {
+				//jump to the next step any peasant or the town hall finishes
+				long step = producing > 0 ? producing : Long.MAX_VALUE;
+				for (int i = 0; i < peasants; i++) {
+					if (task[i] != IDLE && remaining[i] < step) {
+						step = remaining[i];
+					}
+				}
+				if (step == Long.MAX_VALUE) {
+					break;
+				}
+
+				clock += step;
+				for (int i = 0; i < peasants; i++) {
+					if (task[i] == IDLE) {
+						idle[i] += step;
+					} else if ((remaining[i] -= step) == 0) {
+						complete(i);
+					}
+				}
+				if (producing > 0 && (producing -= step) == 0 && producingPeasant) {
+					addPeasant(TOWN_HALL);
+				}
+			}
+
+			clock += DISPATCH_CYCLES;
+			for (int i = 0; i < peasants; i++) {
+				idle[i] += DISPATCH_CYCLES;
+			}
+		}
+
+		/**
+		 * Ends the current step of a peasant's task and starts its next one.
+		 */
+		private void complete(int i) {
+			if (task[i] == WALK) {
+				int[] distance = distancesOf(target[i]);
+				int at = cell[i];
+				int x = at % width, y = at / width;
+				for (int d = 0; d < DX.length; d++) {
+					int nx = x + DX[d], ny = y + DY[d];
+					if (nx >= 0 && ny >= 0 && nx < width && ny < height
+							&& distance[ny * width + nx] >= 0 && distance[ny * width + nx] < distance[at]) {
+						cell[i] = ny * width + nx;
+						break;
+					}
+				}
+				if (distance[cell[i]] > 0) {
+					remaining[i] = stepCycles(i);
+					return;
+				}
+				place[i] = target[i];
+			} else if (task[i] == GATHER) {
+				cargo[i] = initial.resources.get(target[i]).getType();
+				amounts[target[i]] -= costs.getCapacity(cargo[i]);
+			} else if (task[i] == DEPOSIT) {
+				if (ResourceNode.Type.GOLD_MINE.equals(cargo[i])) {
+					gold += costs.getGoldCapacity();
+				} else {
+					wood += costs.getWoodCapacity();
+				}
+				cargo[i] = null;
+			}
+			task[i] = IDLE;
+		}
+
+		/**
+		 * @return the cycles of the next step of a walking peasant, none if it is already there
+		 */
+		private long stepCycles(int i) {
+			return distancesOf(target[i])[cell[i]] > 0 ? costs.getMoveCycles() : 0;
+		}
+
+		/**
+		 * Adds an idle peasant at the first free cell next to a place.
+		 *
+		 * @return the index of the peasant
+		 */
+		private int addPeasant(int at) {
+			int[] distance = distancesOf(at);
+			int start = 0;
+			while (start < distance.length - 1 && distance[start] != 0) {
+				start++;
+			}
+			int i = peasants++;
+			cell[i] = start;
+			place[i] = at;
+			task[i] = IDLE;
+			return i;
+		}
+
+		private int indexOf(int resourceId) {
+			for (int i = 0; i < initial.resources.size(); i++) {
+				if (initial.resources.get(i).getId() == resourceId) {
+					return i;
+				}
+			}
+			throw new IllegalStateException("No resource with id " + resourceId);
+		}
+	}
+
+	/**
+	 * What a simulated plan did: the cycles it took against the make span the planner
+	 * predicted, the cycles every peasant stood idle and whether every action could be done.
+	 */
+	public static class Result {
+
+		private long cycles;
+
+		private int predicted;
+
+		private long[] idle;
+
+		private int executed;
+
+		private int gold;
+
+		private int wood;
+
+		private String failure;
+
+		private long nanos;
+
+		/**
+		 * @return the game cycles from the first action until the last one was done
+		 */
+		public long getCycles() { return cycles; }
+
+		/**
+		 * @return the sum of the make spans of the plan's actions, as the planner counts them
+		 */
+		public int getPredicted() { return predicted; }
+
+		/**
+		 * @return the game cycles per make span unit the planner predicted
+		 */
+		public double getDivergence() {
+			return predicted == 0 ? 0 : (double) cycles / predicted;
+		}
+
+		/**
+		 * @return the idle cycles of every peasant, in the order they were built
+		 */
+		public long[] getIdle() { return idle.clone(); }
+
+		/**
+		 * @return the idle cycles of all peasants together
+		 */
+		public long getTotalIdle() {
+			long total = 0;
+			for (long cycles : idle) {
+				total += cycles;
+			}
+			return total;
+		}
+
+		/**
+		 * @return the number of actions executed, all of them unless the plan failed
+		 */
+		public int getExecuted() { return executed; }
+
+		public int getGold() { return gold; }
+
+		public int getWood() { return wood; }
+
+		/**
+		 * @return true if every action of the plan could be executed
+		 */
+		public boolean isValid() { return failure == null; }
+
+		/**
+		 * @return why the plan failed, or null if it did not
+		 */
+		public String getFailure() { return failure; }
+
+		/**
+		 * @return the game cycles simulated per second of real time
+		 */
+		public double getCyclesPerSecond() {
+			return nanos == 0 ? 0 : cycles * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return (isValid() ? "" : "FAILED " + failure + ", ") + cycles + " cycles against a make span of "
+					+ predicted + " (" + String.format("%.1f", getDivergence()) + " cycles each), gold " + gold
+					+ ", wood " + wood + ", peasants idle " + Arrays.toString(idle) + " cycles";
+		}
+	}
+}
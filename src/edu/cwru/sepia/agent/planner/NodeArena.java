@@ -0,0 +1,208 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append only store of search nodes kept off the Java heap.
+ *
+ * Every node is a fixed size record in a direct byte buffer: the packed state from the
+ * state codec followed by the cost from the start (g), the total cost (f), the index of
+ * the parent node, the code of the action that made the node and its depth. Nodes are
+ * addressed by their index, so a search only holds longs for its open list and parents
+ * instead of game state objects, and the garbage collector never has to look at them.
+ *
+ * The records live in pages that are allocated as the arena grows, so no record is ever
+ * copied. Releasing the arena drops every page at once.
+ *
+ * An arena can also be backed by a file, in which case every page is a memory mapped region
+ * of the file. The operating system then writes pages out and reads them back as needed, so
+ * the arena may grow far beyond physical memory.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class NodeArena {
+
+	//the index of the parent of a root node
+	public static final long NO_PARENT = -1;
+
+	//the default number of records in a page
+	public static final int DEFAULT_PAGE_RECORDS = 1 << 12;
+
+	private final int stateWords;
+
+	//the bytes of one record and the offsets of its fields
+	private final int recordBytes;
+	private final int gOffset;
+	private final int fOffset;
+	private final int parentOffset;
+	private final int actionOffset;
+	private final int depthOffset;
+
+	private final int pageRecords;
+
+	private final List<ByteBuffer> pages = new ArrayList<>();
+
+	private long size = 0;
+
+	//the file the pages are mapped from, or null for direct memory
+	private final File file;
+	private RandomAccessFile mapped;
+
+	/**
+	 * @param stateWords - the number of long words of a packed state
+	 * @param pageRecords - the number of records in every page
+	 */
+	public NodeArena(int stateWords, int pageRecords) {
+		this(stateWords, pageRecords, null);
+	}
+
+	/**
+	 * @param stateWords - the number of long words of a packed state
+	 * @param pageRecords - the number of records in every page
+	 * @param file - the file to map the pages from, or null to keep them in direct memory
+	 */
+	public NodeArena(int stateWords, int pageRecords, File file) {
+		this.file = file;
+		this.stateWords = stateWords;
+		this.pageRecords = pageRecords;
+		gOffset = stateWords * 8;
+		fOffset = gOffset + 4;
+		parentOffset = fOffset + 4;
+		actionOffset = parentOffset + 8;
+		depthOffset = actionOffset + 2;
+		recordBytes = depthOffset + 6;
+	}
+
+	/**
+	 * Appends a node to the arena.
+	 *
+	 * @param state - the packed state of the node
+	 * @param g - the cost from the start
+	 * @param f - the cost from the start plus the heuristic
+	 * @param parent - the index of the parent node, or NO_PARENT
+	 * @param action - the code of the action that made the node
+	 * @param depth - the number of actions from the start
+	 * @return the index of the new node
+	 */
+	public long add(long[] state, int g, int f, long parent, short action, int depth) {
+		long index = size;
+		ByteBuffer page = pageFor(index);
+		if (page == null) {
+			page = newPage().order(ByteOrder.nativeOrder());
+			pages.add(page);
+		}
+		int base = offset(index);
+		for (int i = 0; i < stateWords; i++) {
+			page.putLong(base + i * 8, state[i]);
+		}
+		page.putInt(base + gOffset, g);
+		page.putInt(base + fOffset, f);
+		page.putLong(base + parentOffset, parent);
+		page.putShort(base + actionOffset, action);
+		page.putInt(base + depthOffset, depth);
+		size++;
+		return index;
+	}
+
+	/**
+	 * Copies the packed state of a node into the given array.
+	 *
+	 * @param index - the index of the node
+	 * @param dst - the array to copy into, at least as long as a packed state
+	 */
+	public void readState(long index, long[] dst) {
+		ByteBuffer page = pageFor(index);
+		int base = offset(index);
+		for (int i = 0; i < stateWords; i++) {
+			dst[i] = page.getLong(base + i * 8);
+		}
+	}
+
+	public int getG(long index) {
+		return pageFor(index).getInt(offset(index) + gOffset);
+	}
+
+	public int getF(long index) {
+		return pageFor(index).getInt(offset(index) + fOffset);
+	}
+
+	public long getParent(long index) {
+		return pageFor(index).getLong(offset(index) + parentOffset);
+	}
+
+	public short getAction(long index) {
+		return pageFor(index).getShort(offset(index) + actionOffset);
+	}
+
+	public int getDepth(long index) {
+		return pageFor(index).getInt(offset(index) + depthOffset);
+	}
+
+	/**
+	 * @return the number of nodes in the arena
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the bytes of direct memory held by the pages
+	 */
+	public long getReservedBytes() {
+		return (long) pages.size() * pageRecords * recordBytes;
+	}
+
+	/**
+	 * Drops every page. The arena is empty afterwards and the direct memory is
+	 * returned once the pages are collected. The file of a file backed arena is deleted.
+	 */
+	public void release() {
+		if (mapped != null) {
+			for (ByteBuffer page : pages) {
+				SpillFile.unmap(page);
+			}
+		}
+		pages.clear();
+		size = 0;
+		if (mapped != null) {
+			try {
+				mapped.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mapped = null;
+			file.delete();
+		}
+	}
+
+	private ByteBuffer newPage() {
+		int pageBytes = recordBytes * pageRecords;
+		if (file == null) {
+			return ByteBuffer.allocateDirect(pageBytes);
+		}
+		try {
+			if (mapped == null) {
+				mapped = new RandomAccessFile(file, "rw");
+			}
+			return mapped.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) pages.size() * pageBytes, pageBytes);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map a page of " + file, e);
+		}
+	}
+
+	private ByteBuffer pageFor(long index) {
+		int page = (int) (index / pageRecords);
+		return page < pages.size() ? pages.get(page) : null;
+	}
+
+	private int offset(long index) {
+		return (int) (index % pageRecords) * recordBytes;
+	}
+}
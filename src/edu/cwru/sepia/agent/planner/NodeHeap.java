@@ -0,0 +1,90 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+
+/**
+ * The open list of the arena search: a binary min heap of node indices ordered by
+ * total cost. The costs are kept next to the indices so ordering the heap never
+ * reads the arena. Ties go to the node added last, which is the deepest one.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+class NodeHeap {
+
+	private long[] nodes = new long[1024];
+
+	private int[] costs = new int[1024];
+
+	private int size = 0;
+
+	/**
+	 * @param node - the index of the node in the arena
+	 * @param cost - the total cost of the node
+	 */
+	void push(long node, int cost) {
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, size * 2);
+			costs = Arrays.copyOf(costs, size * 2);
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(node, cost, nodes[parent], costs[parent])) {
+				break;
+			}
+			nodes[i] = nodes[parent];
+			costs[i] = costs[parent];
+			i = parent;
+		}
+		nodes[i] = node;
+		costs[i] = cost;
+	}
+
+	/**
+	 * @return the index of the node with the least total cost, which is removed
+	 */
+	long pop() {
+		long top = nodes[0];
+		size--;
+		long node = nodes[size];
+		int cost = costs[size];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(nodes[child + 1], costs[child + 1], nodes[child], costs[child])) {
+				child++;
+			}
+			if (!before(nodes[child], costs[child], node, cost)) {
+				break;
+			}
+			nodes[i] = nodes[child];
+			costs[i] = costs[child];
+			i = child;
+		}
+		nodes[i] = node;
+		costs[i] = cost;
+		return top;
+	}
+
+	/**
+	 * @return the total cost of the node pop would return
+	 */
+	int peekCost() {
+		return costs[0];
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static boolean before(long node, int cost, long other, int otherCost) {
+		return cost < otherCost || (cost == otherCost && node > other);
+	}
+}
@@ -1,60 +1,289 @@
 package edu.cwru.sepia.agent.planner;
 
 import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionFeedback;
+import edu.cwru.sepia.action.ActionResult;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.agent.planner.actions.*;
+import edu.cwru.sepia.environment.model.history.BirthLog;
 import edu.cwru.sepia.environment.model.history.History;
-import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.history.ResourceDropoffLog;
+import edu.cwru.sepia.environment.model.history.ResourcePickupLog;
 import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 /**
  * The Plan Execution Agent (PEA) executes a strips-like action plan for a
  * resource collection game in SEPIA.
- * 
+ *
+ * The agent does not poll the map to find out whether an action is done. It keeps
+ * a worker for every peasant with the place and cargo the plan gave it, and every
+ * step it reads what happened in the step before from the history: the command
+ * feedback of its units, the resource pickup and drop off logs and the birth logs.
+ * Each event finishes the command of one worker, so telling when an action is done
+ * takes time in the number of events rather than the number of units.
+ *
+ * Several actions of the plan run at once. The agent takes the next actions from the
+ * plan into a short window and starts each as soon as the peasants it needs are idle in
+ * the live game, in the same step the events free them, while the actions before it are
+ * still running. The only order kept is between actions that need the same peasants, so
+ * a peasant heading back to the town hall does not wait for another peasant to deposit.
+ *
  * @author Shaun Howard (smh150), Matt Swartwout (mws85)
  */
 public class PEAgent extends Agent {
 
 	private static final long serialVersionUID = -1895318461218130264L;
-	
-	//the strips action plan of states to execute in the game
-	private Stack<GameState> plan;
-	
+
+	//the cursor through the loop plan to execute in the game, which makes
+	//the state after each action as the action comes up
+	private LoopPlan.Cursor plan;
+
+	//the grounded actions the plan's action codes refer to
+	private final ActionTable table;
+
 	//id of the town hall on the map
 	private int townHallID;
 
-	//list of ids currently in the game
-	private List<Integer> currIds = new ArrayList<>();
+	//ids of the units that accept cargo, by the depot index of the actions
+	private final List<Integer> depotIDs;
+
+	//the peasants of the game by unit id, in the order they joined
+	private final Map<Integer, Worker> workers = new LinkedHashMap<>();
+
+	//the actions taken from the plan that are waiting or running, in plan order
+	private final List<Task> tasks = new ArrayList<>();
+
+	//the number of tasks in the list that have not started
+	private int waiting = 0;
+
+	//the task producing a peasant at the town hall, or null
+	private Task production = null;
+
+	//the command of the town hall for the production and how often it failed
+	private Action productionCommand = null;
+
+	private int productionRetries = 0;
+
+	//the durations actions take in the game are recorded here, null to not record them
+	private final transient DurationTable durations;
+
+	//the most plan actions that may wait to start at once
+	private static final int LOOKAHEAD = 8;
+
+	//the most times a failed command is issued again before the agent gives up on it
+	private static final int MAX_RETRIES = 20;
+
+	/**
+	 * What the agent knows of a peasant: where the plan put it, whether it carries
+	 * cargo and the task it is working on.
+	 *
+	 * A worker is idle until a task gives it a command. It is then working, with the
+	 * place and cargo the command leads to already set, until an event of the history
+	 * says the command is done, when it becomes idle again. A failed command keeps the
+	 * worker working and is issued again, up to MAX_RETRIES times, after which the agent
+	 * gives up on it as if it were done.
+	 */
+	private static class Worker {
+
+		final int id;
+
+		//the depot the peasant is at, or -1 if it is at a resource
+		int depot = 0;
+
+		//the resource the peasant is at, or -1 if it is at a depot
+		int resourceId = -1;
+
+		boolean loaded;
+
+		//the task the peasant works on and its command, or null if it is idle
+		Task task = null;
+
+		Action command = null;
+
+		//the times the command failed and was issued again
+		int retries = 0;
+
+		Worker(int id, boolean loaded) {
+			this.id = id;
+			this.loaded = loaded;
+		}
+	}
+
+	/**
+	 * An action of the plan with the peasants it needs: the idle peasants at one depot or
+	 * resource that carry cargo or not, or the town hall for building a peasant. An action
+	 * of the domain needs a peasant at the town hall to build its unit, or the town hall.
+	 * The task reads what it needs from the steps of its action.
+	 */
+	private static class Task implements ActionSteps<Void> {
+
+		final GameState nextState;
+
+		final StripsAction action;
+
+		final int count;
+
+		//where the peasants of the task must be, the depot index or else the resource id
+		int depot = -1;
+
+		int resourceId = -1;
+
+		boolean loaded = false;
+
+		//whether the task ends at a resource, which may be gone by the time it starts
+		boolean toResource = false;
+
+		//whether the town hall produces the unit of the task, and whether that is a peasant
+		boolean production = false;
+
+		boolean peasant = false;
 
-	// Whether a compound action is still executing in the current game state
-	private boolean isBusy;
+		//whether a peasant builds the unit of the task
+		boolean built = false;
 
-	public PEAgent(int playernum, Stack<GameState> plan) {
+		//the unit the task makes, or null, and the gold and wood it spends
+		String unit = null;
+
+		int goldCost = 0;
+
+		int woodCost = 0;
+
+		//the turn the task started, or -1 while it waits
+		int startedAt = -1;
+
+		//the workers, or the production, the task still waits for
+		int pending = 0;
+
+		Task(GameState nextState, StripsAction action) {
+			this.nextState = nextState;
+			this.action = action;
+			count = action.getPeasantCount();
+			action.carryOut(this);
+		}
+
+		@Override
+		public Void walk(int peasantCount, int resourceId, int depot, boolean toDepot) {
+			this.resourceId = resourceId;
+			this.depot = toDepot ? -1 : depot;
+			loaded = toDepot;
+			toResource = !toDepot;
+			return null;
+		}
+
+		@Override
+		public Void gather(int peasantCount, int resourceId) {
+			this.resourceId = resourceId;
+			toResource = true;
+			return null;
+		}
+
+		@Override
+		public Void deposit(int peasantCount, int depot) {
+			this.depot = depot;
+			loaded = true;
+			return null;
+		}
+
+		@Override
+		public Void producePeasant(int goldCost) {
+			production = true;
+			peasant = true;
+			unit = "Peasant";
+			this.goldCost = goldCost;
+			return null;
+		}
+
+		@Override
+		public Void make(SchemaAction action) {
+			production = !action.isBuilt();
+			built = action.isBuilt();
+			depot = action.isBuilt() ? 0 : -1;
+			unit = action.getUnit();
+			goldCost = action.getGoldCost();
+			woodCost = action.getWoodCost();
+			return null;
+		}
+
+		/**
+		 * @return whether the town hall produces what the task makes
+		 */
+		boolean isBuild() {
+			return production;
+		}
+
+		/**
+		 * @return whether the task takes the given worker if it is idle
+		 */
+		boolean fits(Worker worker) {
+			boolean there = depot >= 0 ? worker.depot == depot : worker.resourceId == resourceId;
+			return !isBuild() && there && worker.loaded == loaded;
+		}
+
+		/**
+		 * @return whether both tasks need the same kind of peasants, so the later one
+		 *         must not start before the earlier one
+		 */
+		boolean needsSame(Task other) {
+			if (isBuild() || other.isBuild()) {
+				return isBuild() && other.isBuild();
+			}
+
+			//a move from a depot takes its peasants by the depot, whatever resource it goes to
+			boolean samePlace = depot >= 0 ? other.depot == depot : other.depot < 0 && other.resourceId == resourceId;
+			return samePlace && loaded == other.loaded;
+		}
+	}
+
+	public PEAgent(int playernum, LoopPlan plan, ActionTable table, List<Integer> depotIDs) {
+		this(playernum, plan, table, depotIDs, null);
+	}
+
+	/**
+	 * @param playernum - the player to execute the plan for
+	 * @param plan - the plan to execute
+	 * @param table - the table the plan's action codes refer to
+	 * @param depotIDs - the ids of the units that accept cargo, the town hall first
+	 * @param durations - where to record how long every action takes, or null
+	 */
+	public PEAgent(int playernum, LoopPlan plan, ActionTable table, List<Integer> depotIDs,
+			DurationTable durations) {
 		super(playernum);
-		this.plan = plan;
+		this.plan = plan.cursor();
+		this.table = table;
+		this.depotIDs = depotIDs;
+		this.durations = durations;
 	}
 
 	@Override
 	public Map<Integer, Action> initialStep(State.StateView stateView,
 			History.HistoryView historyView) {
 
-		//Determine the unit of the town hall and get its id.
+		//Determine the unit of the town hall and get its id,
+		//and start every peasant idle at the town hall like the plan does.
+		workers.clear();
 		for (int id : stateView.getUnitIds(playernum)) {
 			Unit.UnitView unit = stateView.getUnit(id);
 			String typeName = unit.getTemplateView().getName();
 			if (typeName.equals("TownHall")){
 				townHallID = id;
+			} else if (typeName.equals("Peasant")) {
+				workers.put(id, new Worker(id, unit.getCargoAmount() > 0));
 			}
 		}
+		tasks.clear();
+		waiting = 0;
+		production = null;
+		productionCommand = null;
 		return middleStep(stateView, historyView);
 	}
 
@@ -66,14 +295,15 @@ public class PEAgent extends Agent {
 	 * The actions are stored in a mapping between the peasant unit ID
 	 * executing the action and the action you created.
 	 *
-	 * For the compound actions, we check their progress and wait
-	 * until they are complete before issuing another action for those units busy.
-	 * We do this so that we don't issue more actions before the compound action is complete
-	 * because then the peasant will stop what it was doing and begin executing the new action.
+	 * The events of the last step finish the commands of the workers. A failed
+	 * command is issued again, since the compound actions of SEPIA fail when another
+	 * unit is in the way, but only up to MAX_RETRIES times, since a command on a resource
+	 * that ran out fails for good. Then the next actions of the plan are started in the same step
+	 * wherever the live game allows: an action starts as soon as enough of the peasants it
+	 * needs are idle, even while earlier actions are still running, as long as no earlier
+	 * action that has not started needs the same peasants.
+	 * Loops of the plan are executed by the cursor, which repeats their actions.
 	 *
-	 * This method simply peeks for the next state in the plan (stack) and then
-	 * creates sepia actions from the given parent action of the next state.
-	 * 
 	 * @param stateView - the view of the current game state
 	 * @param historyView - the view of the game history
 	 * @return a map of peasant id numbers linked to planned actions
@@ -81,270 +311,330 @@ public class PEAgent extends Agent {
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView stateView,
 			History.HistoryView historyView) {
+		Map<Integer, Action> actions = new HashMap<>();
+		int turn = stateView.getTurnNumber();
+		if (turn > 0) {
+			readEvents(historyView, turn - 1, turn, actions);
+		}
 
-		// Find the next game state from the action plan
-		GameState nextState = plan.peek();
-		
-		//Get the parent action of the next game state
-		StripsAction pAction = nextState.parentAction;;
-
-		//Create a map of ids and actions to enact in the game
-		return createSepiaActions(nextState, pAction, stateView);
+		//Start every waiting action that can start, taking more from the plan as they do
+		boolean started = true;
+		while (started) {
+			while (waiting < LOOKAHEAD && plan.peek() != null) {
+				GameState nextState = plan.peek();
+				tasks.add(new Task(nextState, table.get(nextState.getParentActionCode())));
+				waiting++;
+				plan.pop();
+			}
+			started = startTasks(stateView, turn, actions);
+		}
+		return actions;
 	}
 
 	/**
-	 * Returns a SEPIA version of the specified Strips Action.
-	 * 
-	 * @param action
-	 *            StripsAction
-	 * @return SEPIA representation of same action
+	 * Starts the waiting tasks whose peasants are idle in the live game, in plan order.
+	 * A task waits behind any earlier waiting task that needs the same peasants. If nothing
+	 * runs and the first task still cannot start, the plan does not match the game, so it
+	 * starts with the peasants there are. Building a unit waits for the gold and wood, since
+	 * SEPIA refuses a command the player cannot afford, and is skipped if nothing runs that
+	 * could bring them in.
+	 *
+	 * @return whether any task started or was dropped
 	 */
-	private Map<Integer, Action> createSepiaActions(GameState nextState,
-			StripsAction action, State.StateView stateView) {
-		Map<Integer, Action> actions = new HashMap<>();
-		List<Integer> peasants = new ArrayList<Integer>();
-		
-		//Find the current amount of gold
-		for (int id : stateView.getUnitIds(playernum)) {
-			Unit.UnitView unit = stateView.getUnit(id);
-			String typeName = unit.getTemplateView().getName();
-			if (typeName.equals("Peasant")) {
-				peasants.add(id);
+	private boolean startTasks(State.StateView stateView, int turn, Map<Integer, Action> actions) {
+		boolean started = false;
+		boolean running = waiting < tasks.size();
+		List<Task> blocked = new ArrayList<>();
+		for (Task task : new ArrayList<>(tasks)) {
+			if (task.startedAt >= 0) {
+				continue;
 			}
-		}
-		
-		//Make a new SEPIA move action with the given peasants,
-		//initial positions, and next destinations
-		if (action instanceof MoveAction) {
-			MoveAction moveAction = (MoveAction) action;
-			Unit.UnitView townHallUnit = stateView.getUnit(townHallID);
-			Resource resource = nextState.getResourceWithId(moveAction
-					.getOriginId() == null ? moveAction.getDestId() : moveAction
-					.getOriginId());
-			boolean done = false;
-			int peasAtDest = 0, peasAdjToDest = 0;
-			int originX, originY, destX, destY;
-
-			//Have to set destination id to resources, unless we are traveling
-			//to the townhall
-			if (moveAction.toTownHall()) {
-				originX = resource.getX();
-				originY = resource.getY();
-				destX = townHallUnit.getXPosition();
-				destY = townHallUnit.getYPosition();
+			boolean behind = false;
+			for (Task earlier : blocked) {
+				behind |= earlier.needsSame(task);
+			}
+			boolean force = !running && blocked.isEmpty();
+			if (!behind && start(task, stateView, turn, force, actions)) {
+				waiting--;
+				started = true;
+				running |= task.pending > 0;
 			} else {
-				originX = townHallUnit.getXPosition();
-				originY = townHallUnit.getYPosition();
-				destX = resource.getX();
-				destY = resource.getY();
+				blocked.add(task);
 			}
+		}
+		return started;
+	}
 
-			//Find the number of peasants that should be at the destination
-			for (Peasant peasant : nextState.peasants) {
-				if (moveAction.toTownHall() && peasant.getAdjacentResource() == null
-						&& peasant.getCargoAmount() > 0) {
-					peasAtDest++;
-					currIds.add(peasant.id);
-				}
-				if (!moveAction.toTownHall() && peasant.getAdjacentResource() != null) {
-					peasAtDest++;
-					currIds.add(peasant.id);
-				}
+	/**
+	 * Gives the workers a task needs their commands. The place and cargo of each worker are
+	 * set to where the task leaves it, since an idle worker only ever has those. A task whose
+	 * resource is gone needs no workers and is done right away.
+	 *
+	 * @param force - whether to start with fewer peasants than the task needs, or to skip
+	 *                a build the player cannot afford
+	 * @return whether the task started
+	 */
+	private boolean start(Task task, State.StateView stateView, int turn, boolean force,
+			Map<Integer, Action> actions) {
+
+		//Create a sepia production action from the template id once the gold and wood are in
+		if (task.isBuild()) {
+			if (production != null) {
+				return false;
 			}
-			
-			//alter the move to be for less peasants if necessary
-			if (moveAction.getPeasantCount() < peasAtDest) {
-				peasAtDest = moveAction.getPeasantCount();
+			if (!affords(task, stateView)) {
+				return skipUnaffordable(task, turn, force);
 			}
+			if (task.unit == null || stateView.getTemplate(playernum, task.unit) == null) {
+				task.startedAt = turn;
+				complete(task, turn);
+				return true;
+			}
+			int id = stateView.getTemplate(playernum, task.unit).getID();
+			productionCommand = Action.createCompoundProduction(townHallID, id);
+			productionRetries = 0;
+			actions.put(townHallID, productionCommand);
+			production = task;
+			task.pending = 1;
+			task.startedAt = turn;
+			return true;
+		}
 
-			//Determine if the right number of peasants are at the destination
-			for (int id : peasants) {
-				Unit.UnitView peasant = stateView.getUnit(id);
-
-				//Are peasants adjacent to destination when they should be?
-				if (isAdjacent(peasant.getXPosition(), peasant.getYPosition(),
-						destX, destY)
-						&& peasants.contains(peasant.getID())
-						&& ++peasAdjToDest == peasAtDest) {
-					done = true;
-				}
+		//A peasant builds the unit of an action of the domain once the gold and wood are in
+		if (task.built) {
+			if (task.unit == null || stateView.getTemplate(playernum, task.unit) == null) {
+				task.startedAt = turn;
+				complete(task, turn);
+				return true;
+			}
+			if (!affords(task, stateView)) {
+				return skipUnaffordable(task, turn, force);
 			}
+		}
 
-			//Check to see if we are done moving
-			//Can be done when the desired resource is all gathered
-			if (done || (!moveAction.toTownHall()
-					&& stateView.resourceAt(destX, destY) == null)) {
-				plan.pop();
-				isBusy = false;
-				currIds.clear();
-			} else if (!isBusy) {
-				isBusy = true;
-
-				int currPeas = 0;
-
-				//Command each peasant to move to the desired location
-				for (int id : peasants) {
-					Unit.UnitView peasant = stateView.getUnit(id);
-
-					//Have them move to the desired x and y if they should be there
-					if (isAdjacent(peasant.getXPosition(),
-							peasant.getYPosition(), originX, originY)
-							&& currPeas++ < moveAction.getPeasantCount()
-							&& currIds.contains(peasant.getID())) {
-						
-						//create move action for this peasant to the destination
-						actions.put(id,
-								Action.createCompoundMove(id, destX, destY));
-					}
-				}
+		//Can be done when the desired resource is all gathered
+		Resource resource = task.resourceId < 0 ? null : task.nextState.getResourceWithId(task.resourceId);
+		if (task.toResource && stateView.resourceAt(resource.getX(), resource.getY()) == null) {
+			task.startedAt = turn;
+			complete(task, turn);
+			return true;
+		}
+
+		List<Worker> idle = new ArrayList<>();
+		for (Worker worker : workers.values()) {
+			if (worker.task == null && task.fits(worker) && idle.size() < task.count) {
+				idle.add(worker);
 			}
 		}
+		if (idle.size() < task.count && !force) {
+			return false;
+		}
+		if (idle.size() < task.count) {
+			System.err.println("Only " + idle.size() + " of " + task.count + " peasants can execute " + task.action);
+		}
+		task.startedAt = turn;
+		for (Worker worker : idle) {
+			worker.task = task;
+			worker.command = command(worker, task.action, resource, stateView);
+			worker.retries = 0;
+			actions.put(worker.id, worker.command);
+			task.pending++;
+		}
+		if (task.pending == 0) {
+			complete(task, turn);
+		}
+		return true;
+	}
 
-		//Make a new SEPIA gather action for the given number of peasants and 
-		//of the desired resource.
-		if (action instanceof HarvestAction) {
-			HarvestAction gatherAction = (HarvestAction) action;
-
-			boolean done = false;
-			int currPeas = 0;
-
-			//Determine if each peasant at the target is carrying cargo
-			for (int id : peasants) {
-				Unit.UnitView peasant = stateView.getUnit(id);
-				
-				//When the desired peasants have gathered cargo we are done.
-				if (isAdjacent(peasant.getXPosition(), peasant.getYPosition(),
-						gatherAction.getResourceX(), gatherAction.getResourceY())
-						&& peasant.getCargoAmount() > 0
-						&& ++currPeas == gatherAction.getPeasantCount()) {
-					done = true;
+	/**
+	 * Waits with a build until the player affords it, unless nothing runs that could bring
+	 * the gold and wood in, when the build is skipped instead of waiting forever.
+	 *
+	 * @param force - whether nothing runs and no earlier task waits
+	 * @return whether the task was skipped
+	 */
+	private boolean skipUnaffordable(Task task, int turn, boolean force) {
+		if (!force) {
+			return false;
+		}
+		System.err.println("The player cannot afford " + task.action + " and nothing runs to change that, skipping it");
+		task.startedAt = turn;
+		complete(task, turn);
+		return true;
+	}
+
+	/**
+	 * Finishes the commands the events of a step report as done and issues the failed
+	 * commands again, giving up on a command that failed more than MAX_RETRIES times.
+	 *
+	 * @param historyView - the view of the game history
+	 * @param step - the step to read the events of
+	 * @param turn - the current turn
+	 * @param actions - the commands to issue this step
+	 */
+	private void readEvents(History.HistoryView historyView, int step, int turn, Map<Integer, Action> actions) {
+		for (Map.Entry<Integer, ActionResult> entry : historyView.getCommandFeedback(playernum, step).entrySet()) {
+			if (entry.getKey() == townHallID) {
+				retryProduction(entry.getValue().getFeedback(), turn, actions);
+				continue;
+			}
+			Worker worker = workers.get(entry.getKey());
+			if (worker == null || worker.task == null) {
+				continue;
+			}
+			ActionFeedback feedback = entry.getValue().getFeedback();
+			if (feedback == ActionFeedback.COMPLETED) {
+				done(worker, turn);
+			} else if (feedback == ActionFeedback.FAILED || feedback == ActionFeedback.INCOMPLETEMAYBESTUCK) {
+				if (++worker.retries > MAX_RETRIES) {
+					System.err.println("Peasant " + worker.id + " gave up on " + worker.command + " after "
+							+ MAX_RETRIES + " retries");
+					done(worker, turn);
+				} else {
+					actions.put(worker.id, worker.command);
 				}
+			} else if (feedback != ActionFeedback.INCOMPLETE) {
+				System.err.println("Peasant " + worker.id + " cannot execute " + worker.command + ": " + feedback);
+				done(worker, turn);
 			}
+		}
 
-			//Determine if the desired resource is already gone,
-			//then we are also done.
-			if (stateView.resourceAt(gatherAction.getResourceX(),
-					gatherAction.getResourceY()) == null) {
-				done = true;
+		//the cargo changes hands in the step the gather or deposit is done
+		for (ResourcePickupLog pickup : historyView.getResourcePickupLogs(step)) {
+			Worker worker = workers.get(pickup.getGathererID());
+			if (worker != null && worker.task != null) {
+				done(worker, turn);
 			}
+		}
+		for (ResourceDropoffLog dropoff : historyView.getResourceDropoffLogs(step)) {
+			Worker worker = workers.get(dropoff.getGathererID());
+			if (worker != null && worker.task != null) {
+				done(worker, turn);
+			}
+		}
 
-			//Remove this action from plan
-			if (done) {
-				plan.pop();
-				isBusy = false;
-				currIds.clear();
-			} else if (!isBusy) {
-				
-				int peasAssigned = 0;
-				
-				//Command peasants to gather the desired resource
-				for (int id : peasants) {
-					Unit.UnitView peasant = stateView.getUnit(id);
-
-					//Determine if we can get cargo with this peasant
-					if (peasant.getCargoAmount() <= 0
-							&& peasAssigned++ < gatherAction.getPeasantCount()) {
-						
-						//Is this peasant adjacent to the resource?
-						if (isAdjacent(peasant.getXPosition(),
-								peasant.getYPosition(), gatherAction.getResourceX(),
-								gatherAction.getResourceY())) {
-							
-							//Create a gather action to the desired resource
-							actions.put(id, Action.createCompoundGather(id,
-									stateView.resourceAt(
-											gatherAction.getResourceX(),
-											gatherAction.getResourceY())));
-						}
-						isBusy = true;
-					} else { //otherwise we are not busy anymore
-						isBusy = false;
-					}
+		//a new peasant starts idle at the town hall that made it
+		for (BirthLog birth : historyView.getBirthLogs(step)) {
+			if (production != null && birth.getParentID() == townHallID) {
+				if (production.peasant) {
+					workers.put(birth.getNewUnitID(), new Worker(birth.getNewUnitID(), false));
+				}
+				Task task = production;
+				production = null;
+				productionCommand = null;
+				if (--task.pending == 0) {
+					complete(task, turn);
 				}
 			}
 		}
+	}
+
+	/**
+	 * Issues the production of the town hall again if it failed, or drops its task once it
+	 * failed more than MAX_RETRIES times, so a later production is not refused forever.
+	 *
+	 * @param feedback - the feedback of the town hall's command
+	 * @param turn - the current turn
+	 * @param actions - the commands to issue this step
+	 */
+	private void retryProduction(ActionFeedback feedback, int turn, Map<Integer, Action> actions) {
+		if (production == null
+				|| (feedback != ActionFeedback.FAILED && feedback != ActionFeedback.INCOMPLETEMAYBESTUCK)) {
+			return;
+		}
+		if (++productionRetries > MAX_RETRIES) {
+			System.err.println("The town hall gave up on " + production.action + " after " + MAX_RETRIES + " retries");
+			Task task = production;
+			production = null;
+			productionCommand = null;
+			if (--task.pending == 0) {
+				complete(task, turn);
+			}
+		} else {
+			actions.put(townHallID, productionCommand);
+		}
+	}
 
-		//Create a SEPIA deposit action
-		//At the townhall in the game
-		if (action instanceof DepositAction) {
-			boolean done = false;
-			DepositAction depositAction = (DepositAction) action;
-			
-			int currPeas = 0;
-			
-			//Determine the peasants without cargo
-			for (int id : peasants) {
-				Unit.UnitView peasant = stateView.getUnit(id);
-
-				//Check if the peasant has any cargo, else move on.
-				if (peasant.getCargoType() == null
-						&& peasant.getCargoAmount() == 0) {
-					currPeas++;
+	/**
+	 * Ends the command of a worker, which already has the place and cargo the command
+	 * leads to, and its task once no other worker is left on it.
+	 */
+	private void done(Worker worker, int turn) {
+		Task task = worker.task;
+		worker.task = null;
+		worker.command = null;
+		if (--task.pending == 0) {
+			complete(task, turn);
+		}
+	}
+
+	/**
+	 * Makes the SEPIA command of a worker for the steps of an action and moves the worker to
+	 * where the action leaves it.
+	 *
+	 * @return the SEPIA command
+	 */
+	private Action command(Worker worker, StripsAction action, Resource resource, State.StateView stateView) {
+		return action.carryOut(new ActionSteps<Action>() {
+			@Override
+			public Action walk(int peasantCount, int resourceId, int depot, boolean toDepot) {
+				if (toDepot) {
+					Unit.UnitView unit = stateView.getUnit(depotIDs.get(depot));
+					worker.depot = depot;
+					worker.resourceId = -1;
+					return Action.createCompoundMove(worker.id, unit.getXPosition(), unit.getYPosition());
 				}
+				worker.depot = -1;
+				worker.resourceId = resourceId;
+				return Action.createCompoundMove(worker.id, resource.getX(), resource.getY());
 			}
-			
-			//Check if we have met action requirements
-			if (currPeas >= depositAction.getPeasantCount() &&
-					currPeas == peasants.size()) {
-				done = true;
+
+			@Override
+			public Action gather(int peasantCount, int resourceId) {
+				worker.loaded = true;
+				return Action.createCompoundGather(worker.id, resourceId);
 			}
 
-			//Determine if the correct amount of resources have been gathered
-			//Then we can remove this action
-			if (done || (stateView.getResourceAmount(playernum, ResourceType.GOLD) == nextState.gold && stateView
-					.getResourceAmount(playernum, ResourceType.WOOD) == nextState.wood)) {
-				plan.pop();
-				isBusy = false;
-				currIds.clear();
-			} else if (!isBusy) {
-				isBusy = true;
-				currPeas = 0;
-				
-				//Command peasants at the town hall to deposit resources
-				for (int id : peasants) {
-					Unit.UnitView peasant = stateView.getUnit(id);
-
-					//Create a deposit action for this peasant
-					actions.put(id,
-							Action.createCompoundDeposit(id, townHallID));
-				}
+			@Override
+			public Action deposit(int peasantCount, int depot) {
+				worker.loaded = false;
+				return Action.createCompoundDeposit(worker.id, depotIDs.get(depot));
 			}
-		}
 
-		//Create a sepia build peasant action
-		//from the template id
-		if (action instanceof BuildPeasantAction) {
-			
-			//Determine if we have the correct number of peasants
-			//then we are done and can remove this action
-			if (peasants.size() == nextState.peasants.size()) {
-				plan.pop();
-				isBusy = false;
-				currIds.clear();
-			} else if (!isBusy) {
-				int id = stateView.getTemplate(playernum, "Peasant").getID();
-				currIds.add(id);
-				isBusy = true;
-				
-				//Otherwise create a new production action with the given id
-				actions.put(townHallID,
-						Action.createCompoundProduction(townHallID, id));
+			@Override
+			public Action producePeasant(int goldCost) {
+				throw new IllegalStateException("The town hall produces peasants, not peasant " + worker.id);
 			}
-		}
-		return actions;
+
+			@Override
+			public Action make(SchemaAction schema) {
+				Unit.UnitView townHall = stateView.getUnit(townHallID);
+				int[] site = stateView.getClosestOpenPosition(townHall.getXPosition() + 2, townHall.getYPosition() + 2);
+				int template = stateView.getTemplate(playernum, schema.getUnit()).getID();
+				return Action.createCompoundBuild(worker.id, template, site[0], site[1]);
+			}
+		});
 	}
 
 	/**
-	 * Checks if the two sets of given coordinates are adjacent.
-	 * 
-	 * @param x1 - the x of the first thing
-	 * @param y1 - the y of the first thing
-	 * @param x2 - the x of the second thing
-	 * @param y2 - the y of the second thing
-	 * @return whether the two sets of coordinates are adjacent
+	 * @return whether the player has the gold and wood a task spends
 	 */
-	public static boolean isAdjacent(int x1, int y1, int x2, int y2) {
-		return Math.abs(x1 - x2) + Math.abs(y1 - y2) <= 2;
+	private boolean affords(Task task, State.StateView stateView) {
+		return stateView.getResourceAmount(playernum, ResourceType.GOLD) >= task.goldCost
+				&& stateView.getResourceAmount(playernum, ResourceType.WOOD) >= task.woodCost;
+	}
+
+	/**
+	 * Drops a task that is done and records the turns it took from the turn it started.
+	 *
+	 * @param task - the task that is done
+	 * @param turn - the current turn
+	 */
+	private void complete(Task task, int turn) {
+		tasks.remove(task);
+		if (durations != null) {
+			durations.record(table.getKey(task.nextState.getParentActionCode()), turn - task.startedAt);
+		}
 	}
 
 	@Override
@@ -0,0 +1,224 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A set of 128 bit state fingerprints for the closed sets of the searches.
+ *
+ * The fingerprints are kept in a single open addressing table off the Java heap. Every slot
+ * is two longs in a direct byte buffer and collisions are resolved by linear probing, so an
+ * entry costs 16 bytes divided by the load factor and a lookup is a few reads of adjacent
+ * memory, instead of a hash map node, a game state object graph and calls to its equals.
+ * The table doubles into a new buffer when it is half full.
+ *
+ * A slot of two zero words is empty, so fingerprints are made with a nonzero low word.
+ * Two different states share a 128 bit fingerprint with a chance far below anything a
+ * search of this size could notice.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PackedStateSet {
+
+	private static final int SLOT_BYTES = 16;
+
+	//the most slots a single direct buffer can address
+	private static final int MAX_CAPACITY = 1 << 26;
+
+	//the seeds of the two halves of a fingerprint
+	public static final long HIGH_SEED = 0x9E3779B97F4A7C15L;
+	public static final long LOW_SEED = 0xC2B2AE3D27D4EB4FL;
+
+	private ByteBuffer table;
+
+	private int capacity;
+
+	private int size = 0;
+
+	//the slots looked at by a batched lookup, reused between batches
+	private int[] batchSlots = new int[64];
+
+	/**
+	 * Creates a set for about the given number of fingerprints before it first grows.
+	 *
+	 * @param expected - the number of fingerprints expected
+	 */
+	public PackedStateSet(int expected) {
+		capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		table = allocate(capacity);
+	}
+
+	/**
+	 * Adds a fingerprint to the set.
+	 *
+	 * @param high - the high word of the fingerprint
+	 * @param low - the low word of the fingerprint, not zero
+	 * @return true if the fingerprint was not in the set before
+	 */
+	public boolean add(long high, long low) {
+		if ((size + 1) * 2 > capacity) {
+			grow();
+		}
+		int slot = probe(table, capacity, high, low, slotOf(high, capacity));
+		if (table.getLong(slot * SLOT_BYTES + 8) != 0) {
+			return false;
+		}
+		table.putLong(slot * SLOT_BYTES, high);
+		table.putLong(slot * SLOT_BYTES + 8, low);
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param high - the high word of the fingerprint
+	 * @param low - the low word of the fingerprint
+	 * @return true if the fingerprint is in the set
+	 */
+	public boolean contains(long high, long low) {
+		int slot = probe(table, capacity, high, low, slotOf(high, capacity));
+		return table.getLong(slot * SLOT_BYTES + 8) != 0;
+	}
+
+	/**
+	 * Looks up a batch of fingerprints at once, such as all the children of an expanded
+	 * state. The home slots of the whole batch are computed before any of them is probed
+	 * so the reads of the table are issued back to back.
+	 *
+	 * @param highs - the high words of the fingerprints
+	 * @param lows - the low words of the fingerprints
+	 * @param count - the number of fingerprints in the batch
+	 * @param found - set to whether each fingerprint is in the set
+	 */
+	public void containsAll(long[] highs, long[] lows, int count, boolean[] found) {
+		if (batchSlots.length < count) {
+			batchSlots = new int[Math.max(count, batchSlots.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			batchSlots[i] = slotOf(highs[i], capacity);
+		}
+		for (int i = 0; i < count; i++) {
+			int slot = probe(table, capacity, highs[i], lows[i], batchSlots[i]);
+			found[i] = table.getLong(slot * SLOT_BYTES + 8) != 0;
+		}
+	}
+
+	/**
+	 * @return the number of fingerprints in the set
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the bytes of direct memory held by the table
+	 */
+	public long getReservedBytes() {
+		return (long) capacity * SLOT_BYTES;
+	}
+
+	/**
+	 * Mixes one more word into a running fingerprint half.
+	 *
+	 * @param hash - the fingerprint half so far, starting from a seed
+	 * @param word - the word to mix in
+	 * @return the new fingerprint half
+	 */
+	public static long mix(long hash, long word) {
+		hash ^= word * 0xBF58476D1CE4E5B9L;
+		hash = Long.rotateLeft(hash, 31) * 0x94D049BB133111EBL;
+		return hash;
+	}
+
+	/**
+	 * Finishes a fingerprint half so every bit of it depends on every word mixed in.
+	 *
+	 * @param hash - the mixed fingerprint half
+	 * @return the final fingerprint half
+	 */
+	public static long finish(long hash) {
+		hash ^= hash >>> 30;
+		hash *= 0xBF58476D1CE4E5B9L;
+		hash ^= hash >>> 27;
+		hash *= 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+
+	/**
+	 * Makes the low word of a fingerprint, which is never zero so it cannot look like an empty slot.
+	 *
+	 * @param hash - the finished low half
+	 * @return the low word of the fingerprint
+	 */
+	public static long nonZero(long hash) {
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * @param words - a packed state
+	 * @return the high word of the fingerprint of the packed state
+	 */
+	public static long high(long[] words) {
+		long hash = HIGH_SEED;
+		for (long word : words) {
+			hash = mix(hash, word);
+		}
+		return finish(hash);
+	}
+
+	/**
+	 * @param words - a packed state
+	 * @return the low word of the fingerprint of the packed state
+	 */
+	public static long low(long[] words) {
+		long hash = LOW_SEED;
+		for (long word : words) {
+			hash = mix(hash, word);
+		}
+		return nonZero(finish(hash));
+	}
+
+	/**
+	 * Finds the slot holding the fingerprint or the empty slot where it would go.
+	 */
+	private static int probe(ByteBuffer table, int capacity, long high, long low, int slot) {
+		int mask = capacity - 1;
+		while (true) {
+			long slotLow = table.getLong(slot * SLOT_BYTES + 8);
+			if (slotLow == 0 || (slotLow == low && table.getLong(slot * SLOT_BYTES) == high)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private static int slotOf(long high, int capacity) {
+		return (int) (high ^ (high >>> 32)) & (capacity - 1);
+	}
+
+	private void grow() {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IllegalStateException("The closed set cannot hold more than " + MAX_CAPACITY / 2 + " states");
+		}
+		int newCapacity = capacity << 1;
+		ByteBuffer newTable = allocate(newCapacity);
+		for (int slot = 0; slot < capacity; slot++) {
+			long low = table.getLong(slot * SLOT_BYTES + 8);
+			if (low != 0) {
+				long high = table.getLong(slot * SLOT_BYTES);
+				int newSlot = probe(newTable, newCapacity, high, low, slotOf(high, newCapacity));
+				newTable.putLong(newSlot * SLOT_BYTES, high);
+				newTable.putLong(newSlot * SLOT_BYTES + 8, low);
+			}
+		}
+		table = newTable;
+		capacity = newCapacity;
+	}
+
+	private static ByteBuffer allocate(int capacity) {
+		//a new direct buffer is zeroed, so every slot starts empty
+		return ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+	}
+}
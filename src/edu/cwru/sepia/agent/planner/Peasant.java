@@ -26,6 +26,9 @@ public class Peasant {
     //the unique id of the peasant
     public int id;
 
+    //the depot the peasant is at or last left, by its index
+    private int depot = 0;
+
     /**
      * Constructs a new plan peasant from the amount of cargo it should have,
      * the position it should have in x and y, and the id it should have.
@@ -66,6 +69,16 @@ public class Peasant {
      */
     public void setAdjacentResource(Resource adjRes) { this.adjacentResource = adjRes; }
 
+    /**
+     * Gets the depot this peasant is at when it is not next to a resource, or the one
+     * it last left otherwise. The town hall that builds peasants is depot 0.
+     * 
+     * @return the index of the depot
+     */
+    public int getDepot() { return depot; }
+
+    public void setDepot(int depot) { this.depot = depot; }
+
     public ResourceNode.Type getCargo() {
         return cargoType;
     }
@@ -83,7 +96,7 @@ public class Peasant {
     @Override
     public String toString() {
     	StringBuilder builder = new StringBuilder();
-        builder.append("(" + (adjacentResource == null ? "TownHall" : adjacentResource.getId()));
+        builder.append("(" + (adjacentResource != null ? adjacentResource.getId() : depot == 0 ? "TownHall" : "Depot" + depot));
         if(cargoType != null){
             builder.append("," + (cargoType.equals(ResourceNode.Type.GOLD_MINE) ? "Gold" : "Wood"));
         }
@@ -92,7 +105,7 @@ public class Peasant {
     }
     
     /**
-     * Equals is based on the peasants coordinates and its cargo type and value.
+     * Equals is based on the peasants coordinates, its cargo type and value and its depot.
      * @return true if two peasants are eual
      */
     @Override
@@ -101,7 +114,8 @@ public class Peasant {
     		return false;
     	} else {
     		Peasant p = (Peasant)o;
-    		return p.x == this.x && p.y == this.y && p.cargoAmount == this.cargoAmount && p.cargoType == this.cargoType;
+    		return p.x == this.x && p.y == this.y && p.cargoAmount == this.cargoAmount && p.cargoType == this.cargoType
+    				&& p.depot == this.depot;
     	}
     }
 }
@@ -0,0 +1,174 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact binary format for plans so that a plan found once can be replayed in
+ * later runs without searching again.
+ *
+ * The file starts with a header holding a magic number, the format version, the
+ * required gold and wood of the plan and the number of actions. Every action then
+ * takes a fixed 16 byte record:
+ *
+ * kind (1 byte), peasant count (1 byte), peasants in the game afterwards (1 byte),
+ * depot of a move or deposit (1 byte), resource id or -1 (4 bytes), gold afterwards (4 bytes),
+ * wood afterwards (4 bytes)
+ *
+ * The kind, peasant count, depot and resource id are the parts of the key of the action,
+ * so the file names actions the way the action table does and a record is decoded by
+ * looking its key up in the table. Files from before there were depots have 0 in the
+ * depot byte, the town hall. The actions of a domain have their position in the domain
+ * in place of the resource id.
+ *
+ * The gold, wood and peasant values are checkpoints. When a plan is loaded its records
+ * are decoded straight into the action codes the loop plan executes, and the actions
+ * are replayed on the initial state of the game one state at a time. The required gold
+ * and wood and every checkpoint must match, so a plan saved for another map or goal is
+ * rejected instead of executed.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlanFile {
+
+	//"PLAN" in ASCII
+	private static final int MAGIC = 0x504C414E;
+
+	private static final short VERSION = 1;
+
+	private static final int HEADER_BYTES = 4 + 2 + 4 + 4 + 4;
+
+	private static final int RECORD_BYTES = 16;
+
+	/**
+	 * Encodes a plan into the binary format. The checkpoints are taken by replaying the
+	 * actions on the initial state, one state at a time.
+	 *
+	 * @param initial - the state the plan starts from
+	 * @param codes - the codes of the plan, first action first
+	 * @param goal - the goal state the plan reaches
+	 * @param table - the table the plan's action codes refer to
+	 * @return a buffer holding the encoded plan, ready to be written
+	 */
+	public static ByteBuffer encode(GameState initial, short[] codes, GameState goal, ActionTable table) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + RECORD_BYTES * codes.length);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putInt(goal.gold);
+		buffer.putInt(goal.wood);
+		buffer.putInt(codes.length);
+
+		GameState state = initial;
+		for (short code : codes) {
+			long key = table.getKey(code);
+			state = table.apply(code, state);
+			state.setParent(null);
+			buffer.put((byte) ActionTable.kindOf(key));
+			buffer.put((byte) ActionTable.peasantCountOf(key));
+			buffer.put((byte) state.getPeasantCount());
+			buffer.put((byte) ActionTable.depotOf(key));
+			buffer.putInt(ActionTable.resourceOf(key));
+			buffer.putInt(state.gold);
+			buffer.putInt(state.wood);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Loads a plan from the given file by mapping it into memory and replaying every
+	 * action on the initial state. No search is done.
+	 *
+	 * @param file - the binary plan file
+	 * @param initial - the initial state of the current game
+	 * @param goal - the goal state of the current game
+	 * @param table - the grounded actions of the current game
+	 * @return the codes of the plan, first action first, or null if the file does not
+	 *         hold a valid plan for this game
+	 */
+	public static short[] load(File file, GameState initial, GameState goal, ActionTable table) {
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(file, "r");
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return replay(buffer, initial, goal, table);
+		} catch (IOException e) {
+			System.err.println("Could not read plan file " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes the records in the buffer into action codes and replays them on the initial
+	 * state, checking every precondition and checkpoint along the way. Only the state
+	 * before and after each action is kept.
+	 */
+	static short[] replay(ByteBuffer buffer, GameState initial, GameState goal, ActionTable table) {
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+			System.err.println("Not a plan file of version " + VERSION);
+			return null;
+		}
+		int gold = buffer.getInt();
+		int wood = buffer.getInt();
+		int count = buffer.getInt();
+		if (buffer.remaining() < count * RECORD_BYTES) {
+			System.err.println("The plan file is truncated");
+			return null;
+		}
+		if (gold != goal.gold || wood != goal.wood) {
+			System.err.println("The plan file was made for " + gold + " gold and " + wood
+					+ " wood, not " + goal.gold + " gold and " + goal.wood + " wood");
+			return null;
+		}
+
+		short[] codes = new short[count];
+		GameState state = initial;
+		for (int i = 0; i < count; i++) {
+			byte kind = buffer.get();
+			int peasantCount = buffer.get();
+			int peasantsAfter = buffer.get();
+			int depot = buffer.get();
+			int resId = buffer.getInt();
+			int goldAfter = buffer.getInt();
+			int woodAfter = buffer.getInt();
+
+			short code = table.getCode(ActionTable.key(kind, peasantCount, resId, depot));
+			StripsAction action = table.get(code);
+			if (action == null || !action.preconditionsMet(state, goal)) {
+				System.err.println("Action " + (i + 1) + " of the plan file cannot be applied: " + action);
+				return null;
+			}
+			codes[i] = code;
+			GameState next = table.apply(code, state);
+			next.setParent(null);
+
+			if (next.gold != goldAfter || next.wood != woodAfter || next.getPeasantCount() != peasantsAfter) {
+				System.err.println("Action " + (i + 1) + " of the plan file does not reach its checkpoint");
+				return null;
+			}
+			state = next;
+		}
+
+		if (!state.isGoal(goal)) {
+			System.err.println("The plan file does not reach the goal");
+			return null;
+		}
+		return codes;
+	}
+}
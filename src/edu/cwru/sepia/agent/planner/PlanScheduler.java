@@ -0,0 +1,132 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.ResourceAllocator.Allocation;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * The low level of the hierarchical planner. The scheduler takes an allocation of
+ * trips and peasant builds and expands it into the same stack of game states the
+ * A* search produces, so the plan execution agent cannot tell the two apart.
+ *
+ * Each round sends as many peasants as the allocation still needs at the resource
+ * from the town hall, harvests, moves back and deposits. Peasants are built before
+ * the rounds the allocation chose. Every action is checked against its preconditions
+ * before it is applied, so a bad allocation gives no plan rather than a broken one.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlanScheduler {
+
+	//every grounded action of the game
+	private final ActionTable table;
+
+	/**
+	 * @param table - the grounded actions the plan is made of
+	 */
+	public PlanScheduler(ActionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Expands the given allocation into a plan.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the state with the required gold and wood
+	 * @param allocation - the trips and builds chosen by the resource allocator
+	 * @return the plan with the first action on top, or null if the allocation cannot be scheduled
+	 */
+	public Stack<GameState> schedule(GameState initial, GameState goal, Allocation allocation) {
+		List<Integer> buildRounds = allocation.getBuildRounds();
+		short build = table.build();
+		GameState state = initial;
+		int nextBuild = 0;
+		int round = 0;
+
+		for (Map.Entry<Integer, Integer> entry : allocation.getTrips().entrySet()) {
+			int resId = entry.getKey();
+			int remaining = entry.getValue();
+
+			while (remaining > 0 && state != null) {
+				//build the peasants the allocator wanted before this round
+				while (state != null && nextBuild < buildRounds.size() && buildRounds.get(nextBuild) == round) {
+					state = step(state, build, goal);
+					nextBuild++;
+				}
+				if (state == null) {
+					break;
+				}
+
+				//one move-harvest-move-deposit round with every peasant that is needed,
+				//which leave from the depots they are at and return to the nearest one
+				int count = Math.min(state.getPeasantCount(), remaining);
+				int sent = 0;
+				for (int depot = 0; depot < table.getDepotCount() && sent < count && state != null; depot++) {
+					int group = Math.min(count - sent, idleAt(state, depot));
+					if (group > 0) {
+						state = step(state, table.move(group, resId, false, depot), goal);
+						sent += group;
+					}
+				}
+				int dropOff = table.nearestDepot(resId);
+				state = step(state, table.harvest(count, resId), goal);
+				state = step(state, table.move(count, resId, true, dropOff), goal);
+				state = step(state, table.deposit(count, dropOff), goal);
+
+				remaining -= count;
+				round++;
+			}
+		}
+
+		//peasants the allocator left for the end of the plan
+		while (state != null && nextBuild < buildRounds.size()) {
+			state = step(state, build, goal);
+			nextBuild++;
+		}
+
+		if (state == null || !state.isGoal(goal)) {
+			System.err.println("The allocation could not be scheduled: " + allocation);
+			return null;
+		}
+		return PlannerAgent.buildPath(state);
+	}
+
+	/**
+	 * @return the number of peasants waiting without cargo at the given depot
+	 */
+	private static int idleAt(GameState state, int depot) {
+		int idle = 0;
+		for (Peasant peasant : state.peasants) {
+			if (peasant.getAdjacentResource() == null && peasant.getCargo() == null && peasant.getDepot() == depot) {
+				idle++;
+			}
+		}
+		return idle;
+	}
+
+	/**
+	 * Applies a single action if its preconditions hold, tracking the cost of the plan so far.
+	 *
+	 * @param state - the state to apply the action to, or null if scheduling already failed
+	 * @param code - the code of the action to apply
+	 * @param goal - the goal state of the plan
+	 * @return the resulting state, or null if the preconditions of the action do not hold
+	 */
+	private GameState step(GameState state, short code, GameState goal) {
+		if (state == null || code == ActionTable.NONE) {
+			return null;
+		}
+		StripsAction action = table.get(code);
+		if (!action.preconditionsMet(state, goal)) {
+			return null;
+		}
+		GameState next = table.apply(code, state);
+		next.setDepth(state.getDepth() + 1);
+		next.setCost(state.getCost() + action.getMakeSpan());
+		return next;
+	}
+}
@@ -0,0 +1,647 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionSteps;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.BuildPeasantAction;
+import edu.cwru.sepia.agent.planner.actions.SchemaAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.Stack;
+
+/**
+ * Checks a plan before it is executed by replaying its actions on a packed copy of the game.
+ *
+ * Every grounded action of the table is compiled once into flat arrays of its kind, peasant
+ * count, resource, depot, cargo and gold cost, and the game is a few ints and one array per
+ * part of a peasant: its place, its cargo type and its cargo amount. Replaying an action is a
+ * scan over those arrays that checks the same preconditions as the action's preconditionsMet
+ * and makes the same changes as its apply, picking the same peasants, so no game state or
+ * peasant objects are made. A plan of a hundred actions is checked in a few microseconds,
+ * so many thousands of candidate plans can be checked every second.
+ *
+ * The actions of a domain are compiled the same way: their conditions and effects are
+ * laid out one after another in flat arrays of fluent, operator and value, and the fluents
+ * of the domain are one more array of the packed game.
+ *
+ * A plan made of game states is also checked against the gold, wood, peasants, fluents and
+ * resource amounts its states predict after every action, and every plan must reach the goal.
+ * A plan whose every action can be executed but that stops short of the goal, as a search cut
+ * off by its depth limit returns, is told apart from one with an action that cannot be executed.
+ *
+ * The compiled actions copy the rules of the action objects, so crossCheck compares the two
+ * along a plan: every action of the table is tried both ways at every state of the plan, and
+ * the actions of the plan are applied both ways. The benchmark runner cross checks every plan.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlanValidator {
+
+	//the kinds of the compiled actions
+	private static final byte MOVE_TO_RESOURCE = 0;
+	private static final byte MOVE_TO_DEPOT = 1;
+	private static final byte HARVEST = 2;
+	private static final byte DEPOSIT = 3;
+	private static final byte BUILD_PEASANT = 4;
+	private static final byte SCHEMA = 5;
+
+	//the cargo of a peasant
+	private static final byte NO_CARGO = 0;
+	private static final byte GOLD = 1;
+	private static final byte WOOD = 2;
+
+	private final GameState initial;
+
+	private final GameState goal;
+
+	private final ActionTable table;
+
+	//the compiled actions, by code
+	private final byte[] kinds;
+	private final int[] counts;
+	private final int[] resources;
+	private final int[] depots;
+	private final int[] capacities;
+	private final int[] goldCosts;
+
+	//the conditions and effects of the actions of the domain, those of a code from its
+	//first to its last index, and whether a peasant builds the unit of the action
+	private final int[] firstCondition;
+	private final int[] lastCondition;
+	private final int[] firstEffect;
+	private final int[] lastEffect;
+	private final boolean[] built;
+	private int[] conditionFluents = new int[0];
+	private int[] conditionOperators = new int[0];
+	private int[] conditionValues = new int[0];
+	private int[] effectFluents = new int[0];
+	private int[] effectOperators = new int[0];
+	private int[] effectValues = new int[0];
+
+	//the type of every resource, by index
+	private final byte[] resourceTypes;
+
+	//the state of the game being replayed
+	private int gold;
+	private int wood;
+	private int peasants;
+	private final int[] amounts;
+
+	//the fluents, numbered like a SchemaAction numbers them, with gold, wood and the
+	//peasants only filled in for the actions of the domain
+	private final int[] fluents;
+
+	//the place of every peasant: the resource index, or -1 - depot at a depot
+	private final int[] places;
+	private final byte[] cargoTypes;
+	private final int[] cargoAmounts;
+
+	/**
+	 * @param initial - the state the plans start from
+	 * @param goal - the goal the plans must reach
+	 * @param table - the table the plans' action codes refer to
+	 */
+	public PlanValidator(GameState initial, GameState goal, ActionTable table) {
+		this.initial = initial;
+		this.goal = goal;
+		this.table = table;
+
+		resourceTypes = new byte[initial.resources.size()];
+		for (int i = 0; i < resourceTypes.length; i++) {
+			resourceTypes[i] = typeOf(initial.resources.get(i).getType());
+		}
+
+		kinds = new byte[table.size()];
+		counts = new int[table.size()];
+		resources = new int[table.size()];
+		depots = new int[table.size()];
+		capacities = new int[table.size()];
+		goldCosts = new int[table.size()];
+		firstCondition = new int[table.size()];
+		lastCondition = new int[table.size()];
+		firstEffect = new int[table.size()];
+		lastEffect = new int[table.size()];
+		built = new boolean[table.size()];
+		CostModel costs = initial.getCosts();
+		for (short code = 0; code < table.size(); code++) {
+			compile(code, table.get(code), costs);
+		}
+
+		amounts = new int[initial.resources.size()];
+		fluents = new int[SchemaAction.FIRST_DECLARED + (initial.fluents == null ? 0 : initial.fluents.length)];
+		int capacity = Math.max(Math.max(table.getMaxPeasants(), BuildPeasantAction.PEASANT_LIMIT),
+				initial.peasants.size());
+		places = new int[capacity];
+		cargoTypes = new byte[capacity];
+		cargoAmounts = new int[capacity];
+	}
+
+	/**
+	 * Flattens an action into the arrays of the compiled actions, step by step.
+	 */
+	private void compile(short code, StripsAction action, CostModel costs) {
+		counts[code] = action.getPeasantCount();
+		action.carryOut(new ActionSteps<Void>() {
+			@Override
+			public Void walk(int peasantCount, int resourceId, int depot, boolean toDepot) {
+				kinds[code] = toDepot ? MOVE_TO_DEPOT : MOVE_TO_RESOURCE;
+				resources[code] = indexOf(resourceId);
+				depots[code] = depot;
+				return null;
+			}
+
+			@Override
+			public Void gather(int peasantCount, int resourceId) {
+				kinds[code] = HARVEST;
+				resources[code] = indexOf(resourceId);
+				return null;
+			}
+
+			@Override
+			public Void deposit(int peasantCount, int depot) {
+				kinds[code] = DEPOSIT;
+				depots[code] = depot;
+				return null;
+			}
+
+			@Override
+			public Void producePeasant(int goldCost) {
+				kinds[code] = BUILD_PEASANT;
+				goldCosts[code] = goldCost;
+				return null;
+			}
+
+			@Override
+			public Void make(SchemaAction schema) {
+				kinds[code] = SCHEMA;
+				built[code] = schema.isBuilt();
+				firstCondition[code] = conditionFluents.length;
+				conditionFluents = append(conditionFluents, schema.getConditionFluents());
+				conditionOperators = append(conditionOperators, schema.getConditionOperators());
+				conditionValues = append(conditionValues, schema.getConditionValues());
+				lastCondition[code] = conditionFluents.length;
+				firstEffect[code] = effectFluents.length;
+				effectFluents = append(effectFluents, schema.getEffectFluents());
+				effectOperators = append(effectOperators, schema.getEffectOperators());
+				effectValues = append(effectValues, schema.getEffectValues());
+				lastEffect[code] = effectFluents.length;
+				return null;
+			}
+		});
+		if (kinds[code] == MOVE_TO_RESOURCE || kinds[code] == HARVEST) {
+			capacities[code] = costs.getCapacity(initial.resources.get(resources[code]).getType());
+		}
+	}
+
+	private static int[] append(int[] values, int[] more) {
+		int[] all = new int[values.length + more.length];
+		System.arraycopy(values, 0, all, 0, values.length);
+		System.arraycopy(more, 0, all, values.length, more.length);
+		return all;
+	}
+
+	/**
+	 * Checks a plan made by a planner, including the amounts its states predict.
+	 *
+	 * @param plan - the plan with the first action on top
+	 * @return the result of the check
+	 */
+	public Result validate(Stack<GameState> plan) {
+		reset();
+		for (int i = 0; i < plan.size(); i++) {
+			GameState predicted = plan.get(plan.size() - 1 - i);
+			String failure = step(predicted.getParentActionCode());
+			if (failure == null) {
+				failure = compare(predicted);
+			}
+			if (failure == null && i < plan.size() - 1) {
+				failure = ended();
+			}
+			if (failure != null) {
+				return new Result(i, failure, gold, wood);
+			}
+		}
+		return finish(plan.size());
+	}
+
+	/**
+	 * Checks a sequence of action codes.
+	 *
+	 * @param codes - the codes of the plan, first action first
+	 * @return the result of the check
+	 */
+	public Result validate(short[] codes) {
+		reset();
+		for (int i = 0; i < codes.length; i++) {
+			String failure = step(codes[i]);
+			if (failure == null && i < codes.length - 1) {
+				failure = ended();
+			}
+			if (failure != null) {
+				return new Result(i, failure, gold, wood);
+			}
+		}
+		return finish(codes.length);
+	}
+
+	/**
+	 * Checks that the compiled actions agree with the action objects they were compiled from,
+	 * along a plan. At the initial state and after every action of the plan, every action of
+	 * the table is tried on the packed game and with its preconditionsMet on the game state,
+	 * and both must allow or refuse it alike. The action of the plan is then applied both ways,
+	 * and the gold, wood, resources, fluents and the place and cargo of every peasant must match.
+	 *
+	 * @param codes - the codes of a plan, first action first, which the action objects can apply
+	 * @return null if both agree everywhere, or the first difference
+	 */
+	public String crossCheck(short[] codes) {
+		reset();
+		GameState state = initial;
+		for (int i = 0; i <= codes.length; i++) {
+			int[] saved = save();
+			for (short code = 0; code < table.size(); code++) {
+				boolean compiled = step(code) == null;
+				restore(saved);
+				if (compiled != table.get(code).preconditionsMet(state, goal)) {
+					return "at action " + i + " the validator " + (compiled ? "allows " : "refuses ") + table.get(code)
+							+ " but the action " + (compiled ? "refuses" : "allows") + " it";
+				}
+			}
+			if (i == codes.length) {
+				break;
+			}
+			if (!table.get(codes[i]).preconditionsMet(state, goal)) {
+				return "action " + (i + 1) + " of the plan cannot be applied: " + table.get(codes[i]);
+			}
+			step(codes[i]);
+			state = table.apply(codes[i], state);
+			state.setParent(null);
+			String difference = compare(state);
+			if (difference == null) {
+				difference = comparePeasants(state);
+			}
+			if (difference != null) {
+				return "after " + table.get(codes[i]) + " " + difference;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the packed game in one array
+	 */
+	private int[] save() {
+		int[] saved = new int[3 + amounts.length + fluents.length + 3 * places.length];
+		saved[0] = gold;
+		saved[1] = wood;
+		saved[2] = peasants;
+		System.arraycopy(amounts, 0, saved, 3, amounts.length);
+		System.arraycopy(fluents, 0, saved, 3 + amounts.length, fluents.length);
+		int at = 3 + amounts.length + fluents.length;
+		for (int p = 0; p < places.length; p++) {
+			saved[at++] = places[p];
+			saved[at++] = cargoTypes[p];
+			saved[at++] = cargoAmounts[p];
+		}
+		return saved;
+	}
+
+	/**
+	 * Puts back the packed game saved before.
+	 */
+	private void restore(int[] saved) {
+		gold = saved[0];
+		wood = saved[1];
+		peasants = saved[2];
+		System.arraycopy(saved, 3, amounts, 0, amounts.length);
+		System.arraycopy(saved, 3 + amounts.length, fluents, 0, fluents.length);
+		int at = 3 + amounts.length + fluents.length;
+		for (int p = 0; p < places.length; p++) {
+			places[p] = saved[at++];
+			cargoTypes[p] = (byte) saved[at++];
+			cargoAmounts[p] = saved[at++];
+		}
+	}
+
+	private Result finish(int length) {
+		if (gold < goal.gold || wood < goal.wood) {
+			return new Result(length, "the plan ends with " + gold + " gold and " + wood + " wood", gold, wood, true);
+		}
+		for (int f = SchemaAction.FIRST_DECLARED; f < fluents.length; f++) {
+			int target = goal.fluents[f - SchemaAction.FIRST_DECLARED];
+			if (target != Domain.NO_GOAL && fluents[f] < target) {
+				return new Result(length, "the plan ends with " + fluents[f] + " " + initial.getDomain().getName(f),
+						gold, wood, true);
+			}
+		}
+		return new Result(-1, null, gold, wood);
+	}
+
+	/**
+	 * @return null, or why the game ends before the plan does: a Midas game ends as soon as
+	 *         the gold and wood are in, before the fluents of a domain reach their goals
+	 */
+	private String ended() {
+		if (goal.fluents != null && gold >= goal.gold && wood >= goal.wood) {
+			return "the game ends with " + gold + " gold and " + wood + " wood before the plan does";
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the initial state into the arrays.
+	 */
+	private void reset() {
+		gold = initial.gold;
+		wood = initial.wood;
+		for (int f = SchemaAction.FIRST_DECLARED; f < fluents.length; f++) {
+			fluents[f] = initial.getFluent(f);
+		}
+		for (int i = 0; i < amounts.length; i++) {
+			amounts[i] = initial.resources.get(i).getAmount();
+		}
+		peasants = initial.peasants.size();
+		for (int p = 0; p < peasants; p++) {
+			Peasant peasant = initial.peasants.get(p);
+			places[p] = peasant.getAdjacentResource() == null ? -1 - peasant.getDepot()
+					: indexOf(peasant.getAdjacentResource().getId());
+			cargoTypes[p] = typeOf(peasant.getCargo());
+			cargoAmounts[p] = peasant.getCargoAmount();
+		}
+	}
+
+	/**
+	 * Checks the preconditions of an action and applies it.
+	 *
+	 * @return null, or why the action cannot be applied
+	 */
+	private String step(short code) {
+		if (code < 0 || code >= kinds.length) {
+			return "there is no action with code " + code;
+		}
+		int count = counts[code];
+		int resource = resources[code];
+		switch (kinds[code]) {
+		case BUILD_PEASANT:
+			if (peasants >= BuildPeasantAction.PEASANT_LIMIT || gold < goldCosts[code] || peasants == places.length) {
+				return "a peasant cannot be built with " + peasants + " peasants and " + gold + " gold";
+			}
+			places[peasants] = -1;
+			cargoTypes[peasants] = NO_CARGO;
+			cargoAmounts[peasants] = 0;
+			peasants++;
+			gold -= goldCosts[code];
+			return null;
+		case MOVE_TO_RESOURCE:
+			//gold comes before wood, as the move action demands
+			if ((resourceTypes[resource] == WOOD && gold < goal.gold)
+					|| (resourceTypes[resource] == GOLD && gold > goal.gold)) {
+				return "the move breaks the order of gold before wood";
+			}
+			if (amounts[resource] < count * capacities[code]) {
+				return "only " + amounts[resource] + " is left at the resource";
+			}
+			return move(count, -1 - depots[code], NO_CARGO, resource);
+		case MOVE_TO_DEPOT:
+			return move(count, resource, (byte) -1, -1 - depots[code]);
+		case HARVEST:
+			if (amounts[resource] < count * capacities[code]) {
+				return "only " + amounts[resource] + " is left at the resource";
+			}
+			return harvest(count, resource, capacities[code]);
+		case DEPOSIT:
+			return deposit(count, -1 - depots[code]);
+		case SCHEMA:
+			return make(code);
+		default:
+			return "the validator does not know the action";
+		}
+	}
+
+	/**
+	 * Checks the conditions of an action of the domain and applies its effects.
+	 */
+	private String make(short code) {
+		fluents[SchemaAction.GOLD] = gold;
+		fluents[SchemaAction.WOOD] = wood;
+		fluents[SchemaAction.PEASANTS] = peasants;
+		for (int c = firstCondition[code]; c < lastCondition[code]; c++) {
+			if (!SchemaAction.holds(fluents[conditionFluents[c]], conditionOperators[c], conditionValues[c])) {
+				return "condition " + (c - firstCondition[code] + 1) + " does not hold";
+			}
+		}
+		if (built[code] && available(-1, NO_CARGO) == 0) {
+			return "no peasant at the town hall can build it";
+		}
+		for (int e = firstEffect[code]; e < lastEffect[code]; e++) {
+			fluents[effectFluents[e]] = effectOperators[e] == SchemaAction.SET ? effectValues[e]
+					: fluents[effectFluents[e]] + effectValues[e];
+		}
+		gold = fluents[SchemaAction.GOLD];
+		wood = fluents[SchemaAction.WOOD];
+		return null;
+	}
+
+	/**
+	 * Moves the first peasants at a place with the given cargo, any cargo at all for -1, to another place.
+	 */
+	private String move(int count, int from, byte cargo, int to) {
+		if (available(from, cargo) < count) {
+			return "fewer than " + count + " peasants can move";
+		}
+		int moved = 0;
+		for (int p = 0; p < peasants && moved < count; p++) {
+			if (fits(p, from, cargo)) {
+				places[p] = to;
+				moved++;
+			}
+		}
+		return null;
+	}
+
+	private String harvest(int count, int resource, int capacity) {
+		if (available(resource, NO_CARGO) < count) {
+			return "fewer than " + count + " peasants can harvest";
+		}
+		int gathered = 0;
+		for (int p = 0; p < peasants && gathered < count; p++) {
+			if (fits(p, resource, NO_CARGO)) {
+				gathered++;
+				if (amounts[resource] >= capacity) {
+					amounts[resource] -= capacity;
+					cargoTypes[p] = resourceTypes[resource];
+					cargoAmounts[p] = capacity;
+				}
+			}
+		}
+		return null;
+	}
+
+	private String deposit(int count, int depot) {
+		if (available(depot, (byte) -1) < count) {
+			return "fewer than " + count + " peasants can deposit";
+		}
+		int deposited = 0;
+		for (int p = 0; p < peasants && deposited < count; p++) {
+			if (fits(p, depot, (byte) -1)) {
+				if (cargoTypes[p] == GOLD) {
+					gold += cargoAmounts[p];
+				} else {
+					wood += cargoAmounts[p];
+				}
+				cargoTypes[p] = NO_CARGO;
+				cargoAmounts[p] = 0;
+				deposited++;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of peasants at the place with the given cargo
+	 */
+	private int available(int place, byte cargo) {
+		int available = 0;
+		for (int p = 0; p < peasants; p++) {
+			if (fits(p, place, cargo)) {
+				available++;
+			}
+		}
+		return available;
+	}
+
+	/**
+	 * @param cargo - NO_CARGO for an empty peasant, -1 for a peasant with any cargo
+	 */
+	private boolean fits(int p, int place, byte cargo) {
+		if (places[p] != place) {
+			return false;
+		}
+		return cargo == NO_CARGO ? cargoTypes[p] == NO_CARGO
+				: cargoTypes[p] != NO_CARGO && cargoAmounts[p] > 0;
+	}
+
+	/**
+	 * @return null, or how the replayed game differs from the predicted state
+	 */
+	private String compare(GameState predicted) {
+		if (predicted.gold != gold || predicted.wood != wood) {
+			return "the plan predicts " + predicted.gold + " gold and " + predicted.wood + " wood, but there are "
+					+ gold + " and " + wood;
+		}
+		if (predicted.getPeasantCount() != peasants) {
+			return "the plan predicts " + predicted.getPeasantCount() + " peasants, but there are " + peasants;
+		}
+		for (int i = 0; i < amounts.length; i++) {
+			if (predicted.resources.get(i).getAmount() != amounts[i]) {
+				return "the plan predicts " + predicted.resources.get(i).getAmount() + " at resource "
+						+ predicted.resources.get(i).getId() + ", but there is " + amounts[i];
+			}
+		}
+		for (int f = SchemaAction.FIRST_DECLARED; f < fluents.length; f++) {
+			if (predicted.getFluent(f) != fluents[f]) {
+				return "the plan predicts " + predicted.getFluent(f) + " " + initial.getDomain().getName(f)
+						+ ", but there are " + fluents[f];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return null, or how the peasants of the replayed game differ from those of the state
+	 */
+	private String comparePeasants(GameState state) {
+		for (int p = 0; p < peasants; p++) {
+			Peasant peasant = state.peasants.get(p);
+			int place = peasant.getAdjacentResource() == null ? -1 - peasant.getDepot()
+					: indexOf(peasant.getAdjacentResource().getId());
+			if (place != places[p] || typeOf(peasant.getCargo()) != cargoTypes[p]
+					|| peasant.getCargoAmount() != cargoAmounts[p]) {
+				return "peasant " + (p + 1) + " is at " + place + " with " + peasant.getCargoAmount()
+						+ " cargo, but the validator has it at " + places[p] + " with " + cargoAmounts[p];
+			}
+		}
+		return null;
+	}
+
+	private int indexOf(int resId) {
+		for (int i = 0; i < initial.resources.size(); i++) {
+			if (initial.resources.get(i).getId() == resId) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No resource with id " + resId);
+	}
+
+	private static byte typeOf(ResourceNode.Type type) {
+		if (type == null) {
+			return NO_CARGO;
+		}
+		return ResourceNode.Type.GOLD_MINE.equals(type) ? GOLD : WOOD;
+	}
+
+	/**
+	 * The outcome of checking a plan.
+	 */
+	public static class Result {
+
+		private final int failedAt;
+
+		private final String failure;
+
+		private final int gold;
+
+		private final int wood;
+
+		//whether every action could be executed but the plan ends short of the goal
+		private final boolean shortOfGoal;
+
+		Result(int failedAt, String failure, int gold, int wood) {
+			this(failedAt, failure, gold, wood, false);
+		}
+
+		Result(int failedAt, String failure, int gold, int wood, boolean shortOfGoal) {
+			this.failedAt = failedAt;
+			this.failure = failure;
+			this.gold = gold;
+			this.wood = wood;
+			this.shortOfGoal = shortOfGoal;
+		}
+
+		public boolean isValid() { return failure == null; }
+
+		/**
+		 * @return whether every action of the plan can be executed but it ends short of the
+		 *         goal, as the best partial plan of a search cut off by its depth limit does
+		 */
+		public boolean isShortOfGoal() { return shortOfGoal; }
+
+		/**
+		 * @return whether every action of the plan can be executed, reaching the goal or not
+		 */
+		public boolean isExecutable() { return failure == null || shortOfGoal; }
+
+		/**
+		 * @return the index of the first action that failed, the plan's length if it
+		 *         does not reach the goal, or -1 if the plan is valid
+		 */
+		public int getFailedAt() { return failedAt; }
+
+		/**
+		 * @return why the plan is not valid, or null
+		 */
+		public String getFailure() { return failure; }
+
+		public int getGold() { return gold; }
+
+		public int getWood() { return wood; }
+
+		@Override
+		public String toString() {
+			if (isValid()) {
+				return "valid, ending with " + gold + " gold and " + wood + " wood";
+			}
+			return shortOfGoal ? "short of the goal, " + failure : "action " + (failedAt + 1) + ": " + failure;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes plans and search traces to disk on a background thread so the agent
+ * never waits on the file system between planning and the first game action.
+ *
+ * Writes are queued in a bounded queue. The writer thread takes every queued write
+ * at once, groups consecutive writes to the same file and hands each group to its
+ * file channel as a single gathering write. Replacing a file never blocks: if the queue
+ * is full the write is dropped and reported, since losing a saved plan is better than
+ * stalling the game. Appending waits up to APPEND_WAIT_MILLIS for room instead, since a
+ * dropped append leaves a hole in the middle of the file; an append that still finds the
+ * queue full is dropped and reported, and the caller should stop appending. Failures are printed from the writer thread and counted, and
+ * the agent can wait for all queued writes with flush, e.g. in the terminal step.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlanWriter {
+
+	/**
+	 * A single queued write of a buffer to a file.
+	 */
+	private static class Write {
+		final File file;
+		final ByteBuffer data;
+		final boolean append;
+
+		Write(File file, ByteBuffer data, boolean append) {
+			this.file = file;
+			this.data = data;
+			this.append = append;
+		}
+	}
+
+	//the longest an append waits for room in the queue
+	private static final long APPEND_WAIT_MILLIS = 10000;
+
+	//the writes waiting for the writer thread
+	private final BlockingQueue<Write> queue;
+
+	//guards the counts below and is notified whenever a batch completes
+	private final Object lock = new Object();
+
+	//the number of writes queued and the number the writer thread has finished
+	private long queued = 0;
+	private long finished = 0;
+
+	//the number of writes that failed or were dropped
+	private int failures = 0;
+
+	private Thread thread;
+
+	/**
+	 * Creates a writer with room for the given number of queued writes.
+	 * The writer thread starts with the first write.
+	 *
+	 * @param capacity - the most writes that can wait in the queue
+	 */
+	public PlanWriter(int capacity) {
+		queue = new ArrayBlockingQueue<Write>(capacity);
+	}
+
+	/**
+	 * Queues text to be written to a file.
+	 *
+	 * @param file - the file to write
+	 * @param text - the text to write
+	 * @param append - whether to add to the end of the file instead of replacing it
+	 * @return false if the write was dropped because the queue is full
+	 */
+	public boolean write(File file, String text, boolean append) {
+		return write(file, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), append);
+	}
+
+	/**
+	 * Queues a buffer to be written to a file. The buffer must not be changed afterwards.
+	 * An append waits for room in the queue, up to APPEND_WAIT_MILLIS.
+	 *
+	 * @param file - the file to write
+	 * @param data - the bytes to write, from its position to its limit
+	 * @param append - whether to add to the end of the file instead of replacing it
+	 * @return false if the write was dropped because the queue is full
+	 */
+	public boolean write(File file, ByteBuffer data, boolean append) {
+		//wait for room outside the lock, which the writer thread takes after every batch
+		Write write = new Write(file, data, append);
+		boolean offered;
+		try {
+			offered = append ? queue.offer(write, APPEND_WAIT_MILLIS, TimeUnit.MILLISECONDS) : queue.offer(write);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			offered = false;
+		}
+		synchronized (lock) {
+			if (!offered) {
+				failures++;
+				System.err.println("Plan writer queue is full, dropped a write to " + file);
+				return false;
+			}
+			queued++;
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				}, "plan-writer");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until every write queued so far is on disk or has failed.
+	 *
+	 * @param timeoutMillis - the longest time to wait
+	 * @return true if all of the writes finished in time
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (lock) {
+			long target = queued;
+			while (finished < target) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return false;
+				}
+				try {
+					lock.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of writes that failed or were dropped so far
+	 */
+	public int getFailures() {
+		synchronized (lock) {
+			return failures;
+		}
+	}
+
+	/**
+	 * The loop of the writer thread. Takes every waiting write and writes each run
+	 * of writes to the same file with one gathering write.
+	 */
+	private void drain() {
+		List<Write> batch = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(queue.poll(1, TimeUnit.DAYS));
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch);
+
+			int failed = 0;
+			int start = 0;
+			while (start < batch.size()) {
+				int end = start + 1;
+				while (end < batch.size() && batch.get(end).file.equals(batch.get(start).file)
+						&& batch.get(end).append) {
+					end++;
+				}
+				failed += writeRun(batch.subList(start, end));
+				start = end;
+			}
+
+			synchronized (lock) {
+				finished += batch.size();
+				failures += failed;
+				lock.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Writes a run of writes to the same file. Only the first write of the run may
+	 * replace the file; the rest append to it.
+	 *
+	 * @return the number of writes in the run that failed
+	 */
+	private int writeRun(List<Write> run) {
+		Write first = run.get(0);
+		ByteBuffer[] buffers = new ByteBuffer[run.size()];
+		long remaining = 0;
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = run.get(i).data;
+			remaining += buffers[i].remaining();
+		}
+
+		File parent = first.file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(first.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					first.append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+			while (remaining > 0) {
+				remaining -= channel.write(buffers);
+			}
+			return 0;
+		} catch (IOException e) {
+			System.err.println("Could not write " + first.file + ": " + e.getMessage());
+			return run.size();
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
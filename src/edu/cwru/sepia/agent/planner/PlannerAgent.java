@@ -2,10 +2,8 @@ package edu.cwru.sepia.agent.planner;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
 import edu.cwru.sepia.agent.planner.actions.BuildPeasantAction;
-import edu.cwru.sepia.agent.planner.actions.DepositAction;
-import edu.cwru.sepia.agent.planner.actions.HarvestAction;
-import edu.cwru.sepia.agent.planner.actions.MoveAction;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
@@ -13,20 +11,18 @@ import edu.cwru.sepia.environment.model.state.Unit;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Set;
 import java.util.Stack;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * An agent that plans for a resource collection game in SEPIA using A* search.
  * 
- * The A* search is limited to a depth of 140 so the search completes in finite time.
+ * The A* search is limited to a depth of MAX_DEPTH (140) so the search completes in finite time.
  * This means that if there are over 3 peasants built, which is not possible in our
  * set up given the constructors, then the search will stop and return the best solution thus far.
  * However, the depth-limit is unnecessary for 3 or less peasants and so we just left it there
@@ -54,25 +50,49 @@ public class PlannerAgent extends Agent {
 	
 	private static final long serialVersionUID = 1L;
 
+	//The depth limit of every search, so the search completes in finite time
+	public static final int MAX_DEPTH = 140;
+
 	//Criteria that determines when the peasants win
 	final int requiredWood;
 	final int requiredGold;
 	final boolean buildPeasants;
+
+	//Optional settings such as the planning mode
+	final PlannerOptions options;
 	
 	//The goal state of the game
 	public GameState goalState;
 
 	private int townHallID;
 
-	//The game plan to enact in the SEPIA engine
-	private Stack<GameState> plan; 
+	//The units that accept cargo, the town hall first
+	private List<Integer> depotIDs = new ArrayList<>();
+
+	//The game plan found for the SEPIA engine, dropped once it is compressed into loops
+	private Stack<GameState> plan;
 
-	//The list of actions that will be tried on the A* chosen game states
-	private static ArrayList<StripsAction> actions;
+	//Every grounded action of the current game, addressed by code
+	private ActionTable table;
 
 	//Prevents having to parse the text file representation of our plan
 	PEAgent peAgent;
 
+	//The folder plans and traces are saved in
+	private static final String SAVE_DIR = "saves";
+
+	//Writes plans and traces off the agent thread, null when persistence is off
+	private transient PlanWriter writer;
+
+	//The heuristic values learned over the episodes, null when learning is off
+	private transient LearnedHeuristic learned;
+
+	//The durations actions took in earlier episodes, null when calibration is off
+	private transient DurationTable durations;
+
+	//The number of episodes planned so far in this run
+	private int episode = 0;
+
 	public PlannerAgent(int playernum, String[] params) {
 		super(playernum);
 
@@ -84,10 +104,34 @@ public class PlannerAgent extends Agent {
 		requiredGold = Integer.parseInt(params[0]);
 		requiredWood = Integer.parseInt(params[1]);
 		buildPeasants = Boolean.parseBoolean(params[2]);
+		options = PlannerOptions.parse(params);
+		writer = options.isPersist() ? new PlanWriter(256) : null;
+		if (options.isLearn()) {
+			learned = new LearnedHeuristic();
+			File saved = new File(SAVE_DIR, "heuristic.bin");
+			if (saved.isFile()) {
+				try (InputStream in = new BufferedInputStream(new FileInputStream(saved))) {
+					loadPlayerData(in);
+				} catch (IOException e) {
+					System.err.println("Could not read the learned heuristic: " + e.getMessage());
+				}
+			}
+		}
+		if (options.isCalibrate()) {
+			durations = new DurationTable();
+			File saved = new File(SAVE_DIR, "durations.bin");
+			if (saved.isFile()) {
+				try (InputStream in = new BufferedInputStream(new FileInputStream(saved))) {
+					durations.read(in);
+				} catch (IOException e) {
+					System.err.println("Could not read the action durations: " + e.getMessage());
+				}
+			}
+		}
 
 		System.out.println("required wood: " + requiredWood
 				+ " required gold: " + requiredGold + " build Peasants: "
-				+ buildPeasants);
+				+ buildPeasants + " options: " + options);
 	}
 
 	@Override
@@ -98,55 +142,318 @@ public class PlannerAgent extends Agent {
 		GameState initial = new GameState(0, 0);
 
 		//Recognize all units on the game map
+		List<Integer> otherDepots = new ArrayList<>();
 		for (int id : stateView.getUnitIds(playernum)) {
 			Unit.UnitView unit = stateView.getUnit(id);
 			String typeName = unit.getTemplateView().getName();
 			if (typeName.equals("TownHall"))
 				townHallID = id;
+			else if (unit.getTemplateView().canAcceptGold() && unit.getTemplateView().canAcceptWood())
+				otherDepots.add(id);
 			if (typeName.equals("Peasant"))
 				initial.peasants.add(new Peasant(unit.getCargoAmount(), 0, 0, unit.getID()));
 		}
 
+		//The town hall builds the peasants, so it is the first depot
+		depotIDs.clear();
+		depotIDs.add(townHallID);
+		depotIDs.addAll(otherDepots);
+		List<Unit.UnitView> depots = new ArrayList<>();
+		for (int id : depotIDs) {
+			depots.add(stateView.getUnit(id));
+		}
+
 		//Find all resource locations on the map
 		for (int id : stateView.getAllResourceIds()) {
-			initial.resources.add(new Resource(stateView
-					.getResourceNode(id), stateView.getUnit(townHallID)));
+			initial.resources.add(new Resource(stateView.getResourceNode(id), depots));
+		}
+
+		//Plan with the durations of the unit templates if asked, otherwise with unit costs.
+		//Observed durations are game cycles, so calibrated plans use the templates too
+		CostModel templateCosts = CostModel.fromTemplates(stateView, playernum);
+		if (options.isTemplateCosts() || durations != null) {
+			initial.setCosts(templateCosts);
+			System.out.println("Planning with " + templateCosts);
 		}
 
 		//Goal state of the A* search, winning with required gold and wood values
-		GameState goal = new GameState(requiredGold, requiredWood);
-		
-		//We find the best number of peasants to add to our mock game state
-		for (int i = 0; i < getMaxPeasants(); i++){
-			goal.peasants.add(new Peasant(0, 0, 0, 0));
+		GameState goal = makeGoal(requiredGold, requiredWood, buildPeasants);
+
+		//Add the actions and fluents of a domain file to the game
+		if (options.getDomain() != null) {
+			try {
+				Domain domain = Domain.load(new File(options.getDomain())).bind(stateView, playernum,
+						options.isTemplateCosts() || durations != null);
+				domain.setUp(initial, goal);
+				System.out.println("Planning with " + domain);
+			} catch (IOException e) {
+				System.err.println("Could not load the domain " + options.getDomain() + ": " + e.getMessage());
+			}
+		}
+
+		//Ground every action once for all the planners and the execution agent
+		table = new ActionTable(initial,
+				Math.max(BuildPeasantAction.PEASANT_LIMIT, initial.getPeasantCount()));
+
+		//Plan with the durations the actions took in earlier episodes
+		if (durations != null) {
+			durations.begin(initial);
+			table = table.calibrate(durations);
+			System.out.println("Calibrated " + table.getCalibratedCount() + " of " + table.size()
+					+ " action durations from earlier episodes");
+
+			//The heuristic reads the cost model, so it must count in the calibrated durations too
+			initial.setCosts(table.calibrate(initial.getCosts()));
+			System.out.println("Estimating with " + initial.getCosts());
 		}
 		
 		//Track the goal globally
 		goalState = goal;
 
-		/**
-		 * Obtain a plan from our A* search implementation, limit to depth 140
-		 * Note that search on buildPeasants=true will take approx. 15 sec.
-		 * to complete after starting the game. Since the game tree is
-		 * very big for 3 peasants, this is tolerable to us.
-		 */
-		plan = PlannerAgent.AstarSearch(initial, goal, 140);
+		//A loaded plan is decoded straight into the codes the loop plan executes
+		long planStart = System.nanoTime();
+		plan = null;
+		short[] codes = null;
+		if (options.getLoadPlan() != null) {
+			codes = PlanFile.load(new File(options.getLoadPlan()), initial, goal, table);
+			if (codes == null) {
+				System.err.println("Could not load the plan in " + options.getLoadPlan() + ", planning instead.");
+			}
+		}
+		//Every plan is checked once on a packed replay of the game before anything executes it,
+		//a loaded plan right away so an invalid one can be replaced by planning
+		PlanValidator validator = new PlanValidator(initial, goal, table);
+		PlanValidator.Result validation = null;
+		long validateNanos = 0;
+		if (codes != null) {
+			long validateStart = System.nanoTime();
+			validation = validator.validate(codes);
+			validateNanos = System.nanoTime() - validateStart;
+			if (!validation.isValid()) {
+				System.err.println("The plan in " + options.getLoadPlan() + " is not valid at " + validation
+						+ ", planning instead.");
+				codes = null;
+				validation = null;
+			}
+		}
+		if (codes == null) {
+			plan = makePlan(initial, goal);
+		}
+		System.out.println("Planning took " + (System.nanoTime() - planStart) / 1e6 + " ms");
 		
-		if (plan == null){
+		if (plan == null && codes == null){
 			System.err.println("No plan was found for the given initial and goal states.");
-			System.exit(1);
+			return null;
+		}
+
+		if (validation == null) {
+			long validateStart = System.nanoTime();
+			validation = validator.validate(plan);
+			validateNanos = System.nanoTime() - validateStart;
+		}
+		System.out.println("Validated the plan in " + validateNanos / 1e3 + " us: " + validation);
+		if (validation.isShortOfGoal()) {
+			System.err.println("The plan stops short of the goal at the depth limit, executing the best plan found.");
+		} else if (!validation.isValid()) {
+			System.err.println("The plan is not valid and will not be executed.");
+			return null;
 		}
 
+		//Only the codes of a searched plan are kept from here on
+		if (plan != null) {
+			codes = LoopPlan.codesOf(plan);
+			plan = null;
+		}
+		System.out.println("Plan has " + codes.length + " actions with a make span of " + getMakeSpan(codes, table));
+
 		//Prints the action list to a text file named "plan"
-		savePlan(getActionPlan(plan));
+		savePlan(getActionPlan(codes));
+
+		//Writes the binary plan so later runs can load it instead of planning
+		saveBinaryPlan(initial, codes, goal);
+
+		//Keep the plan as loops of actions instead of a state per action
+		LoopPlan loopPlan = LoopPlan.compress(initial, goal, codes, table);
+		System.out.println("Plan compressed into " + loopPlan.getBlockCount() + " blocks with "
+				+ loopPlan.getLoopCount() + " loops, storing " + loopPlan.getStoredCodes() + " of "
+				+ loopPlan.getLength() + " actions: " + loopPlan);
+
+		//Find out how many game cycles the plan really takes
+		int[] depotX = new int[depots.size()];
+		int[] depotY = new int[depots.size()];
+		for (int i = 0; i < depots.size(); i++) {
+			depotX[i] = depots.get(i).getXPosition();
+			depotY[i] = depots.get(i).getYPosition();
+		}
+		MidasSimulator.Result simulated = new MidasSimulator(initial, table, stateView.getXExtent(),
+				stateView.getYExtent(), depotX, depotY, templateCosts).run(loopPlan);
+		System.out.println("Simulated the plan: " + simulated);
 
 		//Feed the plan to an execution agent to play in SEPIA
-		peAgent = new PEAgent(playernum, plan);
+		peAgent = new PEAgent(playernum, loopPlan, table, depotIDs, durations);
 
 		//Call the agent to execute
 		return peAgent.initialStep(stateView, historyView);
 	}
 
+	/**
+	 * Produces a plan with the planning mode selected in the options, tracing and
+	 * learning as the options of this agent ask.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the goal state with the required gold, wood and peasants
+	 * @return the plan of game states, or null if none was found
+	 */
+	private Stack<GameState> makePlan(GameState initial, GameState goal) {
+		SearchTrace trace = null;
+		if (writer != null && options.isTrace()) {
+			trace = new SearchTrace(writer, new File(SAVE_DIR, "trace.txt"), table);
+		}
+		if (options.isBinaryTrace()) {
+			if (options.getMode() == PlanningMode.ARENA || options.getMode() == PlanningMode.LAZY
+					|| options.getMode() == PlanningMode.EXTERNAL) {
+				System.err.println("Only the default A* search records a binary trace.");
+			}
+			if (trace == null) {
+				trace = new SearchTrace(table);
+			}
+			try {
+				trace.record(new TraceRecorder(new File(SAVE_DIR, "trace.bin"), table, MAX_DEPTH));
+			} catch (IOException e) {
+				System.err.println("Could not start the binary trace: " + e.getMessage());
+			}
+		}
+		Stack<GameState> found = plan(initial, goal, table, buildPeasants, options,
+				new File(SAVE_DIR, "external"), trace, learned);
+		if (trace != null) {
+			trace.finish();
+		}
+		if (learned != null) {
+			reportLearning();
+		}
+		return found;
+	}
+
+	/**
+	 * Produces a plan with the planning mode selected in the options.
+	 * The hierarchical mode falls back to A* search if it cannot find an allocation.
+	 *
+	 * Everything a search changes belongs to this call, so several threads can plan at once
+	 * as long as each has its own initial state. The table is only read and can be shared.
+	 *
+	 * @param initial - the state to plan from, whose costs the search sets
+	 * @param goal - the goal state with the required gold, wood and peasants
+	 * @param table - every grounded action of the game
+	 * @param buildPeasants - whether peasants may be built
+	 * @param options - the planning mode and search settings
+	 * @param spillDir - the folder the external search spills to
+	 * @param trace - the trace A* records its expansions in, or null
+	 * @param learned - the learned heuristic A* uses and teaches, or null
+	 * @return the plan of game states, or null if none was found
+	 */
+	static Stack<GameState> plan(GameState initial, GameState goal, ActionTable table, boolean buildPeasants,
+			PlannerOptions options, File spillDir, SearchTrace trace, LearnedHeuristic learned) {
+		if (initial.getDomain() != null && (options.getMode() == PlanningMode.ANALYTIC
+				|| options.getMode() == PlanningMode.HIERARCHICAL)) {
+			System.err.println("Only the searches know the actions of a domain, falling back to A* search.");
+		} else if (options.getMode() == PlanningMode.ANALYTIC) {
+			AnalyticPlanner analytic = new AnalyticPlanner(buildPeasants, table);
+			int worse = options.isVerify() ? analytic.verify(initial, MAX_DEPTH) : 0;
+			if (worse > 0) {
+				System.err.println("A* found a shorter plan than the analytic planner for " + worse
+						+ " verification goals, falling back to A* search.");
+			} else {
+				if (analytic.covers(initial, goal)) {
+					Stack<GameState> analyticPlan = analytic.plan(initial, goal);
+					if (analyticPlan != null) {
+						return analyticPlan;
+					}
+				}
+				System.err.println("The analytic planner does not cover this map, falling back to A* search.");
+			}
+		}
+
+		if (initial.getDomain() == null && options.getMode() == PlanningMode.HIERARCHICAL) {
+			ResourceAllocator.Allocation allocation = new ResourceAllocator().allocate(initial, goal,
+					ResourceAllocator.peasantLimit(initial, buildPeasants));
+			if (allocation != null) {
+				System.out.println("Hierarchical planner chose " + allocation);
+				Stack<GameState> scheduled = new PlanScheduler(table).schedule(initial, goal, allocation);
+				if (scheduled != null) {
+					return scheduled;
+				}
+			}
+			System.err.println("Hierarchical planning failed, falling back to A* search.");
+		}
+
+		//Keep the heuristic values of abstract states for the search if asked
+		HeuristicCache cache = null;
+		if (options.getHeuristicCache() > 0 && learned == null) {
+			cache = new HeuristicCache(goal, options.getHeuristicCache(),
+					HeuristicCache.abstraction(options.getCacheKey()));
+		}
+		Stack<GameState> found = search(initial, goal, table, options, spillDir, trace, learned, cache);
+		if (cache != null) {
+			System.out.println("Heuristic cache: " + cache);
+		}
+		return found;
+	}
+
+	/**
+	 * Runs the search selected in the options.
+	 *
+	 * @param cache - the cache of the heuristic values for the goal, or null to work out every one
+	 * @return the plan of game states, or null if none was found
+	 */
+	private static Stack<GameState> search(GameState initial, GameState goal, ActionTable table,
+			PlannerOptions options, File spillDir, SearchTrace trace, LearnedHeuristic learned,
+			HeuristicCache cache) {
+
+		/**
+		 * Obtain a plan from our A* search implementation, limit to depth MAX_DEPTH
+		 * Note that search on buildPeasants=true will take approx. 15 sec.
+		 * to complete after starting the game. Since the game tree is
+		 * very big for 3 peasants, this is tolerable to us.
+		 */
+		if (options.getMode() == PlanningMode.ARENA) {
+			ArenaSearch arena = new ArenaSearch(table);
+			arena.setDominance(options.isDominance());
+			arena.setReduce(options.isReduce());
+			arena.setHeuristicCache(cache);
+			Stack<GameState> found = arena.search(initial, goal, MAX_DEPTH);
+			System.out.println("Arena search expanded " + arena.getExpanded() + " states and stored "
+					+ arena.getGenerated() + " nodes in " + arena.getReservedBytes() / 1024 + " KB off heap"
+					+ (options.isDominance() ? ", pruning " + arena.getPruned() + " dominated states" : ""));
+			return found;
+		}
+		if (options.getMode() == PlanningMode.LAZY) {
+			LazySearch lazy = new LazySearch(table);
+			lazy.setDominance(options.isDominance());
+			lazy.setReduce(options.isReduce());
+			lazy.setHeuristicCache(cache);
+			Stack<GameState> found = lazy.search(initial, goal, MAX_DEPTH);
+			System.out.println("Lazy search expanded " + lazy.getExpanded() + " states and scored "
+					+ lazy.getEvaluated() + " of " + lazy.getGenerated() + " children, putting "
+					+ lazy.getRequeued() + " back on the open list"
+					+ (options.isDominance() ? ", pruning " + lazy.getPruned() + " dominated states" : ""));
+			return found;
+		}
+		if (options.getMode() == PlanningMode.EXTERNAL) {
+			ExternalSearch external = new ExternalSearch(table, spillDir, options.getSpillEntries());
+			external.setHeuristicCache(cache);
+			Stack<GameState> found = external.search(initial, goal, MAX_DEPTH);
+			System.out.println("External search expanded " + external.getExpanded() + " states and stored "
+					+ external.getGenerated() + " nodes, spilling " + external.getSpilled()
+					+ " entries to " + external.getSpillFiles() + " files");
+			return found;
+		}
+		SearchSettings settings = new SearchSettings(table, options);
+		settings.setTrace(trace);
+		settings.setLearned(learned);
+		settings.setCache(cache);
+		return AstarSearch(initial, goal, MAX_DEPTH, settings);
+	}
+
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView stateView,
 			History.HistoryView historyView) {
@@ -163,160 +470,205 @@ public class PlannerAgent extends Agent {
 	 * The A* search for the resource collection game in SEPIA. It find the best actions to take
 	 * from the initial state to the goal state. A priority queue tracks the game states and orders
 	 * them by their make spans as well as heuristic and cost values. When game states have been 
-	 * expanded, 
+	 * expanded, they go in the closed set and are not searched again.
+	 *
+	 * The settings can record every expanded state in a trace, prune states dominated by a
+	 * state queued before, try only one order of every two independent actions, rank states
+	 * by a learned heuristic, which learns the costs to go the search found once it ends, and
+	 * take the plain heuristic from a cache. The closed set tells states apart by the action
+	 * that made them, so leaving out the other orders does not lose any state.
 	 * 
 	 * @param initial - the state to initialize search on
 	 * @param goal - the goal state with the required amount of gold and wood
 	 * @param maxDepth - the maximum depth to in the game state generation tree
-	 * @return the strips action plan in form of game state with parents as strips-like actions
+	 * @param settings - the action table and the optional parts of the search
+	 * @return the strips action plan in form of game state with parents as strips-like actions,
+	 *         or null if there is none or the thread was interrupted
 	 */
-	public static Stack<GameState> AstarSearch(GameState initial, GameState goal, int maxDepth) {
+	public static Stack<GameState> AstarSearch(GameState initial, GameState goal, int maxDepth,
+			SearchSettings settings) {
+		ActionTable table = settings.getTable();
+		SearchTrace trace = settings.getTrace();
+		LearnedHeuristic learned = settings.getLearned();
+		HeuristicCache cache = settings.getCache();
+		boolean reduce = settings.isReduce();
 
-		//Adds generic actions to the action list
-		addBaseActions(initial, goal.peasants.size());
+		//Adds generic actions to the action list, which belongs to this search only
+		short[] actions = table.baseCodes(goal.peasants.size());
 
 		PriorityQueue<GameState> open = new PriorityQueue<GameState>();
-		Set<GameState> closed = new HashSet<GameState>();
+		PackedStateSet closed = new PackedStateSet(1024);
+
+		//Every state put on the open list. One that was taken off again is closed, and closed
+		//children are skipped first, so for a child this is the same as looking in the open list
+		PackedStateSet queued = new PackedStateSet(1024);
+
+		//The fingerprints of the children of a state, looked up in the closed set together
+		long[] highs = new long[table.size()];
+		long[] lows = new long[table.size()];
+		boolean[] expanded = new boolean[table.size()];
+
+		//States no better than one generated before are not searched
+		DominanceIndex dominated = settings.isDominance() ? new DominanceIndex(initial) : null;
+		if (dominated != null) {
+			dominated.add(initial, 0);
+		}
 
 		//Initialize the first state and the priority queue
 		initial.setCost(0);
 		initial.setDepth(0);
-		initial.setTotalCost(initial.heuristic(goal));
+		if (learned != null) {
+			learned.begin(initial, goal);
+		}
+		initial.setTotalCost(estimate(initial, goal, learned, cache));
 		open.add(initial);
+		if (trace != null) {
+			trace.root(initial);
+		}
 
 		while (!open.isEmpty()) {
 
+			//Give up when the thread planning is interrupted
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+
 			GameState current = open.poll();
+			long high = current.fingerprint(PackedStateSet.HIGH_SEED);
+			long low = PackedStateSet.nonZero(current.fingerprint(PackedStateSet.LOW_SEED));
 			
 			//check to skip this action if it has been done
-			if (closed.contains(current)) {
+			if (closed.contains(high, low)) {
 				continue;
 			}
 					
             //Remove actions that are no longer useful to the state space search
-			if (current.peasants.size() >= goal.peasants.size() && actions.size() != 5 * current.peasants.size()){
-				removeCostlyActions(current.peasants.size());
+			if (current.peasants.size() >= goal.peasants.size() && actions.length != 5 * current.peasants.size()){
+				actions = table.withoutCostlyCodes(actions, current.peasants.size());
 			}
 
 			//Build the least cost path when the goal or depth is met
 			if (current.isGoal(goal) || current.getDepth() >= maxDepth) {
+				if (dominated != null) {
+					System.out.println("Dominance pruning removed " + dominated.getPruned() + " states");
+				}
+				if (learned != null) {
+					learned.learn();
+				}
+				if (trace != null) {
+					trace.reached(current);
+				}
 				Stack<GameState> aStarPath = buildPath(current);
 				return aStarPath;
 			}
 			
 			//The expanded state is now in the closed set
-			closed.add(current);
+			closed.add(high, low);
+			if (trace != null) {
+				trace.expanded(current);
+			}
 
 			//Generate the children of this game state to evaluate all possible next actions
-			for (GameState neighbor : current.generateChildren(goal, actions)) {
+			List<GameState> children = current.generateChildren(goal, table, actions, reduce);
+			for (int i = 0; i < children.size(); i++) {
+				highs[i] = children.get(i).fingerprint(PackedStateSet.HIGH_SEED);
+				lows[i] = PackedStateSet.nonZero(children.get(i).fingerprint(PackedStateSet.LOW_SEED));
+			}
+			closed.containsAll(highs, lows, children.size(), expanded);
+			if (learned != null) {
+				int[] costs = new int[children.size()];
+				for (int i = 0; i < costs.length; i++) {
+					costs[i] = table.get(children.get(i).getParentActionCode()).getMakeSpan();
+				}
+				learned.expanded(current, children, costs, goal);
+			}
+
+			for (int i = 0; i < children.size(); i++) {
+				GameState neighbor = children.get(i);
 
 				//set up neighbor node from the current node
 				neighbor.setParent(current);
 				neighbor.setDepth(current.getDepth() + 1);
 
 				//We cannot operate on game states that are closed
-				if (!closed.contains(neighbor)) {
+				if (!expanded[i]) {
 
 					//Calculate a new score based on the cost from start and the make span
 					//of the neighbor's parent STRIPS action.
 					int tentativeScore = current.getCost()
-							+ neighbor.parentAction.getMakeSpan();
+							+ table.get(neighbor.getParentActionCode()).getMakeSpan();
+
+					//Skip states that are no better than one found before
+					if (dominated != null && dominated.isDominated(neighbor, tentativeScore)) {
+						if (trace != null) {
+							trace.generated(neighbor, tentativeScore, TraceRecorder.PRUNED);
+						}
+						continue;
+					}
 
 					//We expand the nodes with lower cost than previously visited nodes
-					if (!open.contains(neighbor)
-							|| tentativeScore < neighbor.getCost()) {
+					if (queued.add(highs[i], lows[i])) {
 
 						//Set the tentative cost to this node
 						neighbor.setCost(tentativeScore);
 
 						//Determine the total cost, including tentative and heuristic cost
 						neighbor.setTotalCost(tentativeScore
-								+ neighbor.heuristic(goal));
+								+ estimate(neighbor, goal, learned, cache));
 						
                         //Add the neighbor to the open queue
 						open.add(neighbor);
+						if (dominated != null) {
+							dominated.add(neighbor, tentativeScore);
+						}
+						if (trace != null) {
+							trace.generated(neighbor, tentativeScore, 0);
+						}
+					} else if (trace != null) {
+						trace.generated(neighbor, tentativeScore, TraceRecorder.DUPLICATE);
 					}
+				} else if (trace != null) {
+					trace.generated(neighbor, current.getCost()
+							+ table.get(neighbor.getParentActionCode()).getMakeSpan(), TraceRecorder.DUPLICATE);
 				}
 			}
 		}
 		
 		//need to inform there is not path
+		if (learned != null) {
+			learned.learn();
+		}
+		if (trace != null) {
+			trace.reached(null);
+		}
 		System.err.print("No available path");
 		return null;
 	}
 
 	/**
-	 * Removes actions that are no longer beneficial to the state space search based
-	 * on the current number of peasants in the game. This is typically called when there
-	 * are 3 peasants to eliminate the 1 peasant actions.
-	 * 
-	 * @param numPeasants - the number of peasants in the current search state 
+	 * @return the heuristic of the state, from the learned heuristic if there is one
+	 *         and otherwise from the cache if there is one
 	 */
-	private static void removeCostlyActions(int numPeasants) {
-		ArrayList<StripsAction> actionsCopy = new ArrayList<>(actions);
-		
-		//Remove actions that are no longer beneficial to the state search
-		for (StripsAction action : actionsCopy){
-			
-			if (action instanceof BuildPeasantAction){
-				actions.remove(action);
-			}
-			if (action instanceof MoveAction){
-				MoveAction mAction = (MoveAction)action;
-				if (mAction.getPeasantCount() < numPeasants - 1){
-					actions.remove(action);
-				}
-			}
-			if (action instanceof HarvestAction){
-				HarvestAction gAction = (HarvestAction)action;
-				if (gAction.getPeasantCount() < numPeasants - 1){
-					actions.remove(action);
-				}
-			}
-			if (action instanceof DepositAction){
-				DepositAction dAction = (DepositAction)action;
-				if (dAction.getPeasantCount() < numPeasants - 1){
-					actions.remove(action);
-				}
-			}
+	private static int estimate(GameState state, GameState goal, LearnedHeuristic learned, HeuristicCache cache) {
+		if (learned != null) {
+			return learned.estimate(state, goal);
 		}
+		return cache == null ? state.heuristic(goal) : cache.estimate(state, goal);
 	}
 
 	/**
-	 * Adds base actions such as:
-	 * move entity from x to y
-	 * gather resource
-	 * deposit resource
-	 * 
-	 * to the global actions list
-	 * 
-	 * Produces these actions for from 1 and 3 peasants.
-	 * 
-	 * @param state - the current state in the game
-	 * @param maxPeasants - the maximum number of peasants to build
+	 * Prints how many states the search of this episode expanded and adds it to the
+	 * node count curve in "saves/learning.csv", which starts over with every run.
 	 */
-	private static void addBaseActions(GameState state, int maxPeasants) {
-		
-		actions = new ArrayList<StripsAction>();
-		
-		//Create actions for moving to destinations and gathering resources
-		for (Resource resource : state.resources) {
-			int resId = resource.getId();
-			for (int i = 1; i <= maxPeasants; i++) {
-				actions.add(new MoveAction(i, state, null, resId, false));
-				actions.add(new HarvestAction(i, resId, resource.getX(),
-						resource.getY()));
-				actions.add(new MoveAction(i, state, resId, null, true));
-			}
+	private void reportLearning() {
+		episode++;
+		System.out.println("Episode " + episode + " expanded " + learned.getExpanded()
+				+ " states, with learned values for " + learned.size() + " abstract states");
+		if (writer != null) {
+			String line = episode + "," + learned.getExpanded() + "," + learned.size() + System.lineSeparator();
+			writer.write(new File(SAVE_DIR, "learning.csv"),
+					episode == 1 ? "episode,expanded,learned" + System.lineSeparator() + line : line, episode > 1);
 		}
-		
-		//Add a deposit resource action in case we have a resource
-		for (int i = 1; i <= maxPeasants; i++)
-			actions.add(new DepositAction(i));
-		
-		//Add a new build peasant action in case we have the resources
-		if (maxPeasants > 1)
-			actions.add(new BuildPeasantAction());
 	}
 
 	/**
@@ -331,7 +683,7 @@ public class PlannerAgent extends Agent {
 	 * @return a stack of game states that are ordered ascending numerical
 	 * according to position in time made.
 	 */
-	private static Stack<GameState> buildPath(GameState state) {
+	static Stack<GameState> buildPath(GameState state) {
 		Stack<GameState> path = new Stack<>();
 		GameState curr = state;
 		
@@ -345,30 +697,49 @@ public class PlannerAgent extends Agent {
 	}
 
 	/**
-	 * Gets the action plan from a game state plan. The actions
+	 * Sums the make spans of the parent actions of every state in the plan.
+	 * This is the cost A* minimizes, so it is comparable across planning modes.
+	 *
+	 * @param plan - the game state plan
+	 * @param table - the table the plan's action codes refer to
+	 * @return the total make span of the plan
+	 */
+	static int getMakeSpan(Stack<GameState> plan, ActionTable table) {
+		int makeSpan = 0;
+		for (GameState state : plan) {
+			makeSpan += table.get(state.getParentActionCode()).getMakeSpan();
+		}
+		return makeSpan;
+	}
+
+	/**
+	 * Sums the make spans of the actions of a plan given by their codes.
+	 *
+	 * @param codes - the codes of the plan
+	 * @param table - the table the codes refer to
+	 * @return the total make span of the plan
+	 */
+	static int getMakeSpan(short[] codes, ActionTable table) {
+		int makeSpan = 0;
+		for (short code : codes) {
+			makeSpan += table.get(code).getMakeSpan();
+		}
+		return makeSpan;
+	}
+
+	/**
+	 * Gets the action plan from the codes of a plan. The actions
 	 * are in the STRIPS-like form. 
 	 * 
-	 * @param plan - the mock game state plan
+	 * @param codes - the codes of the plan, first action first
 	 * @return the strips action plan to enact in the game
 	 */
-	private Stack<StripsAction> getActionPlan(Stack<GameState> plan) {
+	private Stack<StripsAction> getActionPlan(short[] codes) {
 		Stack<StripsAction> actionPlan = new Stack<>();
-		List<StripsAction> actionList = new ArrayList<>();
 		
-		//Only convert to strips when we have a game state plan
-		if (plan != null){
-			//we don't want to alter the actual plan
-			Stack<GameState> planCopy = (Stack<GameState>) plan.clone();
-			
-			//Add all state actions to the action list in forward order
-			while (!planCopy.isEmpty()) {
-				actionList.add(planCopy.pop().parentAction);
-			}
-			
-			//Add all state actions to the action stack in reverse order
-			for (int i = actionList.size() - 1; i >= 0; i--) {
-				actionPlan.push(actionList.get(i));
-			}	
+		//Add all actions to the action stack in reverse order
+		for (int i = codes.length - 1; i >= 0; i--) {
+			actionPlan.push(table.get(codes[i]));
 		}
 		
 		return actionPlan;
@@ -383,6 +754,9 @@ public class PlannerAgent extends Agent {
 	 * have the form of Move(peasantID, X, Y) and when grounded and written to
 	 * the file Move(1, 10, 15).
 	 *
+	 * The file is written by the plan writer off the agent thread, and not at all
+	 * when persistence is switched off.
+	 *
 	 * @param stripsPlan
 	 *            Stack of Strips Actions that are written to the text file.
 	 */
@@ -392,31 +766,35 @@ public class PlannerAgent extends Agent {
 			return;
 		}
 
-		File outputDir = new File("saves");
-		outputDir.mkdirs();
-
-		File outputFile = new File(outputDir, "plan.txt");
-
-		PrintWriter outputWriter = null;
-		try {
-			outputFile.createNewFile();
+		if (writer == null) {
+			return;
+		}
 
-			outputWriter = new PrintWriter(outputFile.getAbsolutePath());
+		//Format the plan here since the states may change once the game starts,
+		//but leave the file work to the writer thread
+		StringBuilder text = new StringBuilder();
+		Stack<StripsAction> tempPlan = (Stack<StripsAction>) stripsPlan.clone();
+		int actionNumber = 1;
+		while (!tempPlan.isEmpty()) {
+			text.append(actionNumber).append(": ")
+					.append(tempPlan.pop().toString())
+					.append(System.lineSeparator());
+			actionNumber++;
+		}
+		writer.write(new File(SAVE_DIR, "plan.txt"), text.toString(), false);
+	}
 
-			Stack<StripsAction> tempPlan = (Stack<StripsAction>) stripsPlan.clone();
-			int actionNumber = 1;
-			while (!tempPlan.isEmpty()) {
-				outputWriter.println(actionNumber + ": "
-						+ tempPlan.pop().toString());
-				actionNumber++;
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (outputWriter != null)
-				outputWriter.close();
+	/**
+	 * Writes the plan to "saves/plan.bin" in the binary plan format so it can be
+	 * loaded again with the loadPlan option.
+	 *
+	 * @param initial - the state the plan starts from
+	 * @param codes - the codes of the plan, first action first
+	 * @param goal - the goal state the plan reaches
+	 */
+	private void saveBinaryPlan(GameState initial, short[] codes, GameState goal) {
+		if (writer != null) {
+			writer.write(new File(SAVE_DIR, "plan.bin"), PlanFile.encode(initial, codes, goal, table), false);
 		}
 	}
 
@@ -428,7 +806,7 @@ public class PlannerAgent extends Agent {
 	 * Then 2 peasants are optimal for <= 1200 resources. 3 will take on the remaining.
 	 * These values remain the same throughout the game.
 	 */
-	private int getMaxPeasants() {
+	static int getMaxPeasants(int requiredGold, int requiredWood, boolean buildPeasants) {
 		if (!buildPeasants || (requiredGold + requiredWood) <= 800)
 			return 1;
 		if ((requiredGold + requiredWood) <= 1200)
@@ -436,17 +814,97 @@ public class PlannerAgent extends Agent {
 		return 3;
 	}
 
+	/**
+	 * Creates the goal state of the search from the required gold and wood. The goal
+	 * holds the best number of peasants for the amount of resources needed.
+	 *
+	 * @param requiredGold - the gold needed to win
+	 * @param requiredWood - the wood needed to win
+	 * @param buildPeasants - whether peasants may be built
+	 * @return the goal state
+	 */
+	static GameState makeGoal(int requiredGold, int requiredWood, boolean buildPeasants) {
+		GameState goal = new GameState(requiredGold, requiredWood);
+		
+		//We find the best number of peasants to add to our mock game state
+		for (int i = 0; i < getMaxPeasants(requiredGold, requiredWood, buildPeasants); i++){
+			goal.peasants.add(new Peasant(0, 0, 0, 0));
+		}
+		return goal;
+	}
+
 	@Override
 	public void terminalStep(State.StateView stateView,
 			History.HistoryView historyView) {
 		System.out.println("Executing plan was successful.");
 		long totalTime = System.nanoTime() - startTime;
 		System.out.println("Total time to execute plan was: " +totalTime/1e9);
+
+		//Keep what was learned for the next run, through the player data hook
+		if (learned != null && writer != null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			savePlayerData(bytes);
+			writer.write(new File(SAVE_DIR, "heuristic.bin"), ByteBuffer.wrap(bytes.toByteArray()), false);
+		}
+
+		//Keep the observed durations for the next episode and run
+		if (durations != null) {
+			System.out.println("The plan took " + stateView.getTurnNumber() + " turns, " + durations.size()
+					+ " actions have observed durations");
+			if (writer != null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try {
+					durations.write(bytes);
+					writer.write(new File(SAVE_DIR, "durations.bin"), ByteBuffer.wrap(bytes.toByteArray()), false);
+				} catch (IOException e) {
+					System.err.println("Could not save the action durations: " + e.getMessage());
+				}
+			}
+		}
+
+		//Make sure the saved plans are on disk before the episode ends
+		if (writer != null) {
+			if (!writer.flush(5000)) {
+				System.err.println("Timed out waiting for the plan writer to finish.");
+			}
+			if (writer.getFailures() > 0) {
+				System.err.println("The plan writer failed " + writer.getFailures() + " writes.");
+			}
+		}
 	}
 
+	/**
+	 * Writes the learned heuristic values, if learning is on.
+	 *
+	 * @param outputStream - the stream to write to
+	 */
 	@Override
-	public void savePlayerData(OutputStream outputStream) {}
+	public void savePlayerData(OutputStream outputStream) {
+		if (learned == null) {
+			return;
+		}
+		try {
+			learned.write(outputStream);
+		} catch (IOException e) {
+			System.err.println("Could not save the learned heuristic: " + e.getMessage());
+		}
+	}
 
+	/**
+	 * Reads learned heuristic values written by savePlayerData, if learning is on.
+	 *
+	 * @param inputStream - the stream to read from
+	 */
 	@Override
-	public void loadPlayerData(InputStream inputStream) {}
+	public void loadPlayerData(InputStream inputStream) {
+		if (learned == null) {
+			return;
+		}
+		try {
+			learned.read(inputStream);
+			System.out.println("Loaded learned values for " + learned.size() + " abstract states");
+		} catch (IOException e) {
+			System.err.println("Could not load the learned heuristic: " + e.getMessage());
+		}
+	}
 }
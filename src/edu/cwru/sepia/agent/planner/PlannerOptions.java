@@ -0,0 +1,225 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * The optional settings of the planner agent.
+ *
+ * The first three agent arguments are always the required gold, the required wood
+ * and whether peasants should be built. Any argument after those is an option of
+ * the form key=value, for example:
+ *
+ * <Argument>mode=hierarchical</Argument>
+ *
+ * Unknown keys are reported and otherwise ignored so a config written for a newer
+ * planner still runs.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlannerOptions {
+
+	//the number of required arguments that come before the options
+	public static final int REQUIRED_ARGS = 3;
+
+	//how the plan is produced
+	private PlanningMode mode = PlanningMode.ASTAR;
+
+	//whether an option chose the mode, so another option may not choose a different one
+	private boolean modeChosen = false;
+
+	//whether the analytic plans are compared with A* plans for small goals before planning
+	private boolean verify = false;
+
+	//a binary plan file to replay instead of planning, or null to plan
+	private String loadPlan = null;
+
+	//a domain file with more actions and fluents, or null for none
+	private String domain = null;
+
+	//whether plans are saved at all, off for throughput runs
+	private boolean persist = true;
+
+	//whether every A* expansion is written to a trace
+	private boolean trace = false;
+
+	//whether A* prunes states dominated by a state it generated before
+	private boolean dominance = false;
+
+	//whether A* tries only one order of independent actions
+	private boolean reduce = false;
+
+	//whether A* records its search tree to a binary trace for the trace analyzer
+	private boolean binaryTrace = false;
+
+	//whether A* learns heuristic values across episodes and runs
+	private boolean learn = false;
+
+	//the most heuristic values the searches keep, 0 to work every one out
+	private int heuristicCache = 0;
+
+	//the abstraction of the states the heuristic values are kept for, basic or places
+	private String cacheKey = "basic";
+
+	//the entries of an open layer or closed run the external search keeps in memory
+	private int spillEntries = ExternalSearch.DEFAULT_BUFFER_ENTRIES;
+
+	//whether plans minimize game cycles from the unit templates rather than the unit make span
+	private boolean templateCosts = false;
+
+	//whether the durations actions take in the game are recorded and planned with
+	private boolean calibrate = false;
+
+	/**
+	 * Creates the default options, which plan with A* search.
+	 */
+	public PlannerOptions() {}
+
+	/**
+	 * Parses the options that follow the required agent arguments.
+	 *
+	 * @param params - all of the agent arguments given in the config
+	 * @return the parsed options
+	 */
+	public static PlannerOptions parse(String[] params) {
+		PlannerOptions options = new PlannerOptions();
+		for (int i = REQUIRED_ARGS; i < params.length; i++) {
+			int split = params[i].indexOf('=');
+			if (split < 0) {
+				System.err.println("Ignoring planner option without a value: " + params[i]);
+				continue;
+			}
+			options.set(params[i].substring(0, split).trim(), params[i].substring(split + 1).trim());
+		}
+		return options;
+	}
+
+	/**
+	 * Sets a single option from its key and value.
+	 *
+	 * @param key - the name of the option
+	 * @param value - the value of the option
+	 */
+	public void set(String key, String value) {
+		try {
+			if (key.equals("mode")) {
+				choose(key, value, PlanningMode.parse(value), true);
+			} else if (key.equals("verify")) {
+				verify = Boolean.parseBoolean(value);
+			} else if (key.equals("loadPlan")) {
+				loadPlan = value.isEmpty() ? null : value;
+			} else if (key.equals("domain")) {
+				domain = value.isEmpty() ? null : value;
+			} else if (key.equals("persist")) {
+				persist = Boolean.parseBoolean(value);
+			} else if (key.equals("trace")) {
+				trace = Boolean.parseBoolean(value);
+			} else if (key.equals("binaryTrace")) {
+				binaryTrace = Boolean.parseBoolean(value);
+			} else if (key.equals("dominance")) {
+				dominance = Boolean.parseBoolean(value);
+			} else if (key.equals("reduce")) {
+				reduce = Boolean.parseBoolean(value);
+			} else if (key.equals("learn")) {
+				learn = Boolean.parseBoolean(value);
+			} else if (key.equals("arena")) {
+				choose(key, value, PlanningMode.ARENA, Boolean.parseBoolean(value));
+			} else if (key.equals("lazy")) {
+				choose(key, value, PlanningMode.LAZY, Boolean.parseBoolean(value));
+			} else if (key.equals("heuristicCache")) {
+				heuristicCache = Math.max(0, Integer.parseInt(value));
+			} else if (key.equals("cacheKey")) {
+				HeuristicCache.abstraction(value);
+				cacheKey = value;
+			} else if (key.equals("external")) {
+				choose(key, value, PlanningMode.EXTERNAL, Boolean.parseBoolean(value));
+			} else if (key.equals("spillEntries")) {
+				spillEntries = Math.max(1, Integer.parseInt(value));
+			} else if (key.equals("costs")) {
+				if (!value.equals("unit") && !value.equals("templates")) {
+					throw new IllegalArgumentException("Costs must be unit or templates");
+				}
+				templateCosts = value.equals("templates");
+			} else if (key.equals("calibrate")) {
+				calibrate = Boolean.parseBoolean(value);
+			} else {
+				System.err.println("Ignoring unknown planner option: " + key);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ignoring bad value for planner option " + key + ": " + value);
+		}
+
+		//the external search neither prunes dominated states nor leaves out orders
+		if (mode == PlanningMode.EXTERNAL && (dominance || reduce)) {
+			System.err.println("The external search does not support dominance or reduce, turning them off.");
+			dominance = false;
+			reduce = false;
+		}
+	}
+
+	/**
+	 * Chooses the planning mode for an option, or goes back to A* when the option
+	 * turns off the mode that was chosen. A mode that conflicts with one an earlier
+	 * option chose is reported and ignored.
+	 *
+	 * @param key - the name of the option
+	 * @param value - the value of the option
+	 * @param chosen - the mode the option chooses
+	 * @param on - whether the option turns the mode on
+	 */
+	private void choose(String key, String value, PlanningMode chosen, boolean on) {
+		if (!on) {
+			if (mode == chosen) {
+				mode = PlanningMode.ASTAR;
+				modeChosen = false;
+			}
+		} else if (modeChosen && mode != chosen) {
+			System.err.println("Ignoring planner option " + key + "=" + value + ", which conflicts with mode="
+					+ mode.name().toLowerCase());
+		} else {
+			mode = chosen;
+			modeChosen = true;
+		}
+	}
+
+	public PlanningMode getMode() { return mode; }
+
+	public void setMode(PlanningMode mode) { this.mode = mode; }
+
+	public boolean isVerify() { return verify; }
+
+	public String getLoadPlan() { return loadPlan; }
+
+	public String getDomain() { return domain; }
+
+	public boolean isPersist() { return persist; }
+
+	public boolean isTrace() { return trace; }
+
+	public boolean isBinaryTrace() { return binaryTrace; }
+
+	public boolean isDominance() { return dominance; }
+
+	public boolean isReduce() { return reduce; }
+
+	public boolean isLearn() { return learn; }
+
+	public int getHeuristicCache() { return heuristicCache; }
+
+	public String getCacheKey() { return cacheKey; }
+
+	public int getSpillEntries() { return spillEntries; }
+
+	public boolean isTemplateCosts() { return templateCosts; }
+
+	public boolean isCalibrate() { return calibrate; }
+
+	@Override
+	public String toString() {
+		return "mode=" + mode.name().toLowerCase() + " verify=" + verify
+				+ " persist=" + persist + " trace=" + trace + (binaryTrace ? " binaryTrace=true" : "")
+				+ " dominance=" + dominance
+				+ " reduce=" + reduce + " learn=" + learn
+				+ (heuristicCache > 0 ? " heuristicCache=" + heuristicCache + " cacheKey=" + cacheKey : "")
+				+ (mode == PlanningMode.EXTERNAL ? " spillEntries=" + spillEntries : "")
+				+ " costs=" + (templateCosts ? "templates" : "unit") + " calibrate=" + calibrate
+				+ (loadPlan == null ? "" : " loadPlan=" + loadPlan) + (domain == null ? "" : " domain=" + domain);
+	}
+}
@@ -0,0 +1,35 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * The ways the planner agent can produce a plan for the resource collection game.
+ *
+ * ASTAR is the original forward state-space A* search over every STRIPS action.
+ * HIERARCHICAL first decides how many trips go to each resource and how many peasants
+ * to build, then schedules those trips directly into STRIPS actions without search.
+ * ANALYTIC builds the plan for Midas maps from a closed form rule and only searches
+ * with A* when the map is one the rule does not cover.
+ * ARENA is the A* search with its nodes packed off the Java heap.
+ * EXTERNAL is the A* search with its nodes, open layers and closed set in files.
+ * LAZY is the A* search that only makes and scores a child once it reaches the top of the open list.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public enum PlanningMode {
+	ASTAR,
+	HIERARCHICAL,
+	ANALYTIC,
+	ARENA,
+	EXTERNAL,
+	LAZY;
+
+	/**
+	 * Parses a planning mode from an agent argument, ignoring case.
+	 *
+	 * @param name - the name of the mode, e.g. "astar" or "hierarchical"
+	 * @return the matching planning mode
+	 * @throws IllegalArgumentException when no mode has the given name
+	 */
+	public static PlanningMode parse(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,340 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+import edu.cwru.sepia.agent.planner.actions.BuildPeasantAction;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plans many queries at once in one JVM, for batch jobs that plan for several agents,
+ * goals or maps instead of the one game of a planner agent.
+ *
+ * A query is an initial state, a goal and the planner options, and it is planned on a
+ * thread of its own with search state that belongs to it alone, so queries never see each
+ * other's open sets or action lists. On Java 21 and later every query gets a virtual thread,
+ * which is found through reflection since the planner is built for Java 8. On older runtimes
+ * a pool of daemon threads plans them instead. The searches keep their threads busy, so
+ * either way about as many queries run at a time as there are processors.
+ *
+ * Queries on the same map share one action table. A table only depends on the resources
+ * and their distances to the depots, the costs, the domain and the peasant limit, and the
+ * searches only read it, so it is grounded by the first query on a map and kept for the
+ * life of the service. The options that write files or keep state across episodes, such
+ * as persist, trace, learn, calibrate and loadPlan, belong to the planner agent and are
+ * not used here.
+ *
+ * Jobs that measure or run the planners in their own way, such as the runs of the benchmark
+ * runner, are submitted with the initial state they plan from and get the shared table of its
+ * map. A service for them can be made to plan on a fixed pool of platform threads, so a job
+ * has a thread of its own for its timeout and its memory counters.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class PlanningService implements AutoCloseable {
+
+	/**
+	 * One planning problem.
+	 */
+	public static class Query {
+
+		private final GameState initial;
+
+		private final GameState goal;
+
+		private final boolean buildPeasants;
+
+		private final PlannerOptions options;
+
+		/**
+		 * @param initial - the state to plan from, which is copied before it is searched
+		 * @param goal - the goal state with the required gold, wood and peasants
+		 * @param buildPeasants - whether peasants may be built
+		 * @param options - the planning mode and search settings
+		 */
+		public Query(GameState initial, GameState goal, boolean buildPeasants, PlannerOptions options) {
+			this.initial = initial;
+			this.goal = goal;
+			this.buildPeasants = buildPeasants;
+			this.options = options;
+		}
+
+		public GameState getInitial() { return initial; }
+
+		public GameState getGoal() { return goal; }
+	}
+
+	/**
+	 * The plan found for a query.
+	 */
+	public static class Result {
+
+		private final Stack<GameState> plan;
+
+		private final ActionTable table;
+
+		private final long nanos;
+
+		Result(Stack<GameState> plan, ActionTable table, long nanos) {
+			this.plan = plan;
+			this.table = table;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the plan of game states, or null if none was found
+		 */
+		public Stack<GameState> getPlan() { return plan; }
+
+		/**
+		 * @return the table the action codes of the plan refer to
+		 */
+		public ActionTable getTable() { return table; }
+
+		public boolean isFound() { return plan != null; }
+
+		/**
+		 * @return the make span of the plan, or -1 if none was found
+		 */
+		public int getMakeSpan() {
+			return plan == null ? -1 : PlannerAgent.getMakeSpan(plan, table);
+		}
+
+		/**
+		 * @return the milliseconds the query took to plan, not counting its wait for a thread
+		 */
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return plan == null ? "no plan in " + getMillis() + " ms"
+					: plan.size() + " actions with a make span of " + getMakeSpan() + " in " + getMillis() + " ms";
+		}
+	}
+
+	/**
+	 * A job planning from an initial state with the shared action table of its map.
+	 */
+	public interface TableJob<T> {
+
+		/**
+		 * @param table - the action table of the map of the initial state
+		 * @param number - the number of the job among all queries and jobs submitted
+		 * @return the result of the job
+		 * @throws Exception if the job fails
+		 */
+		T run(ActionTable table, int number) throws Exception;
+	}
+
+	/**
+	 * What makes two initial states share an action table.
+	 */
+	private static class TableKey {
+
+		private final long map;
+
+		private final CostModel costs;
+
+		private final Domain domain;
+
+		private final int maxPeasants;
+
+		TableKey(GameState initial, int maxPeasants) {
+			this.map = DurationTable.mapOf(initial);
+			this.costs = initial.getCosts();
+			this.domain = initial.getDomain();
+			this.maxPeasants = maxPeasants;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TableKey)) {
+				return false;
+			}
+			TableKey other = (TableKey) o;
+			return map == other.map && maxPeasants == other.maxPeasants && Objects.equals(costs, other.costs)
+					&& domain == other.domain;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(map, costs, System.identityHashCode(domain), maxPeasants);
+		}
+	}
+
+	private final ExecutorService executor;
+
+	//whether the queries run on virtual threads
+	private final boolean virtual;
+
+	//where the external searches spill, one folder per query
+	private final File spillDir;
+
+	//the action table of every map planned on so far
+	private final ConcurrentMap<TableKey, ActionTable> tables = new ConcurrentHashMap<>();
+
+	//the number of queries and jobs submitted so far, which also names their spill folders
+	private final AtomicInteger submitted = new AtomicInteger();
+
+	/**
+	 * Creates a service that falls back to a thread per processor without virtual threads.
+	 *
+	 * @param spillDir - the folder the external searches spill to
+	 */
+	public PlanningService(File spillDir) {
+		this(Runtime.getRuntime().availableProcessors(), spillDir);
+	}
+
+	/**
+	 * @param threads - the threads planning at once when there are no virtual threads
+	 * @param spillDir - the folder the external searches spill to
+	 */
+	public PlanningService(int threads, File spillDir) {
+		this(threads, spillDir, true);
+	}
+
+	/**
+	 * @param threads - the threads planning at once when there are no virtual threads
+	 * @param spillDir - the folder the external searches spill to
+	 * @param virtualThreads - whether to plan on virtual threads when the runtime has them,
+	 *        or always on a pool of that many platform threads
+	 */
+	public PlanningService(int threads, File spillDir, boolean virtualThreads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("A planning service needs a thread, not " + threads);
+		}
+		ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+		virtual = virtualExecutor != null;
+		executor = virtual ? virtualExecutor : Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "planner");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread for every task, or null if the
+	 *         runtime has no virtual threads
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts planning a query.
+	 *
+	 * @param query - the query to plan
+	 * @return the result of the query once it is planned
+	 */
+	public Future<Result> submit(Query query) {
+		return submit(query.initial, (table, number) -> plan(query, table, number));
+	}
+
+	/**
+	 * Starts a job that plans from an initial state with the shared table of its map,
+	 * which is grounded on the job's thread if no query or job used the map before.
+	 *
+	 * @param initial - the state the job plans from
+	 * @param job - the job to run
+	 * @return the result of the job once it is done
+	 */
+	public <T> Future<T> submit(GameState initial, TableJob<T> job) {
+		int number = submitted.getAndIncrement();
+		return executor.submit(() -> job.run(tableFor(initial), number));
+	}
+
+	/**
+	 * Plans every query and waits for all of them.
+	 *
+	 * @param queries - the queries to plan
+	 * @return the result of every query, in the order of the queries
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public List<Result> planAll(List<Query> queries) throws InterruptedException {
+		List<Future<Result>> futures = new ArrayList<>();
+		for (Query query : queries) {
+			futures.add(submit(query));
+		}
+		List<Result> results = new ArrayList<>();
+		for (Future<Result> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("A planning query failed", e.getCause());
+			}
+		}
+		return results;
+	}
+
+	private Result plan(Query query, ActionTable table, int number) {
+		//the search sets the costs of the initial state, so every query searches a copy
+		GameState initial = new GameState(query.initial);
+		initial.setParent(null);
+
+		long start = System.nanoTime();
+		File dir = new File(spillDir, "query-" + number);
+		Stack<GameState> plan = PlannerAgent.plan(initial, query.goal, table, query.buildPeasants, query.options,
+				dir, null, null);
+
+		//the external search deletes its files, which leaves the folder empty
+		dir.delete();
+		return new Result(plan, table, System.nanoTime() - start);
+	}
+
+	/**
+	 * @param initial - the initial state of a query
+	 * @return the action table of its map, grounded now if no query used the map before
+	 */
+	ActionTable tableFor(GameState initial) {
+		int maxPeasants = Math.max(BuildPeasantAction.PEASANT_LIMIT, initial.getPeasantCount());
+		return tables.computeIfAbsent(new TableKey(initial, maxPeasants), key -> new ActionTable(initial, maxPeasants));
+	}
+
+	/**
+	 * @return whether the queries run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return the number of action tables the queries share
+	 */
+	public int getTableCount() {
+		return tables.size();
+	}
+
+	/**
+	 * @return the number of queries and jobs submitted so far
+	 */
+	public int getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * Stops the service, interrupting the queries still planning.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -3,6 +3,9 @@ import edu.cwru.sepia.environment.model.state.ResourceNode;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.DistanceMetrics;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A resource represents a resource view in the sepia game engine for the
  * resource collection game.
@@ -26,9 +29,15 @@ public class Resource {
     //the amount available at this resource
     private int amount;                
     
-    //the distance of this resource from the town hall
+    //the distance of this resource from the nearest depot
     private int distance;              
 
+    //the distance of this resource from every depot, shared by every copy
+    private int[] depotDistances;
+
+    //the index of the depot nearest to this resource
+    private int nearestDepot;
+
     /**
      * Constructs a resource from a resource view and the town hall on the game 
      * map.
@@ -37,17 +46,84 @@ public class Resource {
      * @param townHall - the town hall unit view
      */
     public Resource(ResourceNode.ResourceView resourceView, Unit.UnitView townHall) {
+        this(resourceView, Collections.singletonList(townHall));
+    }
+
+    /**
+     * Constructs a resource from a resource view and every building on the game
+     * map that accepts cargo, the depots. The town hall that builds peasants
+     * should be the first depot.
+     * 
+     * @param resourceView - the resource view of the desired resource to make
+     * @param depots - the unit views of the depots
+     */
+    public Resource(ResourceNode.ResourceView resourceView, List<Unit.UnitView> depots) {
         this.type = resourceView.getType();
         this.amount = resourceView.getAmountRemaining();
         this.id = resourceView.getID();
         this.x = resourceView.getXPosition();
         this.y = resourceView.getYPosition();
         
-        //Calculate an admissible distance from this resource to the town hall
-        //Do this because the peasants only travel to/from resources and the town hall
-        this.distance = (int)Math.ceil(DistanceMetrics.euclideanDistance(
-                resourceView.getXPosition(), resourceView.getYPosition(),
-                townHall.getXPosition(), townHall.getYPosition()));
+        //Calculate an admissible distance from this resource to every depot
+        //Do this because the peasants only travel to/from resources and the depots
+        int[] depotX = new int[depots.size()];
+        int[] depotY = new int[depots.size()];
+        for (int i = 0; i < depotX.length; i++) {
+            depotX[i] = depots.get(i).getXPosition();
+            depotY[i] = depots.get(i).getYPosition();
+        }
+        setDepots(depotX, depotY);
+    }
+
+    /**
+     * Constructs a resource that is not on a SEPIA map, such as one of a
+     * generated scenario.
+     * 
+     * @param id - the unique id of the resource
+     * @param type - the type of the resource (wood or gold)
+     * @param amount - the amount available at the resource
+     * @param x - the x position of the resource
+     * @param y - the y position of the resource
+     * @param townHallX - the x position of the town hall
+     * @param townHallY - the y position of the town hall
+     */
+    public Resource(int id, ResourceNode.Type type, int amount, int x, int y, int townHallX, int townHallY) {
+        this(id, type, amount, x, y, new int[] {townHallX}, new int[] {townHallY});
+    }
+
+    /**
+     * Constructs a resource that is not on a SEPIA map with several depots.
+     * 
+     * @param id - the unique id of the resource
+     * @param type - the type of the resource (wood or gold)
+     * @param amount - the amount available at the resource
+     * @param x - the x position of the resource
+     * @param y - the y position of the resource
+     * @param depotX - the x position of every depot, the town hall first
+     * @param depotY - the y position of every depot, the town hall first
+     */
+    public Resource(int id, ResourceNode.Type type, int amount, int x, int y, int[] depotX, int[] depotY) {
+        this.type = type;
+        this.amount = amount;
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        setDepots(depotX, depotY);
+    }
+
+    /**
+     * Finds the distance to every depot and the nearest one.
+     */
+    private void setDepots(int[] depotX, int[] depotY) {
+        depotDistances = new int[depotX.length];
+        nearestDepot = 0;
+        for (int i = 0; i < depotX.length; i++) {
+            depotDistances[i] = (int)Math.ceil(DistanceMetrics.euclideanDistance(x, y, depotX[i], depotY[i]));
+            if (depotDistances[i] < depotDistances[nearestDepot]) {
+                nearestDepot = i;
+            }
+        }
+        this.distance = depotDistances[nearestDepot];
     }
 
     /**
@@ -60,11 +136,25 @@ public class Resource {
         this.type = resToCopy.getType();
         this.amount = resToCopy.getAmount();
         this.distance = resToCopy.distance;
+        this.depotDistances = resToCopy.depotDistances;
+        this.nearestDepot = resToCopy.nearestDepot;
         this.id = resToCopy.id;
         this.x = resToCopy.x;
         this.y = resToCopy.y;
     }
 
+    /**
+     * Constructor that makes a copy of the given resource with another amount left,
+     * used when unpacking a state from its packed words.
+     *
+     * @param resToCopy - the resource to make a copy of
+     * @param amount - the amount left at the copy
+     */
+    Resource(Resource resToCopy, int amount) {
+        this(resToCopy);
+        this.amount = amount;
+    }
+
     /**
      * Diminishes the amount of this resource by 100, if there
      * are at least 100 parts of this resource left.
@@ -72,9 +162,20 @@ public class Resource {
      * @return the amount gathered (100 or 0)
      */
     public int gather() {
+        return gather(100);
+    }
+
+    /**
+     * Diminishes the amount of this resource by the cargo a peasant carries,
+     * if there is at least that much of this resource left.
+     * 
+     * @param capacity - the amount a peasant carries from one harvest
+     * @return the amount gathered (the capacity or 0)
+     */
+    public int gather(int capacity) {
     	int amt = 0;
-        if(this.amount >= 100) {
-        	amt = 100;
+        if(this.amount >= capacity) {
+        	amt = capacity;
             this.amount -= amt;
         }
         return amt;
@@ -86,8 +187,21 @@ public class Resource {
 
     public int getAmount() { return amount; }
 
+    /**
+     * @return the distance of this resource from the nearest depot
+     */
     public int getDistance() { return distance; }
 
+    /**
+     * @param depot - the index of a depot
+     * @return the distance of this resource from the depot
+     */
+    public int getDistance(int depot) { return depotDistances[depot]; }
+
+    public int getDepotCount() { return depotDistances.length; }
+
+    public int getNearestDepot() { return nearestDepot; }
+
     public int getX() { return x; }
 
     public int getY() { return y; }
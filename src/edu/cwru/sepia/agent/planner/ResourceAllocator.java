@@ -0,0 +1,229 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasantAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The top level of the hierarchical planner. Instead of searching over every
+ * interleaving of STRIPS actions, the allocator decides how many trips each resource
+ * gets and when peasants are built. The plan scheduler then expands that decision
+ * into the actual STRIPS actions.
+ *
+ * Every trip is a move-harvest-move-deposit round with a make span of twice the distance
+ * of the resource from the town hall plus one for the harvest and one for the deposit.
+ * All peasants travel together, so a round with k peasants costs the same as a round
+ * with one peasant but brings back k times as much.
+ *
+ * For each possible number of peasants to build the allocator gives the trips to the
+ * nearest resources that still have enough left, builds every peasant as soon as there
+ * is enough gold and computes the resulting make span. The number of peasants
+ * with the smallest make span wins. Each round is simulated arithmetically, so
+ * the whole allocation takes well under a millisecond for the given scenarios.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class ResourceAllocator {
+
+	/**
+	 * The result of an allocation: the number of single peasant trips for each resource
+	 * in the order they should be made and the rounds at which peasants are built.
+	 */
+	public static class Allocation {
+
+		//resource id to the number of trips, gold mines first
+		private final Map<Integer, Integer> trips;
+
+		//the round before which each new peasant is built
+		private final List<Integer> buildRounds;
+
+		//the estimated make span of the whole plan
+		private final int makeSpan;
+
+		Allocation(Map<Integer, Integer> trips, List<Integer> buildRounds, int makeSpan) {
+			this.trips = trips;
+			this.buildRounds = buildRounds;
+			this.makeSpan = makeSpan;
+		}
+
+		public Map<Integer, Integer> getTrips() { return trips; }
+
+		public List<Integer> getBuildRounds() { return buildRounds; }
+
+		public int getPeasantsToBuild() { return buildRounds.size(); }
+
+		public int getMakeSpan() { return makeSpan; }
+
+		@Override
+		public String toString() {
+			return "Allocation(trips: " + trips + ", builds before rounds: " + buildRounds
+					+ ", make span: " + makeSpan + ")";
+		}
+	}
+
+	/**
+	 * Finds the allocation with the smallest make span over every number of peasants
+	 * that can be built.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the state with the required gold and wood
+	 * @param peasantLimit - the most peasants that may be in the game at once
+	 * @return the best allocation, or null if no allocation reaches the goal
+	 */
+	public Allocation allocate(GameState initial, GameState goal, int peasantLimit) {
+		Allocation best = null;
+		int maxBuilds = Math.max(0, peasantLimit - initial.getPeasantCount());
+
+		for (int builds = 0; builds <= maxBuilds; builds++) {
+			Allocation allocation = allocate(initial, goal, builds, peasantLimit);
+			if (allocation != null && (best == null || allocation.getMakeSpan() < best.getMakeSpan())) {
+				best = allocation;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Allocates trips for a fixed number of peasants to build.
+	 *
+	 * @param initial - the state to plan from
+	 * @param goal - the state with the required gold and wood
+	 * @param builds - the number of peasants to build
+	 * @param peasantLimit - the most peasants that may be in the game at once
+	 * @return the allocation, or null if the resources cannot cover it
+	 */
+	public Allocation allocate(GameState initial, GameState goal, int builds, int peasantLimit) {
+		CostModel costs = initial.getCosts();
+		int goldTrips = tripsFor(goal.gold + builds * costs.getPeasantGold() - initial.gold, costs.getGoldCapacity());
+		int woodTrips = tripsFor(goal.wood - initial.wood, costs.getWoodCapacity());
+
+		//gold always comes first since wood can only be gathered once the gold is in
+		Map<Integer, Integer> trips = new LinkedHashMap<>();
+		if (!assignNearest(initial, ResourceNode.Type.GOLD_MINE, goldTrips, trips)
+				|| !assignNearest(initial, ResourceNode.Type.TREE, woodTrips, trips)) {
+			return null;
+		}
+
+		List<Integer> buildRounds = new ArrayList<>();
+		int makeSpan = simulate(initial, goal, trips, builds, peasantLimit, buildRounds);
+		if (makeSpan < 0) {
+			return null;
+		}
+		return new Allocation(trips, buildRounds, makeSpan);
+	}
+
+	/**
+	 * Gives the trips for one type of resource to the nearest resources of that type,
+	 * filling each resource before moving on to the next nearest one.
+	 *
+	 * @return whether there was enough of the resource type for all of the trips
+	 */
+	private boolean assignNearest(GameState initial, ResourceNode.Type type, int tripsNeeded,
+			Map<Integer, Integer> trips) {
+		List<Resource> candidates = new ArrayList<>();
+		for (Resource resource : initial.resources) {
+			if (resource.getType().equals(type)) {
+				candidates.add(resource);
+			}
+		}
+		Collections.sort(candidates, new Comparator<Resource>() {
+			@Override
+			public int compare(Resource a, Resource b) {
+				return a.getDistance() - b.getDistance();
+			}
+		});
+
+		for (Resource resource : candidates) {
+			if (tripsNeeded <= 0) {
+				break;
+			}
+			int count = Math.min(tripsNeeded, resource.getAmount() / initial.getCosts().getCapacity(type));
+			if (count > 0) {
+				trips.put(resource.getId(), count);
+				tripsNeeded -= count;
+			}
+		}
+		return tripsNeeded <= 0;
+	}
+
+	/**
+	 * Walks through the rounds of an allocation the same way the plan scheduler will,
+	 * building peasants as soon as there is enough gold and checking the gold conditions
+	 * of the move actions along the way.
+	 *
+	 * @param buildRounds - filled with the round before which each peasant is built
+	 * @return the make span of the allocation, or -1 if the schedule breaks a precondition
+	 */
+	private int simulate(GameState initial, GameState goal, Map<Integer, Integer> trips,
+			int builds, int peasantLimit, List<Integer> buildRounds) {
+		CostModel costs = initial.getCosts();
+		int peasants = initial.getPeasantCount();
+		int gold = initial.gold;
+		int makeSpan = 0;
+		int round = 0;
+
+		for (Map.Entry<Integer, Integer> entry : trips.entrySet()) {
+			Resource resource = initial.getResourceWithId(entry.getKey());
+			boolean isGold = resource.getType().equals(ResourceNode.Type.GOLD_MINE);
+			int remaining = entry.getValue();
+
+			while (remaining > 0) {
+				//build a peasant whenever we can afford one
+				while (buildRounds.size() < builds && gold >= costs.getPeasantGold() && peasants < peasantLimit) {
+					buildRounds.add(round);
+					gold -= costs.getPeasantGold();
+					peasants++;
+					makeSpan += costs.getPeasantCycles();
+				}
+
+				//peasants may only go to a mine while gold is needed and to a tree once it is not
+				if ((isGold && gold > goal.gold) || (!isGold && gold < goal.gold)) {
+					return -1;
+				}
+
+				int count = Math.min(peasants, remaining);
+				makeSpan += 2 * costs.getMoveCycles(resource.getDistance())
+						+ costs.getGatherCycles(resource.getType()) + costs.getDepositCycles();
+				remaining -= count;
+				if (isGold) {
+					gold += count * costs.getGoldCapacity();
+				}
+				round++;
+			}
+		}
+
+		//any peasants not built yet must be built with the gold left over
+		while (buildRounds.size() < builds && gold >= costs.getPeasantGold()) {
+			buildRounds.add(round);
+			gold -= costs.getPeasantGold();
+			makeSpan += costs.getPeasantCycles();
+		}
+		if (buildRounds.size() < builds || gold < goal.gold) {
+			return -1;
+		}
+		return makeSpan;
+	}
+
+	/**
+	 * @return the number of single peasant trips needed to gather the given amount
+	 */
+	private static int tripsFor(int amount, int capacity) {
+		if (amount <= 0) {
+			return 0;
+		}
+		return (amount + capacity - 1) / capacity;
+	}
+
+	/**
+	 * @return the most peasants the hierarchical planner may have, given whether building is allowed
+	 */
+	static int peasantLimit(GameState initial, boolean buildPeasants) {
+		return buildPeasants ? BuildPeasantAction.PEASANT_LIMIT : initial.getPeasantCount();
+	}
+}
@@ -0,0 +1,255 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic initial game states for benchmarking the planners without SEPIA.
+ *
+ * A scenario is a square map with a town hall, gold mines and trees at random places,
+ * some peasants idle at the town hall and a goal of gold and wood. The map size sets how
+ * far the resources are from the town hall and so the make span of every trip. The
+ * resources always hold enough for the goal and the peasants it may build, so every
+ * scenario has a plan. Maps may also have extra depots besides the town hall, placed at
+ * random like the resources. The same seed always gives the same scenarios.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class ScenarioGenerator {
+
+	//the parameters of the sweeps, every combination is one scenario
+	private static final int[] QUICK_SIZES = {32};
+	private static final int[][] QUICK_LAYOUTS = {{3, 5}};
+	private static final int[] QUICK_PEASANTS = {1};
+	private static final int[][] QUICK_GOALS = {{200, 200}, {1000, 1000}};
+
+	private static final int[] FULL_SIZES = {16, 32, 64};
+	private static final int[][] FULL_LAYOUTS = {{1, 2}, {3, 5}, {6, 10}};
+	private static final int[] FULL_PEASANTS = {1, 2};
+	private static final int[][] FULL_GOALS = {{200, 200}, {500, 500}, {1000, 1000}, {2000, 1500}};
+
+	//the amounts of a single gold mine and tree, in trips of 100
+	private static final int MIN_MINE_TRIPS = 10;
+	private static final int MAX_MINE_TRIPS = 50;
+	private static final int MIN_TREE_TRIPS = 2;
+	private static final int MAX_TREE_TRIPS = 10;
+
+	private final Random random;
+
+	//the number of depots of every map, the town hall included
+	private final int depots;
+
+	/**
+	 * @param seed - the seed of the random map layouts
+	 */
+	public ScenarioGenerator(long seed) {
+		this(seed, 1);
+	}
+
+	/**
+	 * @param seed - the seed of the random map layouts
+	 * @param depots - the number of depots of every map, the town hall included
+	 */
+	public ScenarioGenerator(long seed, int depots) {
+		if (depots < 1) {
+			throw new IllegalArgumentException("A scenario needs a town hall");
+		}
+		this.random = new Random(seed);
+		this.depots = depots;
+	}
+
+	/**
+	 * Generates one scenario.
+	 *
+	 * @param mapSize - the width and height of the map
+	 * @param goldMines - the number of gold mines
+	 * @param trees - the number of trees
+	 * @param peasants - the number of peasants at the start
+	 * @param gold - the required gold
+	 * @param wood - the required wood
+	 * @param buildPeasants - whether peasants may be built
+	 * @return the scenario
+	 */
+	public Scenario generate(int mapSize, int goldMines, int trees, int peasants, int gold, int wood,
+			boolean buildPeasants) {
+		if (goldMines < 1 || trees < 1 || peasants < 1) {
+			throw new IllegalArgumentException("A scenario needs a gold mine, a tree and a peasant");
+		}
+		GameState initial = new GameState(0, 0);
+		GameState goal = PlannerAgent.makeGoal(gold, wood, buildPeasants);
+
+		int[] depotX = new int[depots];
+		int[] depotY = new int[depots];
+		depotX[0] = mapSize / 4 + random.nextInt(mapSize / 2);
+		depotY[0] = mapSize / 4 + random.nextInt(mapSize / 2);
+		for (int d = 1; d < depots; d++) {
+			do {
+				depotX[d] = random.nextInt(mapSize);
+				depotY[d] = random.nextInt(mapSize);
+			} while (nearDepot(depotX, depotY, d, depotX[d], depotY[d]));
+		}
+
+		//enough of each resource for the goal and every peasant that may be built
+		int builds = Math.max(0, goal.peasants.size() - peasants);
+		int neededGold = gold + 400 * builds;
+		int nextId = 1;
+		nextId = addResources(initial, ResourceNode.Type.GOLD_MINE, goldMines, MIN_MINE_TRIPS, MAX_MINE_TRIPS,
+				neededGold, mapSize, depotX, depotY, nextId);
+		nextId = addResources(initial, ResourceNode.Type.TREE, trees, MIN_TREE_TRIPS, MAX_TREE_TRIPS,
+				wood, mapSize, depotX, depotY, nextId);
+
+		for (int i = 0; i < peasants; i++) {
+			initial.peasants.add(new Peasant(0, 0, 0, nextId++));
+		}
+
+		String name = "s" + mapSize + "_g" + goldMines + "_t" + trees + "_p" + peasants
+				+ (depots > 1 ? "_d" + depots : "") + "_" + gold + "x" + wood + (buildPeasants ? "_build" : "");
+		return new Scenario(name, mapSize, goldMines, trees, peasants, buildPeasants, depotX, depotY,
+				initial, goal);
+	}
+
+	/**
+	 * Generates every combination of the map sizes, resource layouts, starting peasants
+	 * and goals of a sweep, with and without building peasants.
+	 *
+	 * @param full - whether to generate the full sweep rather than the quick one
+	 * @return the scenarios of the sweep
+	 */
+	public List<Scenario> sweep(boolean full) {
+		int[] sizes = full ? FULL_SIZES : QUICK_SIZES;
+		int[][] layouts = full ? FULL_LAYOUTS : QUICK_LAYOUTS;
+		int[] peasants = full ? FULL_PEASANTS : QUICK_PEASANTS;
+		int[][] goals = full ? FULL_GOALS : QUICK_GOALS;
+
+		List<Scenario> scenarios = new ArrayList<>();
+		for (int size : sizes) {
+			for (int[] layout : layouts) {
+				for (int start : peasants) {
+					for (int[] goal : goals) {
+						scenarios.add(generate(size, layout[0], layout[1], start, goal[0], goal[1], false));
+						scenarios.add(generate(size, layout[0], layout[1], start, goal[0], goal[1], true));
+					}
+				}
+			}
+		}
+		return scenarios;
+	}
+
+	/**
+	 * Places resources of one type at random free places of the map. The amounts are random,
+	 * and the last resource is topped up if they do not cover the needed amount.
+	 *
+	 * @return the next free id
+	 */
+	private int addResources(GameState state, ResourceNode.Type type, int count, int minTrips, int maxTrips,
+			int needed, int mapSize, int[] depotX, int[] depotY, int nextId) {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int amount = 100 * (minTrips + random.nextInt(maxTrips - minTrips + 1));
+			if (i == count - 1 && total + amount < needed) {
+				amount = needed - total;
+			}
+			total += amount;
+
+			int x, y;
+			do {
+				x = random.nextInt(mapSize);
+				y = random.nextInt(mapSize);
+			} while (nearDepot(depotX, depotY, depotX.length, x, y) || occupied(state, x, y));
+			state.resources.add(new Resource(nextId++, type, amount, x, y, depotX, depotY));
+		}
+		return nextId;
+	}
+
+	/**
+	 * @return true if the place is within 2 steps of one of the first depots
+	 */
+	private static boolean nearDepot(int[] depotX, int[] depotY, int depots, int x, int y) {
+		for (int d = 0; d < depots; d++) {
+			if (Math.abs(x - depotX[d]) + Math.abs(y - depotY[d]) < 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean occupied(GameState state, int x, int y) {
+		for (Resource resource : state.resources) {
+			if (resource.getX() == x && resource.getY() == y) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A generated initial state and goal with the parameters it was made from.
+	 */
+	public static class Scenario {
+
+		private final String name;
+		private final int mapSize;
+		private final int goldMines;
+		private final int trees;
+		private final int peasants;
+		private final boolean buildPeasants;
+		private final int[] depotX;
+		private final int[] depotY;
+		private final GameState initial;
+		private final GameState goal;
+
+		Scenario(String name, int mapSize, int goldMines, int trees, int peasants, boolean buildPeasants,
+				int[] depotX, int[] depotY, GameState initial, GameState goal) {
+			this.name = name;
+			this.mapSize = mapSize;
+			this.goldMines = goldMines;
+			this.trees = trees;
+			this.peasants = peasants;
+			this.buildPeasants = buildPeasants;
+			this.depotX = depotX;
+			this.depotY = depotY;
+			this.initial = initial;
+			this.goal = goal;
+		}
+
+		public String getName() { return name; }
+
+		public int getMapSize() { return mapSize; }
+
+		public int getGoldMines() { return goldMines; }
+
+		public int getTrees() { return trees; }
+
+		public int getPeasants() { return peasants; }
+
+		public boolean isBuildPeasants() { return buildPeasants; }
+
+		public int getTownHallX() { return depotX[0]; }
+
+		public int getTownHallY() { return depotY[0]; }
+
+		/**
+		 * @return the x position of every depot, the town hall first
+		 */
+		public int[] getDepotX() { return depotX.clone(); }
+
+		/**
+		 * @return the y position of every depot, the town hall first
+		 */
+		public int[] getDepotY() { return depotY.clone(); }
+
+		/**
+		 * @return a fresh copy of the initial state, since searches set values on the states they see
+		 */
+		public GameState getInitial() {
+			GameState copy = new GameState(initial);
+			copy.setParent(null);
+			return copy;
+		}
+
+		public GameState getGoal() { return goal; }
+	}
+}
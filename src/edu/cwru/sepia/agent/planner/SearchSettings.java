@@ -0,0 +1,90 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+/**
+ * The settings of one A* search of the planner agent: the table of grounded actions it
+ * searches with and the optional parts it runs with.
+ *
+ * Only the table is needed. The search records its expansions in the trace if there is one,
+ * prunes dominated states with a DominanceIndex of its own if dominance is on, tries only one
+ * order of every two independent actions if reduce is on, ranks states by the learned heuristic
+ * if there is one and otherwise takes the plain heuristic from the cache if there is one.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class SearchSettings {
+
+	private final ActionTable table;
+
+	//the trace to record expansions in, or null to not trace
+	private SearchTrace trace = null;
+
+	//whether states dominated by a state queued before are pruned
+	private boolean dominance = false;
+
+	//whether the redundant orders of independent actions are left out
+	private boolean reduce = false;
+
+	//the learned heuristic to use and teach, or null for the plain heuristic
+	private LearnedHeuristic learned = null;
+
+	//the cache of the heuristic values for the goal, or null to work out every one
+	private HeuristicCache cache = null;
+
+	/**
+	 * @param table - every grounded action of the game
+	 */
+	public SearchSettings(ActionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param table - every grounded action of the game
+	 * @param options - the options to take dominance and reduce from
+	 */
+	public SearchSettings(ActionTable table, PlannerOptions options) {
+		this(table);
+		dominance = options.isDominance();
+		reduce = options.isReduce();
+	}
+
+	public ActionTable getTable() { return table; }
+
+	public SearchTrace getTrace() { return trace; }
+
+	/**
+	 * @param trace - the trace to record expansions in, or null to not trace
+	 */
+	public void setTrace(SearchTrace trace) { this.trace = trace; }
+
+	public boolean isDominance() { return dominance; }
+
+	/**
+	 * @param dominance - whether states dominated by a state queued before are pruned
+	 */
+	public void setDominance(boolean dominance) { this.dominance = dominance; }
+
+	public boolean isReduce() { return reduce; }
+
+	/**
+	 * @param reduce - whether the redundant orders of independent actions are left out
+	 */
+	public void setReduce(boolean reduce) { this.reduce = reduce; }
+
+	public LearnedHeuristic getLearned() { return learned; }
+
+	/**
+	 * @param learned - the learned heuristic to use and teach, or null for the plain heuristic
+	 */
+	public void setLearned(LearnedHeuristic learned) { this.learned = learned; }
+
+	public HeuristicCache getCache() { return cache; }
+
+	/**
+	 * A learned heuristic changes as it learns, so the cache is not used with one.
+	 *
+	 * @param cache - the cache of the heuristic values for the goal, or null to work out every one
+	 */
+	public void setCache(HeuristicCache cache) { this.cache = cache; }
+}
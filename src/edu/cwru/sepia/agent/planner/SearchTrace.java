@@ -0,0 +1,183 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An optional text trace of the A* search. Every expanded state is written as one
+ * line with its depth, its cost so far, its total cost and the action that made it.
+ *
+ * Lines are collected in memory and handed to the plan writer in large chunks so
+ * tracing adds no file system work to the search itself. A trace without a writer
+ * only counts the expansions, for benchmarks. If the writer drops a chunk, the trace
+ * stops collecting lines and ends the file with a line saying where it was truncated,
+ * so the file never has lines missing from its middle.
+ *
+ * A trace can also hand every generated and expanded state to a TraceRecorder, which
+ * keeps the whole search tree in a binary file for the TraceAnalyzer.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class SearchTrace {
+
+	//the number of characters collected before they are handed to the writer
+	private static final int CHUNK_CHARS = 1 << 16;
+
+	private final PlanWriter writer;
+
+	private final File file;
+
+	private final ActionTable table;
+
+	//the lines not yet handed to the writer
+	private StringBuilder chunk = new StringBuilder();
+
+	//whether the first chunk, which replaces any old trace, was written
+	private boolean started = false;
+
+	//whether the writer dropped a chunk, and the expansions in the chunks written before it
+	private boolean truncated = false;
+	private int written = 0;
+
+	private int expansions = 0;
+
+	//the binary trace of the search tree, or null
+	private TraceRecorder recorder = null;
+
+	/**
+	 * @param writer - the writer to hand the trace to
+	 * @param file - the file to write the trace to
+	 * @param table - the table the action codes of the states refer to
+	 */
+	public SearchTrace(PlanWriter writer, File file, ActionTable table) {
+		this.writer = writer;
+		this.file = file;
+		this.table = table;
+	}
+
+	/**
+	 * Creates a trace that only counts the expanded states.
+	 *
+	 * @param table - the table the action codes of the states refer to
+	 */
+	public SearchTrace(ActionTable table) {
+		this(null, null, table);
+	}
+
+	/**
+	 * @param recorder - the recorder to hand every generated and expanded state to
+	 */
+	public void record(TraceRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Records the state the search starts from, once it is scored.
+	 *
+	 * @param initial - the initial state
+	 */
+	public void root(GameState initial) {
+		if (recorder != null) {
+			initial.setTraceNode(recorder.root(initial.getCost(), initial.getTotalCost() - initial.getCost()));
+		}
+	}
+
+	/**
+	 * Records a child the search generated, once it is scored or left out.
+	 *
+	 * @param child - the child, whose parent is the expanded state
+	 * @param g - the cost of the child so far
+	 * @param flags - TraceRecorder.DUPLICATE, TraceRecorder.PRUNED or 0 if it went on the open list
+	 */
+	public void generated(GameState child, int g, int flags) {
+		if (recorder != null) {
+			int h = flags == 0 ? child.getTotalCost() - g : TraceRecorder.NOT_SCORED;
+			child.setTraceNode(recorder.generated(child.getParent().getTraceNode(), child.getParentActionCode(),
+					child.getDepth(), g, h, flags));
+		}
+	}
+
+	/**
+	 * Records that the search expanded the given state.
+	 *
+	 * @param state - the expanded state
+	 */
+	public void expanded(GameState state) {
+		expansions++;
+		if (recorder != null) {
+			recorder.expanded(state.getTraceNode(), state.getDepth(), state.getCost(),
+					state.getTotalCost() - state.getCost());
+		}
+		if (writer == null || truncated) {
+			return;
+		}
+		chunk.append(expansions).append(": depth ").append(state.getDepth())
+				.append(", cost ").append(state.getCost())
+				.append(", total ").append(state.getTotalCost())
+				.append(", ").append(state.getParentActionCode() == ActionTable.NONE
+						? "START" : table.get(state.getParentActionCode()).toString())
+				.append('\n');
+		if (chunk.length() >= CHUNK_CHARS) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Records the state the search returned.
+	 *
+	 * @param goal - the state the plan ends in, or null if the search found none
+	 */
+	public void reached(GameState goal) {
+		if (recorder != null) {
+			try {
+				recorder.close(goal == null ? -1 : goal.getTraceNode(), goal == null ? -1 : goal.getCost());
+				System.out.println("Recorded " + recorder.getNodes() + " nodes in " + recorder.getRecords()
+						+ " records to " + recorder.getFile() + ", waiting for the writer " + recorder.getStalls()
+						+ " times");
+			} catch (IOException e) {
+				System.err.println("Could not write the binary trace: " + e.getMessage());
+			}
+			recorder = null;
+		}
+	}
+
+	/**
+	 * Hands the rest of the trace to the writer once the search is over.
+	 */
+	public void finish() {
+		//a search that was interrupted never reached anything
+		reached(null);
+		if (writer == null) {
+			return;
+		}
+		if (truncated) {
+			chunk.append("truncated after ").append(written).append(" states, ");
+		}
+		chunk.append("expanded ").append(expansions).append(" states\n");
+		handOff();
+	}
+
+	/**
+	 * @return the number of states expanded so far
+	 */
+	public int getExpansions() {
+		return expansions;
+	}
+
+	/**
+	 * Hands the collected lines to the writer. If the writer drops them, the trace stops
+	 * collecting lines, since the file would otherwise go on after a hole.
+	 */
+	private void handOff() {
+		if (writer.write(file, chunk.toString(), started)) {
+			started = true;
+			written = expansions;
+		} else if (!truncated) {
+			truncated = true;
+			System.err.println("The trace in " + file + " is truncated after " + written + " states");
+		}
+		chunk = new StringBuilder();
+	}
+}
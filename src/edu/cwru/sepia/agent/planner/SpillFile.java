@@ -0,0 +1,222 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A sequence of fixed width entries of longs for the external search, kept in memory
+ * until it outgrows its buffer and then spilled chunk by chunk to a memory mapped file.
+ *
+ * A spill file is written first and read afterwards, from the start, in the order the
+ * entries were added. The spilled chunks come first and the entries still in memory last.
+ * Its buffer starts small and doubles up to the given limit, so the many small files of a
+ * search hardly cost any memory.
+ *
+ * Every mapped region is unmapped as soon as it is done with instead of when the garbage
+ * collector gets to it, since a search with many files would otherwise run into the limit
+ * of the operating system on the number of mapped regions of a process.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+class SpillFile {
+
+	private static final int FIRST_BUFFER_ENTRIES = 64;
+
+	private final File file;
+
+	//the number of longs in an entry
+	private final int width;
+
+	//the most entries kept in memory before they are spilled
+	private final int bufferEntries;
+
+	private long[] buffer;
+
+	private int buffered = 0;
+
+	private long spilled = 0;
+
+	private RandomAccessFile out;
+
+	//the read position, as an entry index, and the mapped chunk being read
+	private long read = 0;
+	private MappedByteBuffer mappedChunk;
+	private LongBuffer chunk;
+	private long chunkStart = 0;
+
+	/**
+	 * @param file - the file to spill to once the buffer is full
+	 * @param width - the number of longs in an entry
+	 * @param bufferEntries - the most entries kept in memory
+	 */
+	SpillFile(File file, int width, int bufferEntries) {
+		this.file = file;
+		this.width = width;
+		this.bufferEntries = bufferEntries;
+		this.buffer = new long[Math.min(FIRST_BUFFER_ENTRIES, bufferEntries) * width];
+	}
+
+	/**
+	 * Appends an entry.
+	 *
+	 * @param entry - the array holding the entry
+	 * @param offset - the index of the first long of the entry in the array
+	 */
+	void add(long[] entry, int offset) {
+		if (buffered * width == buffer.length) {
+			if (buffered < bufferEntries) {
+				buffer = Arrays.copyOf(buffer, Math.min(buffered * 2, bufferEntries) * width);
+			} else {
+				spill();
+			}
+		}
+		System.arraycopy(entry, offset, buffer, buffered * width, width);
+		buffered++;
+	}
+
+	/**
+	 * @return the number of entries in the file
+	 */
+	long size() {
+		return spilled + buffered;
+	}
+
+	/**
+	 * @return the number of entries that were written to disk
+	 */
+	long getSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * Starts reading from the first entry again.
+	 */
+	void rewind() {
+		read = 0;
+		dropChunk();
+	}
+
+	/**
+	 * Reads the next entry.
+	 *
+	 * @param dst - the array to read the entry into
+	 * @param offset - the index in the array to read the entry to
+	 * @return false if every entry was read
+	 */
+	boolean next(long[] dst, int offset) {
+		if (read >= size()) {
+			return false;
+		}
+		if (read < spilled) {
+			if (chunk == null || read >= chunkStart + chunk.capacity() / width) {
+				mapChunk(read);
+			}
+			chunk.position((int) (read - chunkStart) * width);
+			chunk.get(dst, offset, width);
+		} else {
+			System.arraycopy(buffer, (int) (read - spilled) * width, dst, offset, width);
+		}
+		read++;
+		return true;
+	}
+
+	/**
+	 * Drops the entries and deletes the file.
+	 */
+	void delete() {
+		buffer = null;
+		dropChunk();
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			out = null;
+		}
+		file.delete();
+	}
+
+	/**
+	 * Writes the full buffer to the end of the file through a mapped region.
+	 */
+	private void spill() {
+		try {
+			if (out == null) {
+				out = new RandomAccessFile(file, "rw");
+			}
+			long bytes = (long) buffered * width * 8;
+			MappedByteBuffer region = out.getChannel().map(FileChannel.MapMode.READ_WRITE, spilled * width * 8, bytes);
+			region.order(ByteOrder.nativeOrder()).asLongBuffer().put(buffer, 0, buffered * width);
+			unmap(region);
+			spilled += buffered;
+			buffered = 0;
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not spill to " + file, e);
+		}
+	}
+
+	/**
+	 * Maps the chunk of spilled entries that starts at the given entry.
+	 */
+	private void mapChunk(long start) {
+		dropChunk();
+		try {
+			long entries = Math.min(bufferEntries, spilled - start);
+			mappedChunk = out.getChannel().map(FileChannel.MapMode.READ_ONLY, start * width * 8, entries * width * 8);
+			chunk = mappedChunk.order(ByteOrder.nativeOrder()).asLongBuffer();
+			chunkStart = start;
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read " + file, e);
+		}
+	}
+
+	private void dropChunk() {
+		chunk = null;
+		unmap(mappedChunk);
+		mappedChunk = null;
+	}
+
+	/**
+	 * Unmaps a mapped region right away. The buffer must not be used afterwards. If the
+	 * running Java version offers no way to do so, the region is left to the garbage collector.
+	 *
+	 * @param buffer - the mapped region, or null
+	 */
+	static void unmap(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		try {
+			//Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			//Java 8
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (Exception inner) {
+				//left to the garbage collector
+			}
+		} catch (Exception e) {
+			//left to the garbage collector
+		}
+	}
+}
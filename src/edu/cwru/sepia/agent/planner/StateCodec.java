@@ -0,0 +1,217 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs game states into a fixed number of long words so search nodes can be stored
+ * off the Java heap, and unpacks them again when a state is expanded or a plan is built.
+ *
+ * The resources of every state in a search are the resources of the initial state in the
+ * same order, so only their amounts change. The codec keeps the initial state as a template
+ * for the ids, types, positions and distances and packs:
+ *
+ * word 0: gold (high 32 bits) and wood (low 32 bits)
+ * word 1: the number of peasants
+ * then three resource amounts of 21 bits per word
+ * then one word per peasant: id (32 bits), adjacent resource (12 bits, 0 for a
+ * depot, else the resource index + 1), depot (6 bits), cargo type (2 bits) and cargo
+ * amount (12 bits)
+ * then the fluents of a domain, two of 32 bits per word
+ *
+ * Peasant positions are not packed since every planned peasant stays at 0, 0 and is placed
+ * by its adjacent resource instead. A packed state holds everything the search reads, so two
+ * states pack to the same words exactly when they are the same game situation.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class StateCodec {
+
+	private static final int AMOUNT_BITS = 21;
+	private static final int AMOUNTS_PER_WORD = 3;
+	private static final long AMOUNT_MASK = (1L << AMOUNT_BITS) - 1;
+
+	private static final int LOCATION_BITS = 12;
+	private static final int DEPOT_BITS = 6;
+	private static final int CARGO_TYPE_BITS = 2;
+	private static final int CARGO_AMOUNT_BITS = 12;
+
+	//cargo types in a peasant word
+	private static final int NO_CARGO = 0;
+	private static final int GOLD_CARGO = 1;
+	private static final int WOOD_CARGO = 2;
+
+	//the resources of the initial state, in the order every state keeps them
+	private final List<Resource> template;
+
+	//the costs and domain of the game, which are not packed
+	private final CostModel costs;
+	private final Domain domain;
+
+	//the number of fluents of the domain
+	private final int fluents;
+
+	//the index of every resource by its id
+	private final Map<Integer, Integer> indexes = new HashMap<>();
+
+	private final int maxPeasants;
+
+	//the first word of the resource amounts and of the peasants
+	private final int resourceWord;
+	private final int peasantWord;
+	private final int fluentWord;
+
+	private final int words;
+
+	/**
+	 * @param initial - the initial state of the search, whose resources every state has
+	 * @param maxPeasants - the most peasants any state of the search may have
+	 */
+	public StateCodec(GameState initial, int maxPeasants) {
+		if (initial.resources.size() >= (1 << LOCATION_BITS)) {
+			throw new IllegalArgumentException("Too many resources to pack: " + initial.resources.size());
+		}
+		if (!initial.resources.isEmpty() && initial.resources.get(0).getDepotCount() > (1 << DEPOT_BITS)) {
+			throw new IllegalArgumentException("Too many depots to pack: " + initial.resources.get(0).getDepotCount());
+		}
+		for (Resource resource : initial.resources) {
+			checkAmount(resource);
+		}
+		this.template = initial.resources;
+		this.costs = initial.getCosts();
+		this.domain = initial.getDomain();
+		this.fluents = initial.fluents == null ? 0 : initial.fluents.length;
+		this.maxPeasants = maxPeasants;
+		for (int i = 0; i < template.size(); i++) {
+			indexes.put(template.get(i).getId(), i);
+		}
+		resourceWord = 2;
+		peasantWord = resourceWord + (template.size() + AMOUNTS_PER_WORD - 1) / AMOUNTS_PER_WORD;
+		fluentWord = peasantWord + maxPeasants;
+		words = fluentWord + (fluents + 1) / 2;
+	}
+
+	/**
+	 * @return the amount left at the resource, which must fit in its bits of the packed state
+	 */
+	private static long checkAmount(Resource resource) {
+		if (resource.getAmount() < 0 || resource.getAmount() > AMOUNT_MASK) {
+			throw new IllegalArgumentException("The amount " + resource.getAmount() + " of resource "
+					+ resource.getId() + " does not fit in " + AMOUNT_BITS + " bits to pack");
+		}
+		return resource.getAmount();
+	}
+
+	/**
+	 * @return the number of long words of a packed state
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Packs the given state into the first words of the given array.
+	 *
+	 * @param state - a state with the resources of the template
+	 * @param dst - the array to pack into, at least getWords() long
+	 */
+	public void encode(GameState state, long[] dst) {
+		if (state.peasants.size() > maxPeasants) {
+			throw new IllegalStateException("The state has more than " + maxPeasants + " peasants to pack");
+		}
+		dst[0] = ((long) state.gold << 32) | (state.wood & 0xFFFFFFFFL);
+		dst[1] = state.peasants.size();
+
+		for (int w = resourceWord; w < peasantWord; w++) {
+			dst[w] = 0;
+		}
+		for (int i = 0; i < state.resources.size(); i++) {
+			long amount = checkAmount(state.resources.get(i));
+			dst[resourceWord + i / AMOUNTS_PER_WORD] |= amount << (AMOUNT_BITS * (i % AMOUNTS_PER_WORD));
+		}
+
+		for (int i = 0; i < maxPeasants; i++) {
+			dst[peasantWord + i] = i < state.peasants.size() ? encodePeasant(state.peasants.get(i)) : 0;
+		}
+
+		for (int i = 0; i < fluents; i += 2) {
+			long low = i + 1 < fluents ? state.fluents[i + 1] & 0xFFFFFFFFL : 0;
+			dst[fluentWord + i / 2] = ((long) state.fluents[i] << 32) | low;
+		}
+	}
+
+	/**
+	 * Unpacks a state. The new state has no parent and no action code, which the caller sets.
+	 *
+	 * @param src - the packed words
+	 * @return a new game state equal to the packed one
+	 */
+	public GameState decode(long[] src) {
+		GameState state = new GameState((int) (src[0] >> 32), (int) src[0]);
+		state.setCosts(costs);
+		state.setDomain(domain);
+
+		for (int i = 0; i < template.size(); i++) {
+			long packed = src[resourceWord + i / AMOUNTS_PER_WORD] >>> (AMOUNT_BITS * (i % AMOUNTS_PER_WORD));
+			state.resources.add(new Resource(template.get(i), (int) (packed & AMOUNT_MASK)));
+		}
+
+		int peasants = (int) src[1];
+		for (int i = 0; i < peasants; i++) {
+			state.peasants.add(decodePeasant(src[peasantWord + i], state));
+		}
+
+		if (fluents > 0) {
+			state.fluents = new int[fluents];
+			for (int i = 0; i < fluents; i++) {
+				state.fluents[i] = (int) (src[fluentWord + i / 2] >> (i % 2 == 0 ? 32 : 0));
+			}
+		}
+		return state;
+	}
+
+	private long encodePeasant(Peasant peasant) {
+		long location = 0;
+		if (peasant.getAdjacentResource() != null) {
+			location = indexes.get(peasant.getAdjacentResource().getId()) + 1;
+		}
+		int cargo = NO_CARGO;
+		if (ResourceNode.Type.GOLD_MINE.equals(peasant.getCargo())) {
+			cargo = GOLD_CARGO;
+		} else if (ResourceNode.Type.TREE.equals(peasant.getCargo())) {
+			cargo = WOOD_CARGO;
+		}
+		if (peasant.getCargoAmount() < 0 || peasant.getCargoAmount() >= (1 << CARGO_AMOUNT_BITS)) {
+			throw new IllegalArgumentException("The cargo " + peasant.getCargoAmount() + " of peasant " + peasant.id
+					+ " does not fit in " + CARGO_AMOUNT_BITS + " bits to pack");
+		}
+		return ((long) peasant.id << 32)
+				| (location << (DEPOT_BITS + CARGO_TYPE_BITS + CARGO_AMOUNT_BITS))
+				| ((long) peasant.getDepot() << (CARGO_TYPE_BITS + CARGO_AMOUNT_BITS))
+				| ((long) cargo << CARGO_AMOUNT_BITS)
+				| peasant.getCargoAmount();
+	}
+
+	private Peasant decodePeasant(long word, GameState state) {
+		int amount = (int) (word & ((1L << CARGO_AMOUNT_BITS) - 1));
+		int cargo = (int) ((word >>> CARGO_AMOUNT_BITS) & ((1 << CARGO_TYPE_BITS) - 1));
+		int depot = (int) ((word >>> (CARGO_TYPE_BITS + CARGO_AMOUNT_BITS)) & ((1 << DEPOT_BITS) - 1));
+		int location = (int) ((word >>> (DEPOT_BITS + CARGO_TYPE_BITS + CARGO_AMOUNT_BITS))
+				& ((1 << LOCATION_BITS) - 1));
+
+		Peasant peasant = new Peasant(amount, 0, 0, (int) (word >> 32));
+		peasant.setDepot(depot);
+		if (cargo == GOLD_CARGO) {
+			peasant.setCargo(ResourceNode.Type.GOLD_MINE);
+		} else if (cargo == WOOD_CARGO) {
+			peasant.setCargo(ResourceNode.Type.TREE);
+		}
+		if (location > 0) {
+			peasant.setAdjacentResource(state.resources.get(location - 1));
+		}
+		return peasant;
+	}
+}
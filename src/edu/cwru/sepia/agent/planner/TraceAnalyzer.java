@@ -0,0 +1,345 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a binary search trace written by a TraceRecorder and reports where the search spent
+ * its time:
+ *
+ * the nodes expanded, generated, duplicated and pruned at every depth, with the branching
+ * factor of the expanded nodes and how much of it was new states,
+ * the total cost layers with the most expansions,
+ * the actions that generated the most duplicates,
+ * the heuristic of every state on the plan against its real cost to go, which is the cost of
+ * the plan less the cost so far,
+ * and the largest subtrees the search expanded off the plan, rooted at a child of a plan
+ * state, which are where the search was wasted.
+ *
+ * It is run after the planner with binaryTrace=true, for example:
+ *
+ * java -cp lib/Sepia.jar:bin edu.cwru.sepia.agent.planner.TraceAnalyzer saves/trace.bin top=10
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class TraceAnalyzer {
+
+	private int maxDepth;
+
+	private String[] actionNames;
+
+	//the fields of every node by id
+	private int nodes = 0;
+	private int[] parents = new int[1024];
+	private short[] codes = new short[1024];
+	private short[] depths = new short[1024];
+	private int[] costs = new int[1024];
+	private int[] heuristics = new int[1024];
+	private byte[] flags = new byte[1024];
+	private boolean[] expanded = new boolean[1024];
+
+	private long expansions = 0;
+
+	//the node the search returned and its cost, -1 if it found none or never ended
+	private int goal = -1;
+	private int goalCost = -1;
+	private boolean ended = false;
+
+	/**
+	 * Reads a trace.
+	 *
+	 * @param file - the trace file
+	 * @throws IOException if the file cannot be read or is not a trace
+	 */
+	public void read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != TraceRecorder.MAGIC) {
+				throw new IOException("Not a search trace: " + file);
+			}
+			int version = in.readInt();
+			if (version != TraceRecorder.VERSION) {
+				throw new IOException("Unknown search trace version " + version);
+			}
+			maxDepth = in.readInt();
+			actionNames = new String[in.readInt()];
+			for (int i = 0; i < actionNames.length; i++) {
+				actionNames[i] = in.readUTF();
+			}
+
+			byte[] record = new byte[TraceRecorder.RECORD_BYTES];
+			while (true) {
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				int node = intAt(record, 0);
+				byte kind = record[20];
+				if (kind == TraceRecorder.GENERATED) {
+					add(node, intAt(record, 4), (short) shortAt(record, 8), (short) shortAt(record, 10),
+							intAt(record, 12), intAt(record, 16), record[21]);
+				} else if (kind == TraceRecorder.EXPANDED) {
+					if (node >= 0 && node < nodes) {
+						expanded[node] = true;
+						expansions++;
+					}
+				} else if (kind == TraceRecorder.END) {
+					goal = node;
+					goalCost = intAt(record, 12);
+					ended = true;
+				} else {
+					throw new IOException("Bad record kind " + kind + " in " + file);
+				}
+			}
+		}
+	}
+
+	private void add(int node, int parent, short code, short depth, int g, int h, byte flag) throws IOException {
+		if (node != nodes) {
+			throw new IOException("Node " + node + " is out of order, expected " + nodes);
+		}
+		if (nodes == parents.length) {
+			int size = nodes * 2;
+			parents = Arrays.copyOf(parents, size);
+			codes = Arrays.copyOf(codes, size);
+			depths = Arrays.copyOf(depths, size);
+			costs = Arrays.copyOf(costs, size);
+			heuristics = Arrays.copyOf(heuristics, size);
+			flags = Arrays.copyOf(flags, size);
+			expanded = Arrays.copyOf(expanded, size);
+		}
+		parents[node] = parent;
+		codes[node] = code;
+		depths[node] = depth;
+		costs[node] = g;
+		heuristics[node] = h;
+		flags[node] = flag;
+		nodes++;
+	}
+
+	private static int intAt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+				| (bytes[offset + 3] & 0xFF) << 24;
+	}
+
+	private static int shortAt(byte[] bytes, int offset) {
+		return (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8);
+	}
+
+	/**
+	 * Prints the report of the trace that was read.
+	 *
+	 * @param top - the number of layers, actions and subtrees to list
+	 */
+	public void report(int top) {
+		long duplicates = 0, pruned = 0;
+		int deepest = 0;
+		for (int i = 0; i < nodes; i++) {
+			duplicates += (flags[i] & TraceRecorder.DUPLICATE) != 0 ? 1 : 0;
+			pruned += (flags[i] & TraceRecorder.PRUNED) != 0 ? 1 : 0;
+			if (expanded[i]) {
+				deepest = Math.max(deepest, depths[i]);
+			}
+		}
+		System.out.println(nodes + " nodes generated, " + expansions + " expanded, " + duplicates + " duplicates, "
+				+ pruned + " pruned, deepest expansion at depth " + deepest + " of " + maxDepth);
+		if (!ended) {
+			System.out.println("The search never ended, it was probably interrupted.");
+		} else if (goal < 0) {
+			System.out.println("The search found no plan.");
+		} else {
+			System.out.println("The plan ends at node " + goal + " at depth " + depths[goal] + " with a cost of "
+					+ goalCost + (depths[goal] >= maxDepth ? ", cut off by the depth limit" : ""));
+		}
+
+		reportDepths();
+		reportLayers(top);
+		reportDuplicates(top);
+		boolean[] onPlan = plan();
+		reportHeuristic(onPlan);
+		reportWaste(onPlan, top);
+	}
+
+	private void reportDepths() {
+		int levels = 0;
+		for (int i = 0; i < nodes; i++) {
+			levels = Math.max(levels, depths[i] + 1);
+		}
+		long[] expandedAt = new long[levels];
+		long[] children = new long[levels];
+		long[] fresh = new long[levels];
+		long[] duplicatesAt = new long[levels];
+		long[] prunedAt = new long[levels];
+		for (int i = 0; i < nodes; i++) {
+			if (expanded[i]) {
+				expandedAt[depths[i]]++;
+			}
+			if (parents[i] < 0) {
+				continue;
+			}
+			int from = depths[parents[i]];
+			children[from]++;
+			if ((flags[i] & TraceRecorder.DUPLICATE) != 0) {
+				duplicatesAt[from]++;
+			} else if ((flags[i] & TraceRecorder.PRUNED) != 0) {
+				prunedAt[from]++;
+			} else {
+				fresh[from]++;
+			}
+		}
+		System.out.println();
+		System.out.println("depth  expanded  children  duplicates  pruned  branching  new branching");
+		for (int d = 0; d < levels; d++) {
+			if (expandedAt[d] == 0) {
+				continue;
+			}
+			System.out.println(String.format("%5d  %8d  %8d  %10d  %6d  %9.2f  %13.2f", d, expandedAt[d], children[d],
+					duplicatesAt[d], prunedAt[d], (double) children[d] / expandedAt[d],
+					(double) fresh[d] / expandedAt[d]));
+		}
+	}
+
+	private void reportLayers(int top) {
+		Map<Integer, Long> layers = new TreeMap<>();
+		for (int i = 0; i < nodes; i++) {
+			if (expanded[i]) {
+				layers.merge(costs[i] + heuristics[i], 1L, Long::sum);
+			}
+		}
+		List<Map.Entry<Integer, Long>> largest = new ArrayList<>(layers.entrySet());
+		largest.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+		System.out.println();
+		System.out.println(layers.size() + " total cost layers, the largest:");
+		for (int i = 0; i < Math.min(top, largest.size()); i++) {
+			System.out.println(String.format("  f %6d: %8d expanded (%.1f%%)", largest.get(i).getKey(),
+					largest.get(i).getValue(), 100.0 * largest.get(i).getValue() / Math.max(1, expansions)));
+		}
+	}
+
+	private void reportDuplicates(int top) {
+		long[] generatedBy = new long[actionNames.length];
+		long[] duplicatedBy = new long[actionNames.length];
+		for (int i = 0; i < nodes; i++) {
+			if (codes[i] < 0 || codes[i] >= actionNames.length) {
+				continue;
+			}
+			generatedBy[codes[i]]++;
+			if ((flags[i] & TraceRecorder.DUPLICATE) != 0) {
+				duplicatedBy[codes[i]]++;
+			}
+		}
+		List<Integer> actions = new ArrayList<>();
+		for (int code = 0; code < actionNames.length; code++) {
+			if (duplicatedBy[code] > 0) {
+				actions.add(code);
+			}
+		}
+		actions.sort(Comparator.comparingLong((Integer code) -> duplicatedBy[code]).reversed());
+		System.out.println();
+		System.out.println("The actions that generated the most duplicates:");
+		for (int i = 0; i < Math.min(top, actions.size()); i++) {
+			int code = actions.get(i);
+			System.out.println(String.format("  %8d of %8d  %s", duplicatedBy[code], generatedBy[code],
+					actionNames[code]));
+		}
+	}
+
+	/**
+	 * @return which nodes are on the plan, or only the root if there is no plan
+	 */
+	private boolean[] plan() {
+		boolean[] onPlan = new boolean[nodes];
+		if (nodes > 0) {
+			onPlan[0] = true;
+		}
+		for (int i = goal; i >= 0 && i < nodes; i = parents[i]) {
+			onPlan[i] = true;
+		}
+		return onPlan;
+	}
+
+	private void reportHeuristic(boolean[] onPlan) {
+		if (goal < 0 || goal >= nodes) {
+			return;
+		}
+		System.out.println();
+		System.out.println("The heuristic on the plan against the cost to go:");
+		System.out.println("depth       g       h  cost to go   error  action");
+		long absolute = 0;
+		int states = 0, over = 0, under = 0;
+		for (int i = 0; i < nodes; i++) {
+			if (!onPlan[i]) {
+				continue;
+			}
+			int toGo = goalCost - costs[i];
+			int error = heuristics[i] - toGo;
+			absolute += Math.abs(error);
+			states++;
+			over = Math.max(over, error);
+			under = Math.min(under, error);
+			System.out.println(String.format("%5d  %6d  %6d  %10d  %6d  %s", depths[i], costs[i], heuristics[i],
+					toGo, error, codes[i] < 0 ? "START" : actionNames[codes[i]]));
+		}
+		System.out.println(String.format("Mean absolute error %.1f, overestimating by up to %d and "
+				+ "underestimating by up to %d", (double) absolute / states, over, -under));
+	}
+
+	private void reportWaste(boolean[] onPlan, int top) {
+		//children have higher ids than their parents, so one pass from the end adds up every subtree
+		long[] subtree = new long[nodes];
+		for (int i = nodes - 1; i >= 0; i--) {
+			if (expanded[i]) {
+				subtree[i]++;
+			}
+			if (parents[i] >= 0) {
+				subtree[parents[i]] += subtree[i];
+			}
+		}
+		List<Integer> roots = new ArrayList<>();
+		long wasted = 0;
+		for (int i = 0; i < nodes; i++) {
+			if (!onPlan[i] && parents[i] >= 0 && onPlan[parents[i]] && subtree[i] > 0) {
+				roots.add(i);
+				wasted += subtree[i];
+			}
+		}
+		roots.sort(Comparator.comparingLong((Integer node) -> subtree[node]).reversed());
+		System.out.println();
+		System.out.println(wasted + " of " + expansions + " expansions were off the plan, in the largest subtrees:");
+		System.out.println(" expanded   node  depth       g       h  action");
+		for (int i = 0; i < Math.min(top, roots.size()); i++) {
+			int node = roots.get(i);
+			System.out.println(String.format("%9d  %5d  %5d  %6d  %6s  %s", subtree[node], node, depths[node],
+					costs[node], heuristics[node] == TraceRecorder.NOT_SCORED ? "-" : "" + heuristics[node],
+					actionNames[codes[node]]));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TraceAnalyzer <trace file> [top=N]");
+			System.exit(1);
+		}
+		int top = 10;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("top=")) {
+				top = Math.max(1, Integer.parseInt(args[i].substring(4)));
+			} else {
+				System.err.println("Ignoring unknown trace analyzer argument: " + args[i]);
+			}
+		}
+		TraceAnalyzer analyzer = new TraceAnalyzer();
+		analyzer.read(new File(args[0]));
+		analyzer.report(top);
+	}
+}
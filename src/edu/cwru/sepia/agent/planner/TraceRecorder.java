@@ -0,0 +1,269 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.ActionTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a search node by node into a compact binary trace for the TraceAnalyzer.
+ *
+ * The file starts with a header, written by a data output stream, of the magic number, the
+ * version, the depth limit of the search and the name of every action in code order. Every node the search generates, every
+ * expansion and the end of the search then follow as fixed records of RECORD_BYTES little
+ * endian bytes: the node id, the id of its parent, the action code, the depth, the cost so
+ * far, the heuristic, the kind of the record and its flags. Node ids are given out in the
+ * order the nodes are generated, so a parent always has a lower id than its children. A child
+ * that was already expanded or waiting is recorded with the DUPLICATE flag, one that dominance
+ * pruning removed with the PRUNED flag, and neither is scored, so its heuristic is NOT_SCORED.
+ * The end record holds the id and cost of the goal the search returned, or -1 for both.
+ *
+ * The search thread only puts records into a chunk of a ring of buffers. A full chunk is handed
+ * to a background thread, which writes it to the file channel while the search fills the next
+ * one, so the search never waits on the file system unless the writer falls a whole ring
+ * behind; those waits are counted as stalls. If writing fails the writer keeps freeing chunks
+ * so the search goes on, and the failure is reported when the recorder is closed.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class TraceRecorder {
+
+	public static final int MAGIC = 0x54524331;
+	public static final int VERSION = 1;
+
+	public static final int RECORD_BYTES = 24;
+
+	//the kinds of records
+	public static final byte GENERATED = 0;
+	public static final byte EXPANDED = 1;
+	public static final byte END = 2;
+
+	//the flags of a generated record
+	public static final byte DUPLICATE = 1;
+	public static final byte PRUNED = 2;
+
+	//the heuristic of a node the search did not score
+	public static final int NOT_SCORED = Integer.MIN_VALUE;
+
+	//the records of a chunk and the chunks of the ring
+	private static final int CHUNK_RECORDS = 1 << 12;
+	private static final int RING_CHUNKS = 8;
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer[] ring = new ByteBuffer[RING_CHUNKS];
+
+	//the chunks handed to the writer and the chunks it is done with, counted from the first
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+
+	//the chunk the search is filling and its number
+	private ByteBuffer current;
+	private long sequence = 0;
+
+	private final Thread writer;
+
+	private volatile boolean closed = false;
+
+	private volatile IOException failure = null;
+
+	private int nodes = 0;
+
+	private long records = 0;
+
+	private long stalls = 0;
+
+	/**
+	 * Creates the trace file, writes its header and starts the writer thread.
+	 *
+	 * @param file - the file to write the trace to, which is replaced
+	 * @param table - the table the action codes refer to
+	 * @param maxDepth - the depth limit of the search
+	 * @throws IOException if the file cannot be created
+	 */
+	public TraceRecorder(File file, ActionTable table, int maxDepth) throws IOException {
+		this.file = file;
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(maxDepth);
+		header.writeInt(table.size());
+		for (short code = 0; code < table.size(); code++) {
+			header.writeUTF(table.get(code).toString());
+		}
+		header.flush();
+		ByteBuffer headerBuffer = ByteBuffer.wrap(bytes.toByteArray());
+		while (headerBuffer.hasRemaining()) {
+			channel.write(headerBuffer);
+		}
+
+		for (int i = 0; i < RING_CHUNKS; i++) {
+			ring[i] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		current = ring[0];
+		writer = new Thread(this::drain, "trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records the root of the search.
+	 *
+	 * @param g - the cost of the root
+	 * @param h - the heuristic of the root
+	 * @return the id of the root
+	 */
+	public int root(int g, int h) {
+		return generated(-1, ActionTable.NONE, 0, g, h, 0);
+	}
+
+	/**
+	 * Records a node the search generated.
+	 *
+	 * @param parent - the id of the expanded node it came from
+	 * @param code - the action that made it
+	 * @param depth - its depth
+	 * @param g - its cost so far
+	 * @param h - its heuristic, or NOT_SCORED
+	 * @param flags - DUPLICATE, PRUNED or 0 if it went on the open list
+	 * @return the id of the node
+	 */
+	public int generated(int parent, short code, int depth, int g, int h, int flags) {
+		int node = nodes++;
+		put(node, parent, code, depth, g, h, GENERATED, flags);
+		return node;
+	}
+
+	/**
+	 * Records that the search expanded a node.
+	 *
+	 * @param node - the id of the node
+	 * @param depth - its depth
+	 * @param g - its cost so far
+	 * @param h - its heuristic
+	 */
+	public void expanded(int node, int depth, int g, int h) {
+		put(node, -1, ActionTable.NONE, depth, g, h, EXPANDED, 0);
+	}
+
+	/**
+	 * Records the end of the search, writes the rest of the trace and stops the writer.
+	 *
+	 * @param goal - the id of the node the search returned, or -1 if it found none
+	 * @param cost - the cost of that node, or -1
+	 * @throws IOException if any part of the trace could not be written
+	 */
+	public void close(int goal, int cost) throws IOException {
+		if (closed) {
+			return;
+		}
+		put(goal, -1, ActionTable.NONE, 0, cost, 0, END, 0);
+		publish();
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void put(int node, int parent, short code, int depth, int g, int h, byte kind, int flags) {
+		if (current.remaining() < RECORD_BYTES) {
+			publish();
+		}
+		current.putInt(node).putInt(parent).putShort(code).putShort((short) depth)
+				.putInt(g).putInt(h).put(kind).put((byte) flags).putShort((short) 0);
+		records++;
+	}
+
+	/**
+	 * Hands the current chunk to the writer and takes the next one, waiting while the
+	 * writer is a whole ring behind.
+	 */
+	private void publish() {
+		current.flip();
+		sequence++;
+		published.set(sequence);
+		LockSupport.unpark(writer);
+		while (sequence - released.get() >= RING_CHUNKS) {
+			stalls++;
+			LockSupport.parkNanos(10000);
+		}
+		current = ring[(int) (sequence % RING_CHUNKS)];
+		current.clear();
+	}
+
+	/**
+	 * The loop of the writer thread, which writes every published chunk in order.
+	 */
+	private void drain() {
+		while (true) {
+			long next = released.get();
+			if (next < published.get()) {
+				ByteBuffer chunk = ring[(int) (next % RING_CHUNKS)];
+				try {
+					while (failure == null && chunk.hasRemaining()) {
+						channel.write(chunk);
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+				released.set(next + 1);
+			} else if (closed) {
+				//the last chunk is published before closing, so look once more
+				if (released.get() >= published.get()) {
+					return;
+				}
+			} else {
+				LockSupport.parkNanos(1000000);
+			}
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of nodes recorded so far
+	 */
+	public int getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the number of records written so far, the end included
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the number of times the search waited for the writer
+	 */
+	public long getStalls() {
+		return stalls;
+	}
+}
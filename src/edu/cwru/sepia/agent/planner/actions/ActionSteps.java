@@ -0,0 +1,58 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+/**
+ * The steps the actions are made of. An action hands its steps to whatever carries it out:
+ * the execution agent turns them into SEPIA commands, and the simulator and the validator
+ * into their own copies of the rules of the game. None of them has to tell the kinds of
+ * actions apart, so an action of a new kind that is made of these steps needs no changes
+ * to any of them.
+ *
+ * Resources are given by their ids and depots by their indexes, the town hall being 0.
+ *
+ * @param <T> - what carrying out a step gives
+ * @author Shaun Howard, Matt Swartwout
+ */
+public interface ActionSteps<T> {
+
+	/**
+	 * Peasants walk between a depot and a resource, to the depot with cargo or to the
+	 * resource without.
+	 *
+	 * @param peasantCount - the number of peasants that walk
+	 * @param resourceId - the resource they walk from or to
+	 * @param depot - the depot they walk to or from
+	 * @param toDepot - whether they walk to the depot
+	 */
+	public T walk(int peasantCount, int resourceId, int depot, boolean toDepot);
+
+	/**
+	 * Peasants next to a resource without cargo gather a load each.
+	 *
+	 * @param peasantCount - the number of peasants that gather
+	 * @param resourceId - the resource they gather from
+	 */
+	public T gather(int peasantCount, int resourceId);
+
+	/**
+	 * Peasants at a depot drop their cargo off.
+	 *
+	 * @param peasantCount - the number of peasants that deposit
+	 * @param depot - the depot they deposit at
+	 */
+	public T deposit(int peasantCount, int depot);
+
+	/**
+	 * The town hall produces a peasant.
+	 *
+	 * @param goldCost - the gold the peasant costs
+	 */
+	public T producePeasant(int goldCost);
+
+	/**
+	 * A peasant at the town hall builds the unit of an action of a domain, or the town
+	 * hall produces it, and the fluents change.
+	 *
+	 * @param action - the action of the domain
+	 */
+	public T make(SchemaAction action);
+}
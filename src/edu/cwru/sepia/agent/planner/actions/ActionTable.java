@@ -0,0 +1,482 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.CostModel;
+import edu.cwru.sepia.agent.planner.DurationTable;
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The table of every grounded STRIPS action for a game, made once when planning starts.
+ *
+ * Each action is created exactly once and is addressed by a small code, its index in the
+ * table. Game states only store the code of the action that made them, so a search node
+ * does not hold on to an action object and two states made by the same action compare
+ * by a single number. The actions are immutable, so the table can be shared by every
+ * state, plan and agent that uses it. Calibrating a table makes a new table, so a shared
+ * table never changes.
+ *
+ * The actions are grounded in the order the A* search has always tried them: for each
+ * resource the move there, the harvest and the move back for every peasant count, then
+ * the deposits for every peasant count and building a peasant, and finally the actions
+ * of the domain of the state, if it has one, in the order of the domain. On maps with
+ * several depots the moves and deposits are grounded for every depot, so peasants can
+ * drop cargo off at the depot nearest to a resource and leave from whichever depot they
+ * are at. With a single depot the table is the same as it always was.
+ *
+ * Every action also has a footprint: the parts of a state its preconditions read and its
+ * effects write. The parts are the gold, the wood, the number of peasants, the peasants at
+ * the depots with and without cargo, and for every resource its amount and the peasants
+ * next to it with and without cargo. Two actions that do not write what the other reads or
+ * writes are independent: applying them in either order gives the same situation, and
+ * neither can disable the other. The searches use this to try only one order of them.
+ * Resources past the bits of a long share their bits, which only makes more actions dependent.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class ActionTable {
+
+	//the code of a state that was not made by an action, i.e. the initial state
+	public static final short NONE = -1;
+
+	//the kinds of actions in their keys, which plan files store as they are
+	public static final int MOVE_TO_RESOURCE = 0;
+	public static final int MOVE_TO_TOWN_HALL = 1;
+	public static final int HARVEST = 2;
+	public static final int DEPOSIT = 3;
+	public static final int BUILD_PEASANT = 4;
+	public static final int SCHEMA = 5;
+
+	//the actions in code order
+	private final List<StripsAction> actions = new ArrayList<>();
+
+	//the peasant count of each action, for filtering the actions a search uses
+	private final List<Integer> peasantCounts = new ArrayList<>();
+
+	//the code of each action by its key
+	private final Map<Long, Short> codes = new HashMap<>();
+
+	//the key of each action, in code order
+	private final List<Long> keys = new ArrayList<>();
+
+	//the largest peasant count the actions were grounded for
+	private final int maxPeasants;
+
+	//the number of depots the moves and deposits were grounded for
+	private final int depots;
+
+	//the depot nearest to every resource, by resource id
+	private final Map<Integer, Integer> nearestDepots = new HashMap<>();
+
+	//the bits of the parts of a state in a footprint
+	private static final long GOLD = 1L;
+	private static final long WOOD = 1L << 1;
+	private static final long PEASANTS = 1L << 2;
+	private static final long TOWN_HALL_EMPTY = 1L << 3;
+	private static final long TOWN_HALL_CARGO = 1L << 4;
+	private static final int RESOURCE_BITS = 3;
+	private static final int FIRST_RESOURCE_BIT = 5;
+	private static final int RESOURCE_SLOTS = (64 - FIRST_RESOURCE_BIT) / RESOURCE_BITS;
+
+	//the footprint of every action, in code order
+	private final List<Long> reads = new ArrayList<>();
+	private final List<Long> writes = new ArrayList<>();
+
+	//the number of actions given an observed duration when the table was calibrated
+	private int calibrated = 0;
+
+	//the least ratio of observed to planned duration of every kind, 1 for a kind not observed
+	private final double[] scales = {1, 1, 1, 1, 1, 1};
+
+	/**
+	 * Grounds every action for the resources of the given state and every peasant
+	 * count from 1 to the given maximum.
+	 *
+	 * @param state - the initial state of the game
+	 * @param maxPeasants - the largest number of peasants an action may use
+	 */
+	public ActionTable(GameState state, int maxPeasants) {
+		this.maxPeasants = maxPeasants;
+		this.depots = state.resources.isEmpty() ? 1 : state.resources.get(0).getDepotCount();
+		CostModel costs = state.getCosts();
+
+		//the depots share their footprint bits, which only makes more actions dependent
+		for (int r = 0; r < state.resources.size(); r++) {
+			Resource resource = state.resources.get(r);
+			int resId = resource.getId();
+			nearestDepots.put(resId, resource.getNearestDepot());
+			long amount = resourceBit(r, 0);
+			long empty = resourceBit(r, 1);
+			long cargo = resourceBit(r, 2);
+			for (int i = 1; i <= maxPeasants; i++) {
+				for (int d = 0; d < depots; d++) {
+					add(new MoveAction(i, state, null, resId, false, d),
+							GOLD | amount | TOWN_HALL_EMPTY, TOWN_HALL_EMPTY | empty);
+				}
+				add(new HarvestAction(i, resId, resource.getX(), resource.getY(), costs,
+						resource.getType()),
+						amount | empty, amount | empty | cargo);
+				for (int d = 0; d < depots; d++) {
+					add(new MoveAction(i, state, resId, null, true, d),
+							cargo, cargo | TOWN_HALL_CARGO);
+				}
+			}
+		}
+		for (int i = 1; i <= maxPeasants; i++) {
+			for (int d = 0; d < depots; d++) {
+				add(new DepositAction(i, d, costs),
+						TOWN_HALL_CARGO, TOWN_HALL_CARGO | TOWN_HALL_EMPTY | GOLD | WOOD);
+			}
+		}
+		add(new BuildPeasantAction(costs),
+				GOLD | PEASANTS, GOLD | PEASANTS | TOWN_HALL_EMPTY);
+
+		//the fluents of a domain have no bits, so its actions read and write everything
+		//but the resources, which keeps them dependent on each other
+		if (state.getDomain() != null) {
+			long all = GOLD | WOOD | PEASANTS | TOWN_HALL_EMPTY | TOWN_HALL_CARGO;
+			for (SchemaAction action : state.getDomain().getActions()) {
+				add(action, all, all);
+			}
+		}
+	}
+
+	/**
+	 * Copies a table, to be calibrated.
+	 *
+	 * @param table - the table to copy
+	 */
+	private ActionTable(ActionTable table) {
+		maxPeasants = table.maxPeasants;
+		depots = table.depots;
+		actions.addAll(table.actions);
+		peasantCounts.addAll(table.peasantCounts);
+		codes.putAll(table.codes);
+		keys.addAll(table.keys);
+		nearestDepots.putAll(table.nearestDepots);
+		reads.addAll(table.reads);
+		writes.addAll(table.writes);
+	}
+
+	private void add(StripsAction action, long read, long write) {
+		if (actions.size() > Short.MAX_VALUE) {
+			throw new IllegalStateException("Too many grounded actions for short codes");
+		}
+		codes.put(action.getKey(), (short) actions.size());
+		keys.add(action.getKey());
+		actions.add(action);
+		peasantCounts.add(action.getPeasantCount());
+		reads.add(read);
+		writes.add(write);
+	}
+
+	private static long resourceBit(int index, int part) {
+		return 1L << (FIRST_RESOURCE_BIT + (index % RESOURCE_SLOTS) * RESOURCE_BITS + part);
+	}
+
+	/**
+	 * Packs the parts of the key of an action: the kind in the top byte, then the depot,
+	 * the peasant count and the resource id, or -1 for an action without a resource.
+	 *
+	 * @param kind - the kind of the action
+	 * @param peasantCount - the number of peasants of the action
+	 * @param resId - the id of the resource of the action, or -1
+	 * @param depot - the depot of the action, 0 if it has none
+	 * @return the key
+	 */
+	public static long key(int kind, int peasantCount, int resId, int depot) {
+		return ((long) kind << 56) | ((long) (depot & 0xFF) << 48) | ((long) (peasantCount & 0xFFFF) << 32)
+				| (resId & 0xFFFFFFFFL);
+	}
+
+	public static int kindOf(long key) { return (int) (key >>> 56); }
+
+	public static int depotOf(long key) { return (int) (key >>> 48) & 0xFF; }
+
+	public static int peasantCountOf(long key) { return (int) (key >>> 32) & 0xFFFF; }
+
+	public static int resourceOf(long key) { return (int) key; }
+
+	private short code(int kind, int peasantCount, int resId, int depot) {
+		return getCode(key(kind, peasantCount, resId, depot));
+	}
+
+	/**
+	 * @param key - the key of an action
+	 * @return the code of the action with the key, or NONE if the table has none
+	 */
+	public short getCode(long key) {
+		Short code = codes.get(key);
+		return code == null ? NONE : code;
+	}
+
+	/**
+	 * @param code - the code of an action
+	 * @return the action with the code, or null for NONE
+	 */
+	public StripsAction get(short code) {
+		return code == NONE ? null : actions.get(code);
+	}
+
+	/**
+	 * The key of an action is made of its kind, peasant count, resource and depot, so unlike
+	 * its code it names the same action in every table grounded on the same map.
+	 *
+	 * @param code - the code of an action
+	 * @return the key of the action
+	 */
+	public long getKey(short code) {
+		return keys.get(code);
+	}
+
+	/**
+	 * Makes a table that gives every action with an observed duration that duration as its
+	 * make span. The other actions of a kind are scaled by how much longer or shorter the
+	 * observed actions of that kind took than their make spans said, so the search does not
+	 * favor the actions it happens to have observed. This table is left as it is.
+	 *
+	 * @param durations - the durations observed in earlier executions
+	 * @return the calibrated table, with the same codes as this one
+	 */
+	public ActionTable calibrate(DurationTable durations) {
+		long[] observedSums = new long[SCHEMA + 1];
+		long[] makeSpanSums = new long[SCHEMA + 1];
+		ActionTable table = new ActionTable(this);
+		for (int code = 0; code < actions.size(); code++) {
+			int observed = durations.get(keys.get(code));
+			if (observed > 0) {
+				int kind = kindOf(keys.get(code));
+				observedSums[kind] += observed;
+				makeSpanSums[kind] += actions.get(code).getMakeSpan();
+				table.scales[kind] = Math.min(table.scales[kind], (double) observed / actions.get(code).getMakeSpan());
+			}
+		}
+
+		for (int code = 0; code < actions.size(); code++) {
+			int kind = kindOf(keys.get(code));
+			int observed = durations.get(keys.get(code));
+			if (observed > 0) {
+				table.actions.set(code, actions.get(code).withMakeSpan(observed));
+				table.calibrated++;
+			} else if (makeSpanSums[kind] > 0) {
+				long scaled = (actions.get(code).getMakeSpan() * observedSums[kind] + makeSpanSums[kind] / 2)
+						/ makeSpanSums[kind];
+				table.actions.set(code, actions.get(code).withMakeSpan((int) Math.max(1, scaled)));
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Scales the cycles of a cost model to the make spans of this calibrated table, so a
+	 * heuristic that reads the model estimates in the same units as the costs of the search.
+	 * Every cycle count is scaled by the least ratio of observed to planned duration of its
+	 * kind of action, so the estimate does not grow past the calibrated costs of the actions
+	 * it stands for. A cycle count never drops below 1, the shortest an action can take.
+	 *
+	 * @param costs - the cost model the table was grounded with
+	 * @return the cost model of the calibrated table, the same model if it was not calibrated
+	 */
+	public CostModel calibrate(CostModel costs) {
+		return costs.scaled(Math.min(scales[MOVE_TO_RESOURCE], scales[MOVE_TO_TOWN_HALL]), scales[HARVEST],
+				scales[DEPOSIT], scales[BUILD_PEASANT]);
+	}
+
+	/**
+	 * @return the number of actions given an observed duration when the table was
+	 *         calibrated, 0 if it was not
+	 */
+	public int getCalibratedCount() {
+		return calibrated;
+	}
+
+	/**
+	 * @return the number of actions in the table
+	 */
+	public int size() {
+		return actions.size();
+	}
+
+	public int getMaxPeasants() {
+		return maxPeasants;
+	}
+
+	/**
+	 * @param code - the code of an action
+	 * @return the number of peasants the action uses
+	 */
+	public int getPeasantCount(short code) {
+		return peasantCounts.get(code);
+	}
+
+	/**
+	 * @return the number of depots the moves and deposits were grounded for
+	 */
+	public int getDepotCount() {
+		return depots;
+	}
+
+	/**
+	 * @param resId - the id of a resource
+	 * @return the index of the depot nearest to the resource
+	 */
+	public int nearestDepot(int resId) {
+		Integer depot = nearestDepots.get(resId);
+		return depot == null ? 0 : depot;
+	}
+
+	/**
+	 * @return the code of the move between the resource and the depot nearest to it,
+	 *         or NONE if there is none
+	 */
+	public short move(int peasantCount, int resId, boolean toTownHall) {
+		return move(peasantCount, resId, toTownHall, nearestDepot(resId));
+	}
+
+	/**
+	 * @return the code of the move between the given depot and the resource, or NONE if there is none
+	 */
+	public short move(int peasantCount, int resId, boolean toTownHall, int depot) {
+		return code(toTownHall ? MOVE_TO_TOWN_HALL : MOVE_TO_RESOURCE, peasantCount, resId, depot);
+	}
+
+	/**
+	 * @return the code of harvesting the resource, or NONE if there is none
+	 */
+	public short harvest(int peasantCount, int resId) {
+		return code(HARVEST, peasantCount, resId, 0);
+	}
+
+	/**
+	 * @return the code of depositing cargo at the town hall, or NONE if there is none
+	 */
+	public short deposit(int peasantCount) {
+		return deposit(peasantCount, 0);
+	}
+
+	/**
+	 * @return the code of depositing cargo at the given depot, or NONE if there is none
+	 */
+	public short deposit(int peasantCount, int depot) {
+		return code(DEPOSIT, peasantCount, -1, depot);
+	}
+
+	/**
+	 * @return the code of building a peasant
+	 */
+	public short build() {
+		return code(BUILD_PEASANT, 1, -1, 0);
+	}
+
+	/**
+	 * @param index - the position of an action in the domain
+	 * @return the code of the action of the domain, or NONE if there is none
+	 */
+	public short schema(int index) {
+		return code(SCHEMA, 1, index, 0);
+	}
+
+	/**
+	 * Determines if two actions are independent, so applying them in either order
+	 * gives the same situation and neither disables the other.
+	 *
+	 * @param a - the code of an action
+	 * @param b - the code of another action
+	 * @return true if neither action writes a part of the state the other reads or writes
+	 */
+	public boolean independent(short a, short b) {
+		long readA = reads.get(a);
+		long writeA = writes.get(a);
+		long readB = reads.get(b);
+		long writeB = writes.get(b);
+		return (writeA & (readB | writeB)) == 0 && (writeB & readA) == 0;
+	}
+
+	/**
+	 * The partial order reduction rule of the searches. Of the two orders of independent
+	 * actions only the one with the higher code first is tried, so an action is redundant
+	 * after an independent action with a lower code: the other order already reaches the
+	 * same situation for the same cost. Higher codes first puts the returns and deposits
+	 * of a peasant group ahead of the harvests of the others, which keeps the plans of the
+	 * greedy heuristic as short as without the reduction.
+	 *
+	 * @param previous - the code of the action that made the state, or NONE
+	 * @param code - the code of the action to try next
+	 * @return true if the action need not be tried
+	 */
+	public boolean redundantAfter(short previous, short code) {
+		return previous != NONE && code > previous && independent(previous, code);
+	}
+
+	/**
+	 * Picks the codes of the base actions a search starts with:
+	 * move entity from x to y, gather resource and deposit resource
+	 * for 1 up to the given number of peasants, and building a peasant
+	 * if more than one peasant is wanted.
+	 *
+	 * @param maxPeasants - the maximum number of peasants to build
+	 * @return the codes in table order
+	 */
+	public short[] baseCodes(int maxPeasants) {
+		List<Short> base = new ArrayList<>();
+		
+		//Take the moves, harvests and deposits for up to the max peasants
+		for (short code = 0; code < actions.size(); code++) {
+			if (code != build() && getPeasantCount(code) <= maxPeasants) {
+				base.add(code);
+			}
+		}
+		
+		//Add a new build peasant action in case we have the resources
+		if (maxPeasants > 1)
+			base.add(build());
+		
+		return toCodes(base);
+	}
+
+	/**
+	 * Removes actions that are no longer beneficial to the state space search based
+	 * on the current number of peasants in the game. This is typically called when there
+	 * are 3 peasants to eliminate the 1 peasant actions and building peasants.
+	 * 
+	 * @param codes - the codes the search uses now
+	 * @param numPeasants - the number of peasants in the current search state 
+	 * @return the codes that are still worth trying
+	 */
+	public short[] withoutCostlyCodes(short[] codes, int numPeasants) {
+		List<Short> kept = new ArrayList<>();
+		for (short code : codes){
+			if (kindOf(keys.get(code)) == SCHEMA
+					|| (code != build() && getPeasantCount(code) >= numPeasants - 1)){
+				kept.add(code);
+			}
+		}
+		return toCodes(kept);
+	}
+
+	private static short[] toCodes(List<Short> codes) {
+		short[] result = new short[codes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = codes.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Applies the action with the given code to a state and records the code as the
+	 * parent action of the new state. Every new state should be made this way.
+	 *
+	 * @param code - the code of the action to apply
+	 * @param state - the state to apply it to
+	 * @return the new state
+	 */
+	public GameState apply(short code, GameState state) {
+		GameState next = actions.get(code).apply(state);
+		next.setParentActionCode(code);
+		return next;
+	}
+}
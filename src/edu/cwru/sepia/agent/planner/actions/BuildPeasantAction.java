@@ -1,5 +1,6 @@
 package edu.cwru.sepia.agent.planner.actions;
 
+import edu.cwru.sepia.agent.planner.CostModel;
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Peasant;
 import edu.cwru.sepia.agent.planner.Resource;
@@ -10,19 +11,46 @@ import edu.cwru.sepia.agent.planner.Resource;
  * This action has certain preconditions that must be met
  * in order to be made. These conditions are that there are fewer than 3 peasants
  * already playing in the game (this is our global limit) and that the peasants
- * have at least 400 gold collected.
+ * have collected the gold a peasant costs, 400 in the unit cost model.
  * 
  * The effects are that there is one more peasant added to the game and
- * the peasants now have 400 less gold.
+ * the peasants now have that much less gold.
  * 
- * The make span of this action is 1.
+ * The make span of this action is the time cost of a peasant, 1 in the unit cost model.
  * 
  * @author Shaun Howard, Matt Swartwout
  */
 public class BuildPeasantAction implements StripsAction {
 
-	//the id for the new peasant
-	int id = 0;
+	//the most peasants that can play at once, our global limit
+	public static final int PEASANT_LIMIT = 3;
+
+	//the gold a peasant costs
+	private final int gold;
+
+	//the cycles it takes to produce a peasant
+	private final int makeSpan;
+
+	/**
+	 * Constructs a build peasant action with the unit costs.
+	 */
+	public BuildPeasantAction() {
+		this(CostModel.UNIT);
+	}
+
+	/**
+	 * Constructs a build peasant action with the costs of the game.
+	 * 
+	 * @param costs - the costs and capacities of the game
+	 */
+	public BuildPeasantAction(CostModel costs) {
+		this(costs.getPeasantGold(), costs.getPeasantCycles());
+	}
+
+	private BuildPeasantAction(int gold, int makeSpan) {
+		this.gold = gold;
+		this.makeSpan = makeSpan;
+	}
 	
 	/**
 	 * Checks if the preconditions to build a peasant are met. 
@@ -34,7 +62,7 @@ public class BuildPeasantAction implements StripsAction {
 	 */
     @Override
     public boolean preconditionsMet(GameState currState, GameState goalState) {
-        return currState.peasants.size() < 3 && currState.gold >= 400;
+        return currState.peasants.size() < PEASANT_LIMIT && currState.gold >= gold;
     }
 
     /**
@@ -67,34 +95,77 @@ public class BuildPeasantAction implements StripsAction {
     	//Get the next available id
     	nextID++;
     	
-    	id = nextID;
-    	
     	//create a new peasant with that id
         newState.peasants.add(new Peasant(0, 0, 0, nextID));
         
-        //account for making the peasant since it takes 400 gold
-        newState.gold -= 400;
-        
-        //track the action that made the new state
-        newState.parentAction = this;
+        //account for the gold making the peasant takes
+        newState.gold -= gold;
         return newState;
     }
 
     /**
-     * The make span of building a peasant is 1.
+     * The make span of building a peasant is its time cost.
      * @return the make span of building a peasant
      */
     @Override
     public int getMakeSpan() {
+        return makeSpan;
+    }
+
+    @Override
+    public StripsAction withMakeSpan(int makeSpan) {
+        return new BuildPeasantAction(gold, makeSpan);
+    }
+
+    /**
+     * @return the gold building a peasant takes
+     */
+    public int getGoldCost() {
+        return gold;
+    }
+
+    /**
+     * The town hall builds the peasant, so no peasant takes part.
+     * @return 1
+     */
+    @Override
+    public int getPeasantCount() {
         return 1;
     }
 
+    @Override
+    public long getKey() {
+        return ActionTable.key(ActionTable.BUILD_PEASANT, 1, -1, 0);
+    }
+
+    @Override
+    public <T> T carryOut(ActionSteps<T> steps) {
+        return steps.producePeasant(gold);
+    }
+
     /**
      * Returns the type of action as a string.
+     * The id of the new peasant depends on the state the action is applied to,
+     * so it is not part of the action.
      * @return the type of action as a string
      */
     @Override
     public String toString() {
-        return "BUILD_PEASANT(peasant id: " + id + ")";
+        return "BUILD_PEASANT()";
+    }
+
+    /**
+     * All build peasant actions are equal since they have no parameters.
+     *
+     * @return true if the other object is a build peasant action
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BuildPeasantAction;
+    }
+
+    @Override
+    public int hashCode() {
+        return BuildPeasantAction.class.hashCode();
     }
 }
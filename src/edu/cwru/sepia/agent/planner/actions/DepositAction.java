@@ -1,5 +1,6 @@
 package edu.cwru.sepia.agent.planner.actions;
 
+import edu.cwru.sepia.agent.planner.CostModel;
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.Peasant;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
@@ -10,10 +11,12 @@ import edu.cwru.sepia.environment.model.state.ResourceNode;
  * The preconditions for this action are that the desired number of peasants are
  * adjacent to the town hall and each have cargo.
  * 
- * The effects of this action are that the peasants will have deposited (100 * the 
- * number of peasants)-worth in gold and/or wood to the town hall.
+ * The effects of this action are that the peasants will have deposited the cargo
+ * they carry in gold and/or wood to the town hall.
  * 
- * The make span is simply 1 for this action.
+ * The make span is the cycles of a deposit, simply 1 in the unit cost model.
+ * 
+ * A deposit is grounded for a depot and only uses the peasants at that depot.
  * 
  * @author Shaun Howard, Matt Swartwout
  *
@@ -21,16 +24,51 @@ import edu.cwru.sepia.environment.model.state.ResourceNode;
 public class DepositAction implements StripsAction {
 
 	//The peasant count for this action to operate on
-    private int peasantCount;
+    private final int peasantCount;
+
+    //the index of the depot the peasants deposit at
+    private final int depot;
+
+    //the cycles of depositing
+    private final int makeSpan;
 
     /**
      * Constructs a new deposit action for the specified number
-     * of peasants.
+     * of peasants at the town hall.
      * 
      * @param peasantCount - the number of peasants who need to deposit
      */
     public DepositAction(int peasantCount) {
+        this(peasantCount, 0);
+    }
+
+    /**
+     * Constructs a new deposit action for the specified number
+     * of peasants at the given depot.
+     * 
+     * @param peasantCount - the number of peasants who need to deposit
+     * @param depot - the index of the depot
+     */
+    public DepositAction(int peasantCount, int depot) {
+        this(peasantCount, depot, CostModel.UNIT);
+    }
+
+    /**
+     * Constructs a new deposit action for the specified number
+     * of peasants at the given depot with the costs of the game.
+     * 
+     * @param peasantCount - the number of peasants who need to deposit
+     * @param depot - the index of the depot
+     * @param costs - the costs and capacities of the game
+     */
+    public DepositAction(int peasantCount, int depot, CostModel costs) {
+        this(peasantCount, depot, costs.getDepositCycles());
+    }
+
+    private DepositAction(int peasantCount, int depot, int makeSpan) {
         this.peasantCount = peasantCount;
+        this.depot = depot;
+        this.makeSpan = makeSpan;
     }
 
     /**
@@ -76,16 +114,15 @@ public class DepositAction implements StripsAction {
         for(Peasant peasant: newState.peasants) {
             if(isValid(peasant) && i++ < peasantCount) {
                 if(peasant.getCargo().equals(ResourceNode.Type.GOLD_MINE)) {
-                	newState.gold += 100;
+                	newState.gold += peasant.getCargoAmount();
                 }
                 else {
-                	newState.wood += 100;
+                	newState.wood += peasant.getCargoAmount();
                 }
                 peasant.setCargo(null);
                 peasant.setCargoAmount(0);
             }
         }
-        newState.parentAction = this;
         return newState;
     }
 
@@ -97,16 +134,22 @@ public class DepositAction implements StripsAction {
      * @return whether the given peasant is valid for this action
      */
     private boolean isValid(Peasant peasant) {
-        return peasant.getAdjacentResource() == null && peasant.getCargo() != null && peasant.getCargoAmount() > 0;
+        return peasant.getAdjacentResource() == null && peasant.getCargo() != null && peasant.getCargoAmount() > 0
+        		&& peasant.getDepot() == depot;
     }
 
     /**
-     * The make span of this action is simply 1.
+     * The make span of this action is the cycles of a deposit.
      * @return the make span of this action
      */
     @Override
     public int getMakeSpan() {
-        return 1;
+        return makeSpan;
+    }
+
+    @Override
+    public StripsAction withMakeSpan(int makeSpan) {
+        return new DepositAction(peasantCount, depot, makeSpan);
     }
 
     /**
@@ -115,11 +158,26 @@ public class DepositAction implements StripsAction {
      */
     @Override
     public String toString() {
-        return "DEPOSIT(peasant count: " + peasantCount + ")";
+        return "DEPOSIT(peasant count: " + peasantCount + (depot == 0 ? "" : ", depot: " + depot) + ")";
     }
-    
 
+    @Override
     public int getPeasantCount() { return peasantCount; }
+
+    @Override
+    public long getKey() {
+        return ActionTable.key(ActionTable.DEPOSIT, peasantCount, -1, depot);
+    }
+
+    @Override
+    public <T> T carryOut(ActionSteps<T> steps) {
+        return steps.deposit(peasantCount, depot);
+    }
+
+    /**
+     * @return the index of the depot the peasants deposit at
+     */
+    public int getDepot() { return depot; }
     
     /**
      * Determines if two deposit actions are equal based on their peasant counts.
@@ -130,8 +188,13 @@ public class DepositAction implements StripsAction {
 	public boolean equals(Object o){
 		if (o != null && o instanceof DepositAction){
 			DepositAction a = (DepositAction)o;
-			return a.peasantCount == this.peasantCount;
+			return a.peasantCount == this.peasantCount && a.depot == this.depot;
 		}
 		return false;
 	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * DepositAction.class.hashCode() + peasantCount) + depot;
+	}
 }
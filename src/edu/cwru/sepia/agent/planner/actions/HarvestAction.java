@@ -1,8 +1,10 @@
 package edu.cwru.sepia.agent.planner.actions;
 
+import edu.cwru.sepia.agent.planner.CostModel;
 import edu.cwru.sepia.agent.planner.Peasant;
 import edu.cwru.sepia.agent.planner.Resource;
 import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
 
 /**
  * A harvest action is an action to harvest resources in sepia with
@@ -12,27 +14,34 @@ import edu.cwru.sepia.agent.planner.GameState;
  * a resource node, the resource can be gathered, and the peasants are not
  * carrying any cargo yet.
  * 
- * The effects for this action are that the resource will have (100 * number 
- * of peasants) less value, and the peasants that gathered will have 100 of the
- * resource each.
+ * The effects for this action are that the resource will have (cargo * number 
+ * of peasants) less value, and the peasants that gathered will have a cargo of the
+ * resource each, 100 in the unit cost model.
  * 
- * The make span for this action is 1.
+ * The make span for this action is the cycles of gathering the resource, 1 in the
+ * unit cost model.
  * 
  * @author Shaun Howard, Matt Swartwout
  */
 public class HarvestAction implements StripsAction {
 
 	//the number of peasants to apply the action with
-	private int peasantCount;
+	private final int peasantCount;
 	
 	//the id of the target resource
-	private Integer targetResourceId; 
+	private final int targetResourceId; 
 	
 	//the x coordinate of the resource to gather
-	private int resX;
+	private final int resX;
 	
 	//the y coordinate of the resource to gather
-	private int resY;
+	private final int resY;
+
+	//the amount each peasant carries away
+	private final int capacity;
+
+	//the cycles of gathering the resource
+	private final int makeSpan;
 
 	/**
 	 * Construct a gather action from the specified number of peasants, the designated target id, 
@@ -43,11 +52,32 @@ public class HarvestAction implements StripsAction {
 	 * @param resX - the x coordinate of the target
 	 * @param resY - the y coordinate of the target
 	 */
-	public HarvestAction(int peasantCount, Integer targetId, int resX, int resY) {
+	public HarvestAction(int peasantCount, int targetId, int resX, int resY) {
+		this(peasantCount, targetId, resX, resY, CostModel.UNIT, ResourceNode.Type.GOLD_MINE);
+	}
+
+	/**
+	 * Construct a gather action whose cargo and make span come from the costs of the game.
+	 * 
+	 * @param peasantCount - the number of peasants to operate on
+ 	 * @param targetId - the id of the target resource
+	 * @param resX - the x coordinate of the target
+	 * @param resY - the y coordinate of the target
+	 * @param costs - the costs and capacities of the game
+	 * @param type - the type of the target resource
+	 */
+	public HarvestAction(int peasantCount, int targetId, int resX, int resY, CostModel costs,
+			ResourceNode.Type type) {
+		this(peasantCount, targetId, resX, resY, costs.getCapacity(type), costs.getGatherCycles(type));
+	}
+
+	private HarvestAction(int peasantCount, int targetId, int resX, int resY, int capacity, int makeSpan) {
 		this.peasantCount = peasantCount;
 		this.targetResourceId = targetId;
 		this.resX = resX;
 		this.resY = resY;
+		this.capacity = capacity;
+		this.makeSpan = makeSpan;
 	}
 
 	/**
@@ -64,7 +94,7 @@ public class HarvestAction implements StripsAction {
 		//Make sure there are enough resources to gather and up to the
 		//number of peasants for this action available to gather.
 		if (peasantCount <= s.peasants.size()
-				&& s.getResourceWithId(targetResourceId).getAmount() >= peasantCount*100) {
+				&& s.getResourceWithId(targetResourceId).getAmount() >= peasantCount*capacity) {
 			for (Peasant peasant : s.peasants) {
 				//check that the peasants are valid for this action
 				//and that there are enough
@@ -96,9 +126,9 @@ public class HarvestAction implements StripsAction {
 		for (Peasant peasant : newState.peasants) {
 			if (isValid(peasant) 
 					&& i++ < peasantCount
-					&& res.getAmount() >= 100) {
+					&& res.getAmount() >= capacity) {
 				
-				int value = res.gather();
+				int value = res.gather(capacity);
 				
 				if (value > 0) {
 					peasant.setCargo(res.getType());
@@ -110,8 +140,6 @@ public class HarvestAction implements StripsAction {
 			}
 		}
 		
-		//track the parent action for the new state
-		newState.parentAction = this;
 		return newState;
 	}
 
@@ -130,12 +158,17 @@ public class HarvestAction implements StripsAction {
 	}
 
 	/**
-	 * Make span is simply 1 for this action.
+	 * Make span is the cycles of gathering the resource.
 	 * @return the make span for this action
 	 */
 	@Override
 	public int getMakeSpan() {
-		return 1;
+		return makeSpan;
+	}
+
+	@Override
+	public StripsAction withMakeSpan(int makeSpan) {
+		return new HarvestAction(peasantCount, targetResourceId, resX, resY, capacity, makeSpan);
 	}
 
 	/**
@@ -149,10 +182,21 @@ public class HarvestAction implements StripsAction {
 		return "HARVEST(peasant count: " + peasantCount + ", resource id: " + targetResourceId + ")";
 	}
 	
+	@Override
 	public int getPeasantCount() {
 		return peasantCount;
 	}
 
+	@Override
+	public long getKey() {
+		return ActionTable.key(ActionTable.HARVEST, peasantCount, targetResourceId, 0);
+	}
+
+	@Override
+	public <T> T carryOut(ActionSteps<T> steps) {
+		return steps.gather(peasantCount, targetResourceId);
+	}
+
 	public int getTargetId() {
 		return targetResourceId;
 	}
@@ -179,4 +223,9 @@ public class HarvestAction implements StripsAction {
 		}
 		return false;
 	}
+
+	@Override
+	public int hashCode() {
+		return 31 * targetResourceId + peasantCount;
+	}
 }
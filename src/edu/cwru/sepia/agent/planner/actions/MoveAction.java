@@ -4,6 +4,8 @@ import edu.cwru.sepia.agent.planner.Peasant;
 import edu.cwru.sepia.agent.planner.Resource;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
 
+import java.util.Objects;
+
 /**
  * A move action moves the given number of peasants from the specified origin to the
  * specified destination. 
@@ -16,24 +18,31 @@ import edu.cwru.sepia.environment.model.state.ResourceNode;
  * 
  * The origin and destination are represented by their ids.
  * The make span for this move is the distance from the origin 
- * and the destination.
+ * and the destination, in the move cycles of the cost model of the game.
+ * 
+ * A map may have several depots that accept cargo, so every move is grounded
+ * for a depot: the peasants leave from it to a resource or return to it
+ * from a resource. Peasants only leave from the depot they are at.
  * 
  * @author Shaun Howard, Matt Swartwout
  */
 public class MoveAction implements StripsAction {
 
 	//the peasant count to operate on for this action
-    private int peasantCount;       
+    private final int peasantCount;       
     
     //ids of the unit at the origin location and the destination location
     //one is null if it is the town hall
-    public Integer startId, finishId;
+    public final Integer startId, finishId;
     
     //the cost to execute this action in sepia
-    private int makeSpan;
+    private final int makeSpan;
     
     //whether this action goes to the townhall
-    private boolean toTownHall;
+    private final boolean toTownHall;
+
+    //the index of the depot the peasants leave from or return to
+    private final int depot;
 
     /**
      * Constructions a new move STRIPS-like action given the designated number of peasants to move, 
@@ -47,12 +56,34 @@ public class MoveAction implements StripsAction {
      * @param toTownhall - whether this move goes to a town hall
      */
     public MoveAction(int peasantCount, GameState state, Integer startId, Integer finishId, boolean toTownhall) {
+        this(peasantCount, state, startId, finishId, toTownhall, 0);
+    }
+
+    /**
+     * Constructs a move between a resource and the given depot.
+     * 
+     * @param peasantCount - the number of peasants in this move
+     * @param state - the current game state to apply the move to
+     * @param startId - the origin position of the move
+     * @param finishId - the destination position of the move
+     * @param toTownhall - whether this move goes to a depot
+     * @param depot - the index of the depot the move leaves from or goes to
+     */
+    public MoveAction(int peasantCount, GameState state, Integer startId, Integer finishId, boolean toTownhall,
+    		int depot) {
+        //set the makespan to the distance of this resource from the depot
+        this(peasantCount, startId, finishId, toTownhall, depot, state.getCosts().getMoveCycles(
+        		state.getResourceWithId(finishId == null ? startId : finishId).getDistance(depot)));
+    }
+
+    private MoveAction(int peasantCount, Integer startId, Integer finishId, boolean toTownhall, int depot,
+    		int makeSpan) {
         this.peasantCount = peasantCount;
         this.startId = startId;
         this.finishId = finishId;
         this.toTownHall = toTownhall;
-        //set the makespan to the distance of this resource from the townhall
-        makeSpan = state.getResourceWithId(finishId == null ? startId : finishId).getDistance();
+        this.depot = depot;
+        this.makeSpan = makeSpan;
     }
 
     @Override
@@ -66,7 +97,7 @@ public class MoveAction implements StripsAction {
             //Prioritize gold over wood
             if((resource.getType().equals(ResourceNode.Type.TREE) && s.gold < goal.gold) || 
                (resource.getType().equals(ResourceNode.Type.GOLD_MINE) && s.gold > goal.gold) ||
-               (resource.getAmount() < peasantCount * 100)) {
+               (resource.getAmount() < peasantCount * s.getCosts().getCapacity(resource.getType()))) {
             	return false;
             }
         }
@@ -95,10 +126,12 @@ public class MoveAction implements StripsAction {
         	//check that peasants are valid and there are a limited number selected
             if(isValid(peasant) && i++ < peasantCount) {
             	//
-                if(finishId == null) peasant.setAdjacentResource(null);
+                if(finishId == null) {
+                	peasant.setAdjacentResource(null);
+                	peasant.setDepot(depot);
+                }
                 else peasant.setAdjacentResource(newState.getResourceWithId(finishId));
             }
-        newState.parentAction = this;
         return newState;
     }
 
@@ -115,9 +148,9 @@ public class MoveAction implements StripsAction {
             return peasant.getCargo() != null && 
             peasant.getCargoAmount() > 0 && 
             peasant.getAdjacentResource() != null &&
-            peasant.getAdjacentResource().getId() == startId;
+            peasant.getAdjacentResource().getId() == startId.intValue();
         } else {
-            return peasant.getAdjacentResource() == null && peasant.getCargo() == null;
+            return peasant.getAdjacentResource() == null && peasant.getCargo() == null && peasant.getDepot() == depot;
         }
     }
 
@@ -130,24 +163,46 @@ public class MoveAction implements StripsAction {
     public int getMakeSpan() {
         return makeSpan;
     }
+
+    @Override
+    public StripsAction withMakeSpan(int makeSpan) {
+        return new MoveAction(peasantCount, startId, finishId, toTownHall, depot, makeSpan);
+    }
     
     public boolean toTownHall(){
     	return this.toTownHall;
     }
 
+    @Override
     public int getPeasantCount() { return peasantCount; }
 
+    @Override
+    public long getKey() {
+        return toTownHall ? ActionTable.key(ActionTable.MOVE_TO_TOWN_HALL, peasantCount, startId, depot)
+                : ActionTable.key(ActionTable.MOVE_TO_RESOURCE, peasantCount, finishId, depot);
+    }
+
+    @Override
+    public <T> T carryOut(ActionSteps<T> steps) {
+        return steps.walk(peasantCount, toTownHall ? startId : finishId, depot, toTownHall);
+    }
+
     public Integer getDestId() { return finishId; }
 
     public Integer getOriginId() { return startId; }
 
+    /**
+     * @return the index of the depot the move leaves from or goes to
+     */
+    public int getDepot() { return depot; }
+
     /**
      * Returns a string with the action type, the number of peasants, and the origin and destination ids.
      * @return the string of the action
      */
     @Override
     public String toString() {
-    	String townhall = "town hall";
+    	String townhall = depot == 0 ? "town hall" : "depot " + depot;
     	if (startId == null){
     		return "MOVE(peasant count: " + peasantCount + ", from: " + townhall + ", to resource with id: " + finishId + ")";
     	} else {
@@ -164,10 +219,16 @@ public class MoveAction implements StripsAction {
 	public boolean equals(Object o){
 		if (o != null && o instanceof MoveAction){
 			MoveAction a = (MoveAction)o;
-			return a.startId == this.startId &&
-					a.finishId == this.finishId &&
-					a.peasantCount == this.peasantCount;
+			return Objects.equals(a.startId, this.startId) &&
+					Objects.equals(a.finishId, this.finishId) &&
+					a.peasantCount == this.peasantCount &&
+					a.depot == this.depot;
 		}
 		return false;
 	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(startId, finishId, peasantCount, depot);
+	}
 }
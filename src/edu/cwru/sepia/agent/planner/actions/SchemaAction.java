@@ -0,0 +1,398 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Peasant;
+
+/**
+ * An action defined by a schema of a Domain instead of a class of its own: conditions
+ * and effects on the numeric fluents of a game state, the unit it makes in the game and
+ * whether a peasant builds it or the town hall produces it.
+ *
+ * The fluents are numbered: gold, wood and the number of peasants come first, then the
+ * fluents the domain declares. A condition compares a fluent to a constant and an effect
+ * adds a constant to a fluent or sets it. When the action is made, every condition and
+ * effect is compiled into a lambda specialised for its fluent and operator, and the
+ * lambdas are chained, so checking and applying the action reads the fields of the state
+ * directly instead of interpreting the schema every time.
+ *
+ * An action a peasant builds needs an idle peasant without cargo at the town hall, which
+ * stays there in the plan. The conditions and effects are also kept as flat arrays for
+ * the plan validator and the simulator.
+ *
+ * @author Shaun Howard, Matt Swartwout
+ */
+public class SchemaAction implements StripsAction {
+
+	//the numbers of the fluents every game has, the declared fluents follow
+	public static final int GOLD = 0;
+	public static final int WOOD = 1;
+	public static final int PEASANTS = 2;
+	public static final int FIRST_DECLARED = 3;
+
+	//the operators of the conditions
+	public static final int LESS = 0;
+	public static final int AT_MOST = 1;
+	public static final int EQUAL = 2;
+	public static final int NOT_EQUAL = 3;
+	public static final int AT_LEAST = 4;
+	public static final int MORE = 5;
+
+	//the operators of the effects
+	public static final int ADD = 0;
+	public static final int SET = 1;
+
+	/**
+	 * A compiled condition on a state.
+	 */
+	private interface Condition {
+		boolean test(GameState state);
+	}
+
+	/**
+	 * A compiled effect on a new state.
+	 */
+	private interface Effect {
+		void apply(GameState state);
+	}
+
+	//the position of the schema in its domain
+	private final int index;
+
+	private final String name;
+
+	//the template of the unit the action makes in the game, or null
+	private final String unit;
+
+	//whether a peasant builds the unit, otherwise the town hall produces it
+	private final boolean built;
+
+	//the conditions and effects as (fluent, operator, value)
+	private final int[] conditionFluents;
+	private final int[] conditionOperators;
+	private final int[] conditionValues;
+	private final int[] effectFluents;
+	private final int[] effectOperators;
+	private final int[] effectValues;
+
+	//the game cycles the unit takes to make
+	private final int cycles;
+
+	private final int makeSpan;
+
+	//the compiled conditions and effects
+	private final Condition condition;
+	private final Effect effect;
+
+	/**
+	 * @param index - the position of the schema in its domain
+	 * @param name - the name of the action
+	 * @param unit - the template of the unit the action makes in the game, or null
+	 * @param built - whether a peasant builds the unit, otherwise the town hall produces it
+	 * @param conditions - a (fluent, operator, value) triple for every condition
+	 * @param effects - a (fluent, operator, value) triple for every effect
+	 * @param cycles - the game cycles the unit takes to make
+	 * @param makeSpan - the make span of the action
+	 */
+	public SchemaAction(int index, String name, String unit, boolean built, int[][] conditions, int[][] effects,
+			int cycles, int makeSpan) {
+		this.index = index;
+		this.name = name;
+		this.unit = unit;
+		this.built = built;
+		this.cycles = cycles;
+		this.makeSpan = makeSpan;
+		conditionFluents = column(conditions, 0);
+		conditionOperators = column(conditions, 1);
+		conditionValues = column(conditions, 2);
+		effectFluents = column(effects, 0);
+		effectOperators = column(effects, 1);
+		effectValues = column(effects, 2);
+		for (int fluent : effectFluents) {
+			if (fluent == PEASANTS) {
+				throw new IllegalArgumentException("The peasants of " + name + " can only be read");
+			}
+		}
+
+		Condition compiled = built ? SchemaAction::hasBuilder : state -> true;
+		for (int i = conditions.length - 1; i >= 0; i--) {
+			compiled = and(compileCondition(conditionFluents[i], conditionOperators[i], conditionValues[i]), compiled);
+		}
+		condition = compiled;
+		Effect compiledEffect = state -> { };
+		for (int i = effects.length - 1; i >= 0; i--) {
+			compiledEffect = then(compileEffect(effectFluents[i], effectOperators[i], effectValues[i]), compiledEffect);
+		}
+		effect = compiledEffect;
+	}
+
+	private static int[] column(int[][] rows, int column) {
+		int[] values = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			values[i] = rows[i][column];
+		}
+		return values;
+	}
+
+	/**
+	 * Compiles a condition into a lambda that reads its fluent straight from the state.
+	 */
+	private static Condition compileCondition(int fluent, int operator, int value) {
+		if (fluent == GOLD) {
+			switch (operator) {
+			case LESS: return state -> state.gold < value;
+			case AT_MOST: return state -> state.gold <= value;
+			case EQUAL: return state -> state.gold == value;
+			case NOT_EQUAL: return state -> state.gold != value;
+			case AT_LEAST: return state -> state.gold >= value;
+			default: return state -> state.gold > value;
+			}
+		}
+		if (fluent == WOOD) {
+			switch (operator) {
+			case LESS: return state -> state.wood < value;
+			case AT_MOST: return state -> state.wood <= value;
+			case EQUAL: return state -> state.wood == value;
+			case NOT_EQUAL: return state -> state.wood != value;
+			case AT_LEAST: return state -> state.wood >= value;
+			default: return state -> state.wood > value;
+			}
+		}
+		if (fluent == PEASANTS) {
+			switch (operator) {
+			case LESS: return state -> state.peasants.size() < value;
+			case AT_MOST: return state -> state.peasants.size() <= value;
+			case EQUAL: return state -> state.peasants.size() == value;
+			case NOT_EQUAL: return state -> state.peasants.size() != value;
+			case AT_LEAST: return state -> state.peasants.size() >= value;
+			default: return state -> state.peasants.size() > value;
+			}
+		}
+		int slot = fluent - FIRST_DECLARED;
+		switch (operator) {
+		case LESS: return state -> state.fluents[slot] < value;
+		case AT_MOST: return state -> state.fluents[slot] <= value;
+		case EQUAL: return state -> state.fluents[slot] == value;
+		case NOT_EQUAL: return state -> state.fluents[slot] != value;
+		case AT_LEAST: return state -> state.fluents[slot] >= value;
+		default: return state -> state.fluents[slot] > value;
+		}
+	}
+
+	/**
+	 * Compiles an effect into a lambda that writes its fluent straight into the state.
+	 */
+	private static Effect compileEffect(int fluent, int operator, int value) {
+		if (fluent == GOLD) {
+			return operator == SET ? state -> state.gold = value : state -> state.gold += value;
+		}
+		if (fluent == WOOD) {
+			return operator == SET ? state -> state.wood = value : state -> state.wood += value;
+		}
+		int slot = fluent - FIRST_DECLARED;
+		return operator == SET ? state -> state.fluents[slot] = value : state -> state.fluents[slot] += value;
+	}
+
+	private static Condition and(Condition first, Condition rest) {
+		return state -> first.test(state) && rest.test(state);
+	}
+
+	private static Effect then(Effect first, Effect rest) {
+		return state -> {
+			first.apply(state);
+			rest.apply(state);
+		};
+	}
+
+	/**
+	 * @return whether an idle peasant without cargo is at the town hall to build the unit
+	 */
+	private static boolean hasBuilder(GameState state) {
+		for (Peasant peasant : state.peasants) {
+			if (isBuilder(peasant)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isBuilder(Peasant peasant) {
+		return peasant.getAdjacentResource() == null && peasant.getCargo() == null && peasant.getDepot() == 0;
+	}
+
+	@Override
+	public boolean preconditionsMet(GameState state, GameState goal) {
+		return condition.test(state);
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		GameState newState = new GameState(state);
+		effect.apply(newState);
+		return newState;
+	}
+
+	/**
+	 * Checks the conditions on fluent values kept in an array, numbered like the fluents
+	 * of the schema. The builder is not checked.
+	 *
+	 * @param values - the value of every fluent
+	 * @return whether every condition holds
+	 */
+	public boolean conditionsMet(int[] values) {
+		for (int i = 0; i < conditionFluents.length; i++) {
+			if (!holds(values[conditionFluents[i]], conditionOperators[i], conditionValues[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the effects to fluent values kept in an array, numbered like the fluents of the schema.
+	 *
+	 * @param values - the value of every fluent, which are changed
+	 */
+	public void applyEffects(int[] values) {
+		for (int i = 0; i < effectFluents.length; i++) {
+			values[effectFluents[i]] = effectOperators[i] == SET ? effectValues[i]
+					: values[effectFluents[i]] + effectValues[i];
+		}
+	}
+
+	/**
+	 * @return whether a value compares to a constant with the operator
+	 */
+	public static boolean holds(int value, int operator, int constant) {
+		switch (operator) {
+		case LESS: return value < constant;
+		case AT_MOST: return value <= constant;
+		case EQUAL: return value == constant;
+		case NOT_EQUAL: return value != constant;
+		case AT_LEAST: return value >= constant;
+		default: return value > constant;
+		}
+	}
+
+	/**
+	 * @param fluent - the number of a fluent
+	 * @return what the effects add to the fluent, 0 if they set it or leave it alone
+	 */
+	public int getChange(int fluent) {
+		int change = 0;
+		for (int i = 0; i < effectFluents.length; i++) {
+			if (effectFluents[i] == fluent && effectOperators[i] == ADD) {
+				change += effectValues[i];
+			}
+		}
+		return change;
+	}
+
+	/**
+	 * @return the gold the action spends
+	 */
+	public int getGoldCost() {
+		return Math.max(0, -getChange(GOLD));
+	}
+
+	/**
+	 * @return the wood the action spends
+	 */
+	public int getWoodCost() {
+		return Math.max(0, -getChange(WOOD));
+	}
+
+	public int getIndex() { return index; }
+
+	public String getName() { return name; }
+
+	/**
+	 * @return the template of the unit the action makes in the game, or null if it makes none
+	 */
+	public String getUnit() { return unit; }
+
+	/**
+	 * @return whether a peasant builds the unit, otherwise the town hall produces it
+	 */
+	public boolean isBuilt() { return built; }
+
+	/**
+	 * @return the game cycles the unit takes to make
+	 */
+	public int getCycles() { return cycles; }
+
+	public int[] getConditionFluents() { return conditionFluents.clone(); }
+
+	public int[] getConditionOperators() { return conditionOperators.clone(); }
+
+	public int[] getConditionValues() { return conditionValues.clone(); }
+
+	public int[] getEffectFluents() { return effectFluents.clone(); }
+
+	public int[] getEffectOperators() { return effectOperators.clone(); }
+
+	public int[] getEffectValues() { return effectValues.clone(); }
+
+	@Override
+	public int getMakeSpan() {
+		return makeSpan;
+	}
+
+	@Override
+	public StripsAction withMakeSpan(int makeSpan) {
+		return new SchemaAction(index, name, unit, built, rows(conditionFluents, conditionOperators, conditionValues),
+				rows(effectFluents, effectOperators, effectValues), cycles, makeSpan);
+	}
+
+	/**
+	 * @param cycles - the game cycles of the copy
+	 * @return the same action taking the given game cycles to make its unit
+	 */
+	public SchemaAction withCycles(int cycles) {
+		return new SchemaAction(index, name, unit, built, rows(conditionFluents, conditionOperators, conditionValues),
+				rows(effectFluents, effectOperators, effectValues), cycles, makeSpan);
+	}
+
+	/**
+	 * @return 1, the peasant that builds the unit or the town hall
+	 */
+	@Override
+	public int getPeasantCount() {
+		return 1;
+	}
+
+	/**
+	 * The position of the action in its domain stands in for the resource of the key.
+	 */
+	@Override
+	public long getKey() {
+		return ActionTable.key(ActionTable.SCHEMA, 1, index, 0);
+	}
+
+	@Override
+	public <T> T carryOut(ActionSteps<T> steps) {
+		return steps.make(this);
+	}
+
+	private static int[][] rows(int[] fluents, int[] operators, int[] values) {
+		int[][] rows = new int[fluents.length][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new int[] {fluents[i], operators[i], values[i]};
+		}
+		return rows;
+	}
+
+	@Override
+	public String toString() {
+		return name + "()";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof SchemaAction && ((SchemaAction) o).index == index;
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+}
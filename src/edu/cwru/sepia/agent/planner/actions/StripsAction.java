@@ -7,6 +7,8 @@ import edu.cwru.sepia.agent.planner.GameState;
  * Checks if the action meets the preconditions to reach the goal state given the current state.
  * Applies this action to the given game state.
  * Has an associated make span which depends on the actual time sepia needs to apply action.
+ * Every grounded action is interned in an ActionTable and addressed by its code.
+ * Whatever carries an action out, in SEPIA or in a copy of the rules, gets its steps from it.
  * 
  * @author Shaun Howard, Matt Swartwout
  */
@@ -34,7 +36,8 @@ public interface StripsAction {
      * might specify that peasant 1 is at location (3, 3). The returned GameState should specify
      * peasant 1 at location (3, 2).
      *
-     * In the process of updating the peasant state you should also update the GameState's cost and parent pointers.
+     * Actions are immutable and shared by every state of a search, so applying an action must not change
+     * the action itself. The parent action code of the new state is recorded by the ActionTable.
      *
      * @param state State to apply action to
      * @return State resulting from successful action application.
@@ -48,4 +51,36 @@ public interface StripsAction {
      * @return the make span of the action, i.e the time it takes to execute
      */
     public int getMakeSpan();
+
+    /**
+     * Makes a copy of this action that takes the given make span instead, for when the
+     * durations observed in the game are known.
+     *
+     * @param makeSpan - the make span of the copy
+     * @return the same action with the given make span
+     */
+    public StripsAction withMakeSpan(int makeSpan);
+
+    /**
+     * @return the number of peasants that do the action together, 1 for an action of the town hall
+     */
+    public int getPeasantCount();
+
+    /**
+     * Gets the key of the action, made by ActionTable.key from its kind, peasant count,
+     * resource and depot. Unlike its code the key names the same action in every table
+     * grounded on the same map, so plan files and duration tables store actions by it.
+     *
+     * @return the key of the action
+     */
+    public long getKey();
+
+    /**
+     * Hands the steps the action is made of to whatever carries it out, which is how the
+     * execution agent, the simulator and the validator learn what the action does.
+     *
+     * @param steps - what carries the steps out
+     * @return what carrying out the action gives
+     */
+    public <T> T carryOut(ActionSteps<T> steps);
 }